@@ -0,0 +1,81 @@
+package org.folio.rest.impl;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.io.Resources;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.jackson.JacksonCodec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.folio.rest.jaxrs.model.Contract;
+import org.folio.rest.jaxrs.model.Contracts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Jackson serialization and deserialization of contract collections of different sizes. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContractJsonBenchmark {
+
+  @Param({"1", "100", "1000"})
+  private int size;
+
+  private Contract contract;
+  private String contractJson;
+  private Contracts contracts;
+  private String contractsJson;
+
+  @Setup
+  public void setup() throws IOException {
+    List<Contract> samples =
+        JacksonCodec.decodeValue(
+            Resources.toString(
+                Resources.getResource("examplecontracts.json"), StandardCharsets.UTF_8),
+            new TypeReference<>() {});
+    List<Contract> list = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      String json = Json.encode(samples.get(i % samples.size()));
+      list.add(Json.decodeValue(json, Contract.class).withId(UUID.randomUUID().toString()));
+    }
+    contract = list.get(0);
+    contractJson = Json.encode(contract);
+    contracts = new Contracts().withContracts(list).withTotalRecords(size);
+    contractsJson = Json.encode(contracts);
+  }
+
+  @Benchmark
+  public String serializeContract() {
+    return Json.encode(contract);
+  }
+
+  @Benchmark
+  public Contract deserializeContract() {
+    return Json.decodeValue(contractJson, Contract.class);
+  }
+
+  @Benchmark
+  public String serializeContracts() {
+    return Json.encode(contracts);
+  }
+
+  @Benchmark
+  public Contracts deserializeContracts() {
+    return Json.decodeValue(contractsJson, Contracts.class);
+  }
+}
@@ -0,0 +1,86 @@
+package org.folio.rest.impl;
+
+import static org.folio.rest.impl.Constants.CACHE_STATUS_HIT;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.RequestOptions;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.Response;
+import org.folio.idm.IdmResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Per request work of searchidm that doesn't involve I/O. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdmConnectApiBenchmark {
+
+  private static final String IDM_URL = "http://localhost:8080/idm";
+  private static final String IDM_TOKEN = "someToken";
+
+  private final IdmConnectApi idmConnectApi = new IdmConnectApi();
+  private Map<String, String> queryParams;
+
+  @Setup
+  public void setup() {
+    queryParams = idmConnectApi.createIdmQueryParams("John", "Doe", "2015-12-24");
+  }
+
+  @Benchmark
+  public String toBasicIsoDate() {
+    return idmConnectApi.toBasicIsoDate("2015-12-24");
+  }
+
+  @Benchmark
+  public String toBasicIsoDateInvalid() {
+    return idmConnectApi.toBasicIsoDate("24.12.2015");
+  }
+
+  @Benchmark
+  public Map<String, String> createIdmQueryParams() {
+    return idmConnectApi.createIdmQueryParams("John", "Doe", "2015-12-24");
+  }
+
+  @Benchmark
+  public RequestOptions createIdmRequestOptions() {
+    return idmConnectApi.createIdmRequestOptions(IDM_URL, IDM_TOKEN, queryParams);
+  }
+
+  @Benchmark
+  public Response toResponse(ResponseState state) {
+    return idmConnectApi.toResponse(state.idmResponse, CACHE_STATUS_HIT);
+  }
+
+  @State(Scope.Benchmark)
+  public static class ResponseState {
+
+    @Param({"100", "10000", "1000000"})
+    private int bodySize;
+
+    private IdmResponse idmResponse;
+
+    @Setup
+    public void setup() {
+      StringBuilder body = new StringBuilder("[");
+      while (body.length() < bodySize) {
+        body.append("{\"givenname\":\"John\",\"surname\":\"Doe\",\"date_of_birth\":\"20151224\"},");
+      }
+      body.setCharAt(body.length() - 1, ']');
+      idmResponse = new IdmResponse(200, "application/json", Buffer.buffer(body.toString()));
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package org.folio.contract;
+
+import static org.folio.rest.impl.Constants.TABLE_NAME_CONTRACTS;
+
+import io.vertx.core.Future;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import org.folio.rest.jaxrs.model.Contract;
+import org.folio.rest.persist.Conn;
+import org.folio.rest.persist.PostgresClient;
+import org.folio.rest.tools.utils.MetadataUtil;
+
+/**
+ * Update and delete of a contract that only succeed if the current contract matches the {@code
+ * If-Match} header. The contract is locked while its tag is compared, so a concurrent write can't
+ * slip in between the comparison and the write.
+ */
+public class ContractConditionalWrite {
+
+  private final PostgresClient postgresClient;
+  private final Map<String, String> okapiHeaders;
+
+  public ContractConditionalWrite(PostgresClient postgresClient, Map<String, String> okapiHeaders) {
+    this.postgresClient = postgresClient;
+    this.okapiHeaders = okapiHeaders;
+  }
+
+  /** Returns false if the contract doesn't exist or doesn't match {@code ifMatch}. */
+  public Future<Boolean> put(String id, Contract entity, String ifMatch) {
+    entity.setId(id);
+    try {
+      MetadataUtil.populateMetadata(entity, okapiHeaders);
+    } catch (ReflectiveOperationException e) {
+      return Future.failedFuture(e);
+    }
+    return ifMatch(id, ifMatch, conn -> conn.update(TABLE_NAME_CONTRACTS, entity, id));
+  }
+
+  /** Returns false if the contract doesn't exist or doesn't match {@code ifMatch}. */
+  public Future<Boolean> delete(String id, String ifMatch) {
+    return ifMatch(id, ifMatch, conn -> conn.delete(TABLE_NAME_CONTRACTS, id));
+  }
+
+  private Future<Boolean> ifMatch(String id, String ifMatch, Function<Conn, Future<?>> write) {
+    if (!isUuid(id)) {
+      return Future.succeededFuture(false);
+    }
+    return postgresClient.withTrans(
+        conn ->
+            matches(conn, id, ifMatch)
+                .compose(
+                    matched ->
+                        matched ? write.apply(conn).map(true) : Future.succeededFuture(false)));
+  }
+
+  /**
+   * Locks the contract and compares its tag, a missing {@code ifMatch} matches any existing
+   * contract.
+   */
+  static Future<Boolean> matches(Conn conn, String id, String ifMatch) {
+    return conn.getByIdForUpdate(TABLE_NAME_CONTRACTS, id, Contract.class)
+        .map(
+            current ->
+                current != null
+                    && (ifMatch == null
+                        || ContractEtag.matchesIfMatch(ifMatch, ContractEtag.of(current))));
+  }
+
+  static boolean isUuid(String id) {
+    try {
+      UUID.fromString(id);
+      return true;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package org.folio.contract;
+
+import static org.folio.rest.impl.Constants.TABLE_NAME_CONTRACTS;
+
+import io.vertx.core.Future;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.Tuple;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.folio.rest.jaxrs.model.Contract;
+import org.folio.rest.jaxrs.model.DuplicateCandidate;
+import org.folio.rest.jaxrs.model.DuplicateCandidates;
+import org.folio.rest.persist.PostgresClient;
+
+/**
+ * Finds contracts of persons similar to a given one. Names are compared by trigram similarity
+ * using the gin indexes on {@code personal.firstName} and {@code personal.lastName}, so the cost
+ * doesn't grow with the number of contracts; swapped first and last names are detected. The date
+ * of birth is compared with all readings of the given date, e.g. with day and month swapped.
+ */
+public class ContractDuplicates {
+
+  public static final double NAME_WEIGHT = 0.7;
+  public static final double DATE_OF_BIRTH_WEIGHT = 0.3;
+
+  private static final String LAST_NAME = "lower(f_unaccent(jsonb->'personal'->>'lastName'))";
+  private static final String FIRST_NAME = "lower(f_unaccent(jsonb->'personal'->>'firstName'))";
+  private static final String DATE_OF_BIRTH =
+      "lower(f_unaccent(jsonb->'personal'->>'dateOfBirth'))";
+  private static final Pattern DATE_PARTS = Pattern.compile("(\\d+)\\D+(\\d+)\\D+(\\d+)");
+  private static final Pattern DATE_DIGITS = Pattern.compile("\\d{8}");
+
+  private final PostgresClient postgresClient;
+  private final String table;
+
+  public ContractDuplicates(PostgresClient postgresClient, String tenantId) {
+    this.postgresClient = postgresClient;
+    this.table = PostgresClient.convertToPsqlStandard(tenantId) + "." + TABLE_NAME_CONTRACTS;
+  }
+
+  /**
+   * Returns up to {@code limit} candidates with a score of at least {@code minScore}, highest
+   * score first. Fails with an {@link IllegalArgumentException} if neither a name nor a date of
+   * birth is given.
+   */
+  public Future<DuplicateCandidates> find(
+      String firstname, String lastname, String dateOfBirth, double minScore, int limit) {
+    String[] dates = toIsoDates(dateOfBirth).toArray(new String[0]);
+    if (isBlank(firstname) && isBlank(lastname) && dates.length == 0) {
+      return Future.failedFuture(
+          new IllegalArgumentException("firstname, lastname or a valid dateOfBirth is required"));
+    }
+    String ln = "lower(f_unaccent($1))";
+    String fn = "lower(f_unaccent($2))";
+    String sql =
+        "SELECT jsonb, score FROM (SELECT jsonb, "
+            + NAME_WEIGHT
+            + " * greatest("
+            + ("(similarity(" + LAST_NAME + ", " + ln + ")")
+            + (" + similarity(" + FIRST_NAME + ", " + fn + ")) / 2, ")
+            + ("(similarity(" + LAST_NAME + ", " + fn + ")")
+            + (" + similarity(" + FIRST_NAME + ", " + ln + ")) / 2)")
+            + (" + " + DATE_OF_BIRTH_WEIGHT + " * (" + DATE_OF_BIRTH + " = ANY($3))::int AS score")
+            + (" FROM " + table)
+            + (" WHERE " + LAST_NAME + " % " + ln)
+            + (" OR " + FIRST_NAME + " % " + fn)
+            + (" OR " + LAST_NAME + " % " + fn)
+            + (" OR " + FIRST_NAME + " % " + ln)
+            + (" OR " + DATE_OF_BIRTH + " = ANY($3)")
+            + ") candidates WHERE score >= $4 ORDER BY score DESC, jsonb->>'id' LIMIT $5";
+    Tuple params =
+        Tuple.of(
+            isBlank(lastname) ? "" : lastname,
+            isBlank(firstname) ? "" : firstname,
+            dates,
+            minScore,
+            limit);
+    return postgresClient
+        .select(sql, params)
+        .map(
+            rowSet -> {
+              DuplicateCandidates candidates = new DuplicateCandidates();
+              for (Row row : rowSet) {
+                candidates
+                    .getCandidates()
+                    .add(
+                        new DuplicateCandidate()
+                            .withScore(Math.round(row.getDouble("score") * 1000) / 1000.0)
+                            .withContract(row.getJsonObject("jsonb").mapTo(Contract.class)));
+              }
+              return candidates.withTotalRecords(candidates.getCandidates().size());
+            });
+  }
+
+  /**
+   * All ISO dates the input may stand for: YYYY-MM-DD, DD.MM.YYYY, MM/DD/YYYY, YYYYMMDD or
+   * DDMMYYYY, each also with day and month swapped.
+   */
+  static Set<String> toIsoDates(String dateOfBirth) {
+    Set<String> dates = new LinkedHashSet<>();
+    if (isBlank(dateOfBirth)) {
+      return dates;
+    }
+    String s = dateOfBirth.trim();
+    Matcher parts = DATE_PARTS.matcher(s);
+    if (parts.matches()) {
+      if (parts.group(1).length() == 4) {
+        addDates(dates, parts.group(1), parts.group(2), parts.group(3));
+      } else if (parts.group(3).length() == 4) {
+        addDates(dates, parts.group(3), parts.group(1), parts.group(2));
+      }
+    } else if (DATE_DIGITS.matcher(s).matches()) {
+      addDates(dates, s.substring(0, 4), s.substring(4, 6), s.substring(6, 8));
+      addDates(dates, s.substring(4, 8), s.substring(0, 2), s.substring(2, 4));
+    }
+    return dates;
+  }
+
+  private static void addDates(Set<String> dates, String year, String a, String b) {
+    addDate(dates, year, a, b);
+    addDate(dates, year, b, a);
+  }
+
+  private static void addDate(Set<String> dates, String year, String month, String day) {
+    try {
+      dates.add(
+          LocalDate.of(Integer.parseInt(year), Integer.parseInt(month), Integer.parseInt(day))
+              .toString());
+    } catch (DateTimeException | NumberFormatException e) {
+      // not a valid reading of the date
+    }
+  }
+
+  private static boolean isBlank(String s) {
+    return s == null || s.isBlank();
+  }
+}
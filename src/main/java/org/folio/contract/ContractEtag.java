@@ -0,0 +1,156 @@
+package org.folio.contract;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.vertx.core.json.Json;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.folio.rest.jaxrs.model.Contract;
+import org.folio.rest.jaxrs.model.Contracts;
+
+/**
+ * Entity tags of contracts and contract collections. The tag of a contract is derived from its id
+ * and {@code metadata.updatedDate}, which changes on every write, so the contract doesn't need to
+ * be serialized. The updated date is also given in clear in front of the hash, so that a write
+ * can check {@code If-Match} in its {@code WHERE} clause, see {@link #ifMatchUpdatedDates}.
+ * Contracts without metadata fall back to a hash of their content.
+ *
+ * <p>Tags of projected contracts also cover the normalized fields of the projection and are weak,
+ * so they neither match the tag of the full contract nor satisfy {@code If-Match}.
+ */
+public class ContractEtag {
+
+  private static final String WEAK_PREFIX = "W/";
+
+  private ContractEtag() {}
+
+  public static String of(Contract contract) {
+    return of(contract, null);
+  }
+
+  /** Tag of the contract restricted to {@code projection}, which may be null. */
+  public static String of(Contract contract, ContractProjection projection) {
+    Hasher hasher = newHasher(projection);
+    putContract(hasher, contract);
+    Long updatedDate = getUpdatedDate(contract);
+    if (updatedDate == null) {
+      return quote(hasher, projection);
+    }
+    return quote(toUpdatedDatePrefix(updatedDate) + hasher.hash(), projection);
+  }
+
+  /** The tag of a collection covers the tags of its contracts, totalRecords and the cursor. */
+  public static String of(Contracts contracts) {
+    return of(contracts, null);
+  }
+
+  /** Tag of the collection restricted to {@code projection}, which may be null. */
+  public static String of(Contracts contracts, ContractProjection projection) {
+    Hasher hasher = newHasher(projection);
+    hasher.putString(String.valueOf(contracts.getTotalRecords()), StandardCharsets.UTF_8);
+    hasher.putString(String.valueOf(contracts.getNextCursor()), StandardCharsets.UTF_8);
+    contracts.getContracts().forEach(contract -> putContract(hasher, contract));
+    return quote(hasher, projection);
+  }
+
+  /**
+   * The updated dates, in milliseconds, of the strong tags of an {@code If-Match} header that are
+   * tags of contract {@code id}; null if the header is {@code *}. A contract with metadata matches
+   * the header if its {@code metadata.updatedDate} is one of them.
+   */
+  public static List<Long> ifMatchUpdatedDates(String id, String header) {
+    if (header.trim().equals("*")) {
+      return null;
+    }
+    List<Long> updatedDates = new ArrayList<>();
+    for (String part : header.split(",")) {
+      String tag = part.trim();
+      int dash = tag.indexOf('-');
+      if (tag.startsWith(WEAK_PREFIX) || dash < 0) {
+        continue;
+      }
+      try {
+        long updatedDate = Long.parseLong(tag.substring(1, dash), Character.MAX_RADIX);
+        Hasher hasher = newHasher(null);
+        putContract(hasher, id, updatedDate);
+        if (tag.equals(quote(toUpdatedDatePrefix(updatedDate) + hasher.hash(), null))) {
+          updatedDates.add(updatedDate);
+        }
+      } catch (NumberFormatException e) {
+        // not a tag of a contract with metadata
+      }
+    }
+    return updatedDates;
+  }
+
+  /** Strong comparison as required for {@code If-Match}, weak tags never match. */
+  public static boolean matchesIfMatch(String header, String etag) {
+    return matches(header, etag, false);
+  }
+
+  /** Weak comparison as required for {@code If-None-Match}. */
+  public static boolean matchesIfNoneMatch(String header, String etag) {
+    return matches(header, etag, true);
+  }
+
+  private static boolean matches(String header, String etag, boolean weak) {
+    if (header == null || etag == null || (!weak && etag.startsWith(WEAK_PREFIX))) {
+      return false;
+    }
+    if (header.trim().equals("*")) {
+      return true;
+    }
+    String opaqueTag = stripWeakPrefix(etag);
+    return Arrays.stream(header.split(","))
+        .map(String::trim)
+        .filter(tag -> weak || !tag.startsWith(WEAK_PREFIX))
+        .map(ContractEtag::stripWeakPrefix)
+        .anyMatch(opaqueTag::equals);
+  }
+
+  private static String stripWeakPrefix(String tag) {
+    return tag.startsWith(WEAK_PREFIX) ? tag.substring(WEAK_PREFIX.length()) : tag;
+  }
+
+  private static Hasher newHasher(ContractProjection projection) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    if (projection != null) {
+      hasher.putString(projection.normalized(), StandardCharsets.UTF_8);
+    }
+    return hasher;
+  }
+
+  private static void putContract(Hasher hasher, Contract contract) {
+    Long updatedDate = getUpdatedDate(contract);
+    if (updatedDate != null) {
+      putContract(hasher, String.valueOf(contract.getId()), updatedDate);
+    } else {
+      hasher.putString(Json.encode(contract), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static void putContract(Hasher hasher, String id, long updatedDate) {
+    hasher.putString(id, StandardCharsets.UTF_8).putLong(updatedDate);
+  }
+
+  private static Long getUpdatedDate(Contract contract) {
+    if (contract.getMetadata() == null || contract.getMetadata().getUpdatedDate() == null) {
+      return null;
+    }
+    return contract.getMetadata().getUpdatedDate().getTime();
+  }
+
+  private static String toUpdatedDatePrefix(long updatedDate) {
+    return Long.toString(updatedDate, Character.MAX_RADIX) + "-";
+  }
+
+  private static String quote(Hasher hasher, ContractProjection projection) {
+    return quote(hasher.hash().toString(), projection);
+  }
+
+  private static String quote(String opaqueTag, ContractProjection projection) {
+    return (projection == null ? "" : WEAK_PREFIX) + "\"" + opaqueTag + "\"";
+  }
+}
@@ -0,0 +1,189 @@
+package org.folio.contract;
+
+import static org.folio.rest.impl.Constants.TABLE_NAME_CONTRACTS;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.Tuple;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.folio.rest.jaxrs.model.Contract.Status;
+import org.folio.rest.persist.PostgresClient;
+import org.folio.util.EnvUtils;
+
+/**
+ * Sets the status of contracts whose end date has passed to {@code expired}. All tenants that have
+ * the module enabled are processed one after another, the contracts of a tenant are updated in
+ * batches of {@code CONTRACT_EXPIRY_BATCH_SIZE} rows, each batch is a single UPDATE statement. Rows
+ * locked by a concurrent run of another module instance are skipped.
+ */
+public class ContractExpiry {
+
+  private static final Logger log = LogManager.getLogger(ContractExpiry.class);
+  private static final DateTimeFormatter METADATA_DATE_FORMAT =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSxxx");
+  private static final AtomicBoolean running = new AtomicBoolean();
+  private static volatile Run lastRun;
+
+  private final Vertx vertx;
+  private final Clock clock;
+  private final int batchSize;
+  private final int maxBatches;
+
+  public ContractExpiry(Vertx vertx, Clock clock, int batchSize, int maxBatches) {
+    this.vertx = vertx;
+    this.clock = clock;
+    this.batchSize = batchSize;
+    this.maxBatches = maxBatches;
+  }
+
+  public static ContractExpiry fromEnv(Vertx vertx) {
+    return new ContractExpiry(
+        vertx,
+        Clock.systemUTC(),
+        EnvUtils.getInt("CONTRACT_EXPIRY_BATCH_SIZE", 1000),
+        EnvUtils.getInt("CONTRACT_EXPIRY_MAX_BATCHES", 100));
+  }
+
+  public static Run getLastRun() {
+    return lastRun;
+  }
+
+  /** Runs the expiry for all tenants. Completes with {@code null} if a run is already ongoing. */
+  public Future<Run> run() {
+    if (!running.compareAndSet(false, true)) {
+      return Future.succeededFuture();
+    }
+    long start = System.nanoTime();
+    return getTenants(vertx)
+        .compose(
+            tenants -> {
+              Future<Integer> rows = Future.succeededFuture(0);
+              for (String tenant : tenants) {
+                rows =
+                    rows.compose(
+                        sum ->
+                            expireTenant(tenant)
+                                .map(count -> sum + count)
+                                .otherwise(
+                                    t -> {
+                                      log.error("Contract expiry failed for tenant {}", tenant, t);
+                                      return sum;
+                                    }));
+              }
+              return rows.map(
+                  sum -> new Run(tenants.size(), sum, (System.nanoTime() - start) / 1_000_000));
+            })
+        .onSuccess(
+            run -> {
+              lastRun = run;
+              log.info(
+                  "Contract expiry: {} contracts of {} tenants expired in {} ms",
+                  run.getRowsUpdated(),
+                  run.getTenants(),
+                  run.getDurationMillis());
+            })
+        .onFailure(t -> log.error("Contract expiry failed", t))
+        .onComplete(ar -> running.set(false));
+  }
+
+  /** Schema names of the tenants that have the module enabled. */
+  public static Future<List<String>> getTenants(Vertx vertx) {
+    String suffix = "_" + PostgresClient.getModuleName();
+    return PostgresClient.getInstance(vertx)
+        .select(
+            "SELECT nspname FROM pg_catalog.pg_namespace WHERE right(nspname, $1) = $2",
+            Tuple.of(suffix.length(), suffix))
+        .map(
+            rowSet -> {
+              List<String> tenants = new ArrayList<>();
+              for (Row row : rowSet) {
+                String schema = row.getString(0);
+                tenants.add(schema.substring(0, schema.length() - suffix.length()));
+              }
+              return tenants;
+            });
+  }
+
+  Future<Integer> expireTenant(String tenant) {
+    String today = LocalDate.now(clock).toString();
+    String updatedDate =
+        OffsetDateTime.now(clock.withZone(ZoneOffset.UTC)).format(METADATA_DATE_FORMAT);
+    return expireBatch(PostgresClient.getInstance(vertx, tenant), tenant, today, updatedDate, 0, 0);
+  }
+
+  private Future<Integer> expireBatch(
+      PostgresClient postgresClient,
+      String tenant,
+      String today,
+      String updatedDate,
+      int batch,
+      int rows) {
+    String table = PostgresClient.convertToPsqlStandard(tenant) + "." + TABLE_NAME_CONTRACTS;
+    String sql =
+        "WITH expired AS ("
+            + " SELECT id FROM "
+            + table
+            + " WHERE (jsonb->>'endDate') < $1 AND (jsonb->>'status') <> $2"
+            + " LIMIT $3 FOR UPDATE SKIP LOCKED)"
+            + " UPDATE "
+            + table
+            + " c SET jsonb = jsonb_set(jsonb_set(c.jsonb, '{status}', to_jsonb($2::text)),"
+            + " '{metadata,updatedDate}', to_jsonb($4::text))"
+            + " FROM expired WHERE c.id = expired.id";
+    return postgresClient
+        .execute(sql, Tuple.of(today, Status.EXPIRED.value(), batchSize, updatedDate))
+        .compose(
+            rowSet -> {
+              int updated = rowSet.rowCount();
+              if (updated < batchSize || batch + 1 >= maxBatches) {
+                return Future.succeededFuture(rows + updated);
+              }
+              // continue on a later event loop turn, other requests are served in between
+              return Future.<Void>future(promise -> vertx.runOnContext(promise::complete))
+                  .compose(
+                      v ->
+                          expireBatch(
+                              postgresClient,
+                              tenant,
+                              today,
+                              updatedDate,
+                              batch + 1,
+                              rows + updated));
+            });
+  }
+
+  public static class Run {
+
+    private final int tenants;
+    private final int rowsUpdated;
+    private final long durationMillis;
+
+    public Run(int tenants, int rowsUpdated, long durationMillis) {
+      this.tenants = tenants;
+      this.rowsUpdated = rowsUpdated;
+      this.durationMillis = durationMillis;
+    }
+
+    public int getTenants() {
+      return tenants;
+    }
+
+    public int getRowsUpdated() {
+      return rowsUpdated;
+    }
+
+    public long getDurationMillis() {
+      return durationMillis;
+    }
+  }
+}
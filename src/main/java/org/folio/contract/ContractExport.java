@@ -0,0 +1,198 @@
+package org.folio.contract;
+
+import static org.folio.rest.impl.Constants.TABLE_NAME_CONTRACTS;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.folio.cql2pgjson.CQL2PgJSON;
+import org.folio.cql2pgjson.exception.FieldException;
+import org.folio.rest.jaxrs.model.Contract;
+import org.folio.rest.persist.PostgresClient;
+import org.folio.rest.persist.cql.CQLWrapper;
+
+/**
+ * Streams all contracts matching a CQL query as NDJSON or CSV. Rows are read through a database
+ * cursor in a transaction and reading is paused while the client is not keeping up. If the client
+ * goes away the cursor is closed, which ends the transaction and releases the connection.
+ */
+public class ContractExport {
+
+  public static final String FORMAT_NDJSON = "ndjson";
+  public static final String FORMAT_CSV = "csv";
+  public static final String CONTENT_TYPE_NDJSON = "application/x-ndjson";
+  public static final String CONTENT_TYPE_CSV = "text/csv";
+  public static final List<String> DEFAULT_CSV_FIELDS =
+      List.of(
+          "id",
+          "personal.lastName",
+          "personal.firstName",
+          "personal.dateOfBirth",
+          "personal.email",
+          "libraryCard",
+          "uniLogin",
+          "status",
+          "beginDate",
+          "endDate");
+
+  private static final Logger log = LogManager.getLogger(ContractExport.class);
+  private static final int FETCH_SIZE = 100;
+
+  private final String format;
+  private final List<String> fields;
+
+  public ContractExport(String format, String fields) {
+    this.format = format == null ? FORMAT_NDJSON : format;
+    this.fields =
+        fields == null || fields.isBlank()
+            ? DEFAULT_CSV_FIELDS
+            : Arrays.stream(fields.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .collect(Collectors.toList());
+  }
+
+  public boolean isValidFormat() {
+    return FORMAT_NDJSON.equals(format) || FORMAT_CSV.equals(format);
+  }
+
+  /**
+   * Starts the export. The returned future fails if the query cannot be run, in that case nothing
+   * has been written to {@code response} yet.
+   */
+  public Future<Void> start(
+      PostgresClient postgresClient, String query, HttpServerResponse response) {
+    CQLWrapper cqlWrapper;
+    try {
+      cqlWrapper =
+          new CQLWrapper(
+              new CQL2PgJSON(TABLE_NAME_CONTRACTS + ".jsonb"),
+              query == null || query.isBlank() ? "cql.allRecords=1" : query);
+    } catch (FieldException e) {
+      return Future.failedFuture(e);
+    }
+
+    String sql;
+    try {
+      sql =
+          "SELECT jsonb FROM "
+              + PostgresClient.convertToPsqlStandard(postgresClient.getTenantId())
+              + "."
+              + TABLE_NAME_CONTRACTS
+              + " "
+              + cqlWrapper;
+    } catch (RuntimeException e) {
+      return Future.failedFuture(e);
+    }
+
+    Promise<Void> started = Promise.promise();
+    postgresClient
+        .getClient()
+        .withTransaction(
+            conn ->
+                conn.prepare(sql)
+                    .compose(
+                        preparedStatement -> {
+                          started.complete();
+                          return pipe(preparedStatement.createStream(FETCH_SIZE), response);
+                        }))
+        .onFailure(
+            t -> {
+              if (!started.tryFail(t)) {
+                log.warn("Contract export failed", t);
+              }
+            });
+    return started.future();
+  }
+
+  /** Completes when all rows have been written, or when the client went away. */
+  private Future<Void> pipe(RowStream<Row> stream, HttpServerResponse response) {
+    response.setStatusCode(200).setChunked(true);
+    if (FORMAT_CSV.equals(format)) {
+      response
+          .putHeader(HttpHeaders.CONTENT_TYPE, CONTENT_TYPE_CSV)
+          .putHeader("Content-Disposition", "attachment; filename=\"contracts.csv\"")
+          .write(toCsvLine(fields));
+    } else {
+      response.putHeader(HttpHeaders.CONTENT_TYPE, CONTENT_TYPE_NDJSON);
+    }
+    Promise<Void> done = Promise.promise();
+    response.drainHandler(v -> stream.resume());
+    response.closeHandler(v -> stream.close().onComplete(ar -> done.tryComplete()));
+    stream
+        .handler(
+            row -> {
+              if (response.closed()) {
+                return;
+              }
+              Contract contract = row.getJsonObject(0).mapTo(Contract.class);
+              response.write(FORMAT_CSV.equals(format) ? toCsvRow(contract) : toNdjson(contract));
+              if (response.writeQueueFull()) {
+                stream.pause();
+              }
+            })
+        .endHandler(
+            v -> {
+              response.closeHandler(null);
+              if (!response.closed()) {
+                response.end();
+              }
+              stream.close().onComplete(ar -> done.tryComplete());
+            })
+        .exceptionHandler(
+            t -> {
+              response.reset();
+              done.tryFail(t);
+            });
+    return done.future();
+  }
+
+  private String toNdjson(Contract contract) {
+    return Json.encode(contract) + "\n";
+  }
+
+  private String toCsvRow(Contract contract) {
+    JsonObject jsonObject = JsonObject.mapFrom(contract);
+    return toCsvLine(
+        fields.stream().map(field -> getValue(jsonObject, field)).collect(Collectors.toList()));
+  }
+
+  private static String getValue(JsonObject jsonObject, String path) {
+    Object value = jsonObject;
+    for (String segment : path.split("\\.")) {
+      if (!(value instanceof JsonObject)) {
+        return null;
+      }
+      value = ((JsonObject) value).getValue(segment);
+    }
+    return value == null ? null : value.toString();
+  }
+
+  private static String toCsvLine(List<String> values) {
+    return values.stream().map(ContractExport::escapeCsv).collect(Collectors.joining(","))
+        + "\r\n";
+  }
+
+  private static String escapeCsv(String value) {
+    if (value == null) {
+      return "";
+    }
+    if (value.contains(",")
+        || value.contains("\"")
+        || value.contains("\n")
+        || value.contains("\r")) {
+      return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+    return value;
+  }
+}
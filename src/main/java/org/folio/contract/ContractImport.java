@@ -0,0 +1,212 @@
+package org.folio.contract;
+
+import static org.folio.rest.impl.Constants.TABLE_NAME_CONTRACTS;
+
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.parsetools.JsonEventType;
+import io.vertx.core.parsetools.JsonParser;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import org.folio.metrics.Metrics;
+import org.folio.rest.jaxrs.model.Contract;
+import org.folio.rest.jaxrs.model.ContractImportReport;
+import org.folio.rest.jaxrs.model.ImportError;
+import org.folio.rest.persist.PostgresClient;
+import org.folio.rest.tools.utils.MetadataUtil;
+import org.folio.rest.tools.utils.TenantTool;
+
+/**
+ * Incremental import of contracts sent as a JSON array or as NDJSON. The payload is parsed chunk
+ * by chunk as it arrives, each contract is validated and the valid ones are inserted in batches of
+ * {@code chunkSize}. If a batch fails its contracts are inserted one by one, so that only the
+ * failing ones are reported. Callers stop passing chunks until {@link #drain()} completes, so the
+ * memory used is bounded by a batch and the chunk being parsed.
+ */
+public class ContractImport {
+
+  public static final int MAX_REPORTED_ERRORS = 1000;
+
+  private static final Map<String, ContractImport> IMPORTS = new ConcurrentHashMap<>();
+  private static final Validator VALIDATOR =
+      Validation.buildDefaultValidatorFactory().getValidator();
+
+  private final PostgresClient postgresClient;
+  private final Map<String, String> okapiHeaders;
+  private final int chunkSize;
+  private final JsonParser parser = JsonParser.newParser().objectValueMode();
+  private final List<ImportError> errors = new ArrayList<>();
+  private final long startNanos = System.nanoTime();
+  private List<Contract> chunk = new ArrayList<>();
+  private List<Integer> chunkIndexes = new ArrayList<>();
+  private Future<Void> lastInsert = Future.succeededFuture();
+  private int index;
+  private int imported;
+  private int failed;
+  private boolean parseFailed;
+
+  public ContractImport(
+      PostgresClient postgresClient, Map<String, String> okapiHeaders, int chunkSize) {
+    this.postgresClient = postgresClient;
+    this.okapiHeaders = okapiHeaders;
+    this.chunkSize = Math.max(chunkSize, 1);
+    parser.handler(
+        event -> {
+          if (event.type() == JsonEventType.VALUE) {
+            onValue(event.value());
+          }
+        });
+    parser.exceptionHandler(
+        t -> {
+          parseFailed = true;
+          addError(index, "Invalid JSON, import stopped: " + t.getMessage());
+        });
+  }
+
+  public static ContractImport get(String streamId) {
+    return IMPORTS.get(streamId);
+  }
+
+  public static void put(String streamId, ContractImport contractImport) {
+    IMPORTS.put(streamId, contractImport);
+  }
+
+  public static ContractImport remove(String streamId) {
+    return IMPORTS.remove(streamId);
+  }
+
+  public long getStartNanos() {
+    return startNanos;
+  }
+
+  public void handle(Buffer buffer) {
+    if (!parseFailed) {
+      parser.handle(buffer);
+    }
+  }
+
+  /**
+   * Completes when the contracts passed so far have been stored, callers wait for it before passing
+   * more to keep the memory bounded.
+   */
+  public Future<Void> drain() {
+    return lastInsert;
+  }
+
+  public Future<ContractImportReport> end() {
+    if (!parseFailed) {
+      parser.end();
+    }
+    flush();
+    return lastInsert.map(
+        v ->
+            new ContractImportReport()
+                .withProcessed(index)
+                .withImported(imported)
+                .withFailed(failed)
+                .withImportErrors(errors));
+  }
+
+  private void onValue(Object value) {
+    int currentIndex = index++;
+    if (!(value instanceof JsonObject)) {
+      addError(currentIndex, "Not a JSON object");
+      return;
+    }
+    Contract contract;
+    try {
+      contract = ((JsonObject) value).mapTo(Contract.class);
+    } catch (IllegalArgumentException e) {
+      addError(currentIndex, e.getMessage());
+      return;
+    }
+    Set<ConstraintViolation<Contract>> violations = VALIDATOR.validate(contract);
+    if (!violations.isEmpty()) {
+      addError(
+          currentIndex,
+          violations.stream()
+              .map(v -> v.getPropertyPath() + " " + v.getMessage())
+              .sorted()
+              .collect(Collectors.joining(", ")));
+      return;
+    }
+    if (contract.getId() == null) {
+      contract.setId(UUID.randomUUID().toString());
+    }
+    try {
+      MetadataUtil.populateMetadata(contract, okapiHeaders);
+    } catch (ReflectiveOperationException e) {
+      addError(currentIndex, e.getMessage());
+      return;
+    }
+    chunk.add(contract);
+    chunkIndexes.add(currentIndex);
+    if (chunk.size() >= chunkSize) {
+      flush();
+    }
+  }
+
+  private void flush() {
+    if (chunk.isEmpty()) {
+      return;
+    }
+    List<Contract> contracts = chunk;
+    List<Integer> indexes = chunkIndexes;
+    chunk = new ArrayList<>(chunkSize);
+    chunkIndexes = new ArrayList<>(chunkSize);
+    lastInsert =
+        lastInsert.compose(
+            v ->
+                Metrics.timeDb(
+                        "saveBatch",
+                        TenantTool.tenantId(okapiHeaders),
+                        () -> postgresClient.saveBatch(TABLE_NAME_CONTRACTS, contracts))
+                    .<Void>map(
+                        rs -> {
+                          imported += contracts.size();
+                          return null;
+                        })
+                    // a single bad contract fails the whole batch, find it row by row
+                    .recover(t -> saveOneByOne(contracts, indexes)));
+  }
+
+  private Future<Void> saveOneByOne(List<Contract> contracts, List<Integer> indexes) {
+    Future<Void> future = Future.succeededFuture();
+    for (int i = 0; i < contracts.size(); i++) {
+      Contract contract = contracts.get(i);
+      int contractIndex = indexes.get(i);
+      future =
+          future.compose(
+              v ->
+                  postgresClient
+                      .save(TABLE_NAME_CONTRACTS, contract.getId(), contract)
+                      .<Void>map(
+                          id -> {
+                            imported++;
+                            return null;
+                          })
+                      .otherwise(
+                          t -> {
+                            addError(contractIndex, t.getMessage());
+                            return null;
+                          }));
+    }
+    return future;
+  }
+
+  private void addError(int errorIndex, String message) {
+    failed++;
+    if (errors.size() < MAX_REPORTED_ERRORS) {
+      errors.add(new ImportError().withIndex(errorIndex).withMessage(message));
+    }
+  }
+}
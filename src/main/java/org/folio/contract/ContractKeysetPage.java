@@ -0,0 +1,203 @@
+package org.folio.contract;
+
+import static org.folio.rest.impl.Constants.TABLE_NAME_CONTRACTS;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.Tuple;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import org.folio.cql2pgjson.CQL2PgJSON;
+import org.folio.cql2pgjson.exception.QueryValidationException;
+import org.folio.cql2pgjson.model.SqlSelect;
+import org.folio.rest.jaxrs.model.Contract;
+import org.folio.rest.jaxrs.model.Contracts;
+import org.folio.rest.persist.PostgresClient;
+
+/**
+ * Keyset pagination of contracts. Instead of skipping {@code offset} rows each page continues
+ * after the sort key and id of the last row of the previous page, which are passed as an opaque
+ * cursor.
+ */
+public class ContractKeysetPage {
+
+  public static final String TOTAL_RECORDS_EXACT = "exact";
+  public static final String TOTAL_RECORDS_ESTIMATED = "estimated";
+  public static final String TOTAL_RECORDS_NONE = "none";
+
+  public enum SortKey {
+    ID("id", "id::text"),
+    LAST_NAME("lastName", "coalesce(lower(f_unaccent(jsonb->'personal'->>'lastName')), '')"),
+    UPDATED_DATE("updatedDate", "coalesce(jsonb->'metadata'->>'updatedDate', '')");
+
+    private final String name;
+    private final String sql;
+
+    SortKey(String name, String sql) {
+      this.name = name;
+      this.sql = sql;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public static SortKey fromName(String name) {
+      return Arrays.stream(values())
+          .filter(sortKey -> sortKey.name.equals(name))
+          .findFirst()
+          .orElseThrow(() -> new IllegalArgumentException("Invalid sort key " + name));
+    }
+  }
+
+  private final PostgresClient postgresClient;
+  private final String table;
+  private final String column;
+
+  public ContractKeysetPage(PostgresClient postgresClient, String tenantId) {
+    this(postgresClient, tenantId, null);
+  }
+
+  /** Pages of contracts restricted to the fields of {@code projection}, all fields if null. */
+  public ContractKeysetPage(
+      PostgresClient postgresClient, String tenantId, ContractProjection projection) {
+    this.postgresClient = postgresClient;
+    this.table = PostgresClient.convertToPsqlStandard(tenantId) + "." + TABLE_NAME_CONTRACTS;
+    this.column = projection == null ? "jsonb" : projection.toSql("jsonb") + " AS jsonb";
+  }
+
+  /**
+   * Fetches a page of contracts. If {@code after} is set the sort key is taken from the cursor,
+   * otherwise the first page sorted by {@code sortKey} is returned.
+   */
+  public Future<Contracts> get(
+      String query, String sortKey, String after, int limit, String totalRecords) {
+    String where;
+    SortKey key;
+    String afterValue = null;
+    UUID afterId = null;
+    try {
+      where = toWhere(query);
+      if (after == null) {
+        key = SortKey.fromName(sortKey == null ? SortKey.ID.name : sortKey);
+      } else {
+        JsonArray cursor = decodeCursor(after);
+        key = SortKey.fromName(cursor.getString(0));
+        afterValue = cursor.getString(1);
+        afterId = UUID.fromString(cursor.getString(2));
+      }
+    } catch (QueryValidationException | RuntimeException e) {
+      return Future.failedFuture(new IllegalArgumentException(e.getMessage(), e));
+    }
+
+    Future<Integer> count = count(postgresClient, table, where, totalRecords);
+    return select(where, key, afterValue, afterId, limit)
+        .compose(rowSet -> count.map(total -> toContracts(rowSet, key, limit, total)));
+  }
+
+  private String toWhere(String query) throws QueryValidationException {
+    if (query == null || query.isBlank()) {
+      return "true";
+    }
+    SqlSelect sqlSelect = new CQL2PgJSON(TABLE_NAME_CONTRACTS + ".jsonb").toSql(query);
+    if (!sqlSelect.getOrderBy().isEmpty()) {
+      throw new IllegalArgumentException("sortBy is not supported with cursor pagination");
+    }
+    return sqlSelect.getWhere();
+  }
+
+  static Future<Integer> count(
+      PostgresClient postgresClient, String table, String where, String totalRecords) {
+    if (TOTAL_RECORDS_NONE.equals(totalRecords)) {
+      return Future.succeededFuture();
+    }
+    if (TOTAL_RECORDS_ESTIMATED.equals(totalRecords)) {
+      String schema = table.substring(0, table.indexOf('.'));
+      return postgresClient
+          .select(
+              "SELECT " + schema + ".count_estimate($1)",
+              Tuple.of("SELECT jsonb FROM " + table + " WHERE " + where))
+          .map(rowSet -> rowSet.iterator().next().getInteger(0));
+    }
+    return postgresClient
+        .select("SELECT count(*) FROM " + table + " WHERE " + where)
+        .map(rowSet -> rowSet.iterator().next().getInteger(0));
+  }
+
+  private Future<RowSet<Row>> select(
+      String where, SortKey key, String afterValue, UUID afterId, int limit) {
+    // one more row than requested tells whether there is a next page
+    if (key == SortKey.ID) {
+      String sql =
+          "SELECT id, "
+              + column
+              + ", id::text AS sort_key FROM "
+              + table
+              + " WHERE ("
+              + where
+              + ")"
+              + (afterId == null ? "" : " AND id > $2")
+              + " ORDER BY id LIMIT $1";
+      return postgresClient.select(
+          sql, afterId == null ? Tuple.of(limit + 1) : Tuple.of(limit + 1, afterId));
+    }
+    String sql =
+        "SELECT id, "
+            + column
+            + ", "
+            + key.sql
+            + " AS sort_key FROM "
+            + table
+            + " WHERE ("
+            + where
+            + ")"
+            + (afterId == null ? "" : " AND (" + key.sql + ", id) > ($2, $3)")
+            + " ORDER BY "
+            + key.sql
+            + ", id LIMIT $1";
+    return postgresClient.select(
+        sql, afterId == null ? Tuple.of(limit + 1) : Tuple.of(limit + 1, afterValue, afterId));
+  }
+
+  private Contracts toContracts(RowSet<Row> rowSet, SortKey key, int limit, Integer total) {
+    List<Contract> contracts = new ArrayList<>();
+    String nextCursor = null;
+    Row last = null;
+    for (Row row : rowSet) {
+      if (contracts.size() == limit) {
+        if (last != null) {
+          nextCursor = encodeCursor(key, last.getString("sort_key"), last.getUUID("id"));
+        }
+        break;
+      }
+      contracts.add(row.getJsonObject("jsonb").mapTo(Contract.class));
+      last = row;
+    }
+    return new Contracts()
+        .withContracts(contracts)
+        .withTotalRecords(total)
+        .withNextCursor(nextCursor);
+  }
+
+  static String encodeCursor(SortKey key, String value, UUID id) {
+    String json = new JsonArray().add(key.name).add(value).add(id.toString()).encode();
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  static JsonArray decodeCursor(String cursor) {
+    try {
+      return new JsonArray(
+          new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Invalid cursor " + cursor, e);
+    }
+  }
+}
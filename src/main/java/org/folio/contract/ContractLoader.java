@@ -0,0 +1,115 @@
+package org.folio.contract;
+
+import static org.folio.rest.impl.Constants.TABLE_NAME_CONTRACTS;
+
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.sqlclient.Tuple;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.folio.rest.jaxrs.model.Contract;
+import org.folio.rest.persist.PostgresClient;
+import org.folio.rest.tools.utils.MetadataUtil;
+import org.folio.rest.tools.utils.TenantTool;
+
+/**
+ * Loads sample or synthetic contracts into a tenant, in batches of {@code chunkSize} contracts.
+ * The next batch is read or generated only after the previous one has been stored, so the memory
+ * used doesn't depend on the number of contracts.
+ */
+public class ContractLoader {
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  private final PostgresClient postgresClient;
+  private final Map<String, String> okapiHeaders;
+  private final int chunkSize;
+
+  public ContractLoader(
+      PostgresClient postgresClient, Map<String, String> okapiHeaders, int chunkSize) {
+    this.postgresClient = postgresClient;
+    this.okapiHeaders = okapiHeaders;
+    this.chunkSize = Math.max(chunkSize, 1);
+  }
+
+  /** Loads contracts sent as a JSON array or as NDJSON, fails if any contract is invalid. */
+  public Future<Integer> load(InputStream inputStream) {
+    ContractImport contractImport = new ContractImport(postgresClient, okapiHeaders, chunkSize);
+    return feed(inputStream, contractImport)
+        .compose(v -> contractImport.end())
+        .compose(
+            report -> {
+              if (report.getFailed() > 0) {
+                return Future.failedFuture(
+                    new IllegalArgumentException(
+                        "Loading contract "
+                            + report.getImportErrors().get(0).getIndex()
+                            + " failed: "
+                            + report.getImportErrors().get(0).getMessage()));
+              }
+              return Future.succeededFuture(report.getImported());
+            });
+  }
+
+  /**
+   * Loads {@code count} contracts created by {@link SyntheticContracts}, numbered after the
+   * synthetic contracts already stored, so that loading again adds new contracts. The same {@code
+   * seed} always gives the same contracts.
+   */
+  public Future<Integer> loadSynthetic(int count, long seed) {
+    String table =
+        PostgresClient.convertToPsqlStandard(TenantTool.tenantId(okapiHeaders))
+            + "."
+            + TABLE_NAME_CONTRACTS;
+    String prefix = SyntheticContracts.LIBRARY_CARD_PREFIX;
+    return postgresClient
+        .select(
+            "SELECT max(substring(jsonb->>'libraryCard' from $1)::bigint) FROM "
+                + table
+                + " WHERE jsonb->>'libraryCard' ~ $2",
+            Tuple.of(prefix.length() + 1, "^" + prefix + "[0-9]+$"))
+        .compose(
+            rowSet -> {
+              Long last = rowSet.iterator().next().getLong(0);
+              int first = last == null ? 0 : last.intValue();
+              return loadSynthetic(new Random(seed), first, 0, count);
+            });
+  }
+
+  private Future<Void> feed(InputStream inputStream, ContractImport contractImport) {
+    byte[] bytes;
+    try {
+      bytes = inputStream.readNBytes(READ_BUFFER_SIZE);
+    } catch (IOException e) {
+      return Future.failedFuture(e);
+    }
+    if (bytes.length == 0) {
+      return Future.succeededFuture();
+    }
+    contractImport.handle(Buffer.buffer(bytes));
+    return contractImport.drain().compose(v -> feed(inputStream, contractImport));
+  }
+
+  private Future<Integer> loadSynthetic(Random random, int first, int loaded, int count) {
+    if (loaded >= count) {
+      return Future.succeededFuture(loaded);
+    }
+    int size = Math.min(chunkSize, count - loaded);
+    List<Contract> contracts = new ArrayList<>(size);
+    for (int i = 1; i <= size; i++) {
+      contracts.add(SyntheticContracts.createContract(random, first + loaded + i));
+    }
+    try {
+      MetadataUtil.populateMetadata(contracts, okapiHeaders);
+    } catch (ReflectiveOperationException e) {
+      return Future.failedFuture(e);
+    }
+    return postgresClient
+        .saveBatch(TABLE_NAME_CONTRACTS, contracts)
+        .compose(rowSet -> loadSynthetic(random, first, loaded + size, count));
+  }
+}
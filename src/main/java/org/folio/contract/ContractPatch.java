@@ -0,0 +1,119 @@
+package org.folio.contract;
+
+import static org.folio.rest.impl.Constants.TABLE_NAME_CONTRACTS;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.Tuple;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import org.folio.rest.jaxrs.model.Contract;
+import org.folio.rest.persist.PostgresClient;
+import org.folio.rest.tools.utils.MetadataUtil;
+import org.folio.rest.tools.utils.TenantTool;
+
+/**
+ * Partial update of a contract with a JSON Merge Patch (RFC 7396). The patch is applied by the
+ * UPDATE statement with the {@code jsonb_merge_patch} function, see {@code
+ * templates/db_scripts/contract_merge_patch.sql}, so concurrent patches of different fields don't
+ * overwrite each other. {@code If-Match} is checked in the {@code WHERE} clause of that statement
+ * by the updated date of the tags, see {@link ContractEtag#ifMatchUpdatedDates}, so the contract
+ * is neither read nor locked before. The patched contract is validated before the transaction
+ * commits.
+ */
+public class ContractPatch {
+
+  private static final Validator VALIDATOR =
+      Validation.buildDefaultValidatorFactory().getValidator();
+
+  private final PostgresClient postgresClient;
+  private final Map<String, String> okapiHeaders;
+  private final String schema;
+
+  public ContractPatch(PostgresClient postgresClient, Map<String, String> okapiHeaders) {
+    this.postgresClient = postgresClient;
+    this.okapiHeaders = okapiHeaders;
+    this.schema = PostgresClient.convertToPsqlStandard(TenantTool.tenantId(okapiHeaders));
+  }
+
+  /**
+   * Returns the patched contract, or null if the contract doesn't exist or doesn't match {@code
+   * ifMatch}. Fails with an {@link IllegalArgumentException} if the patched contract is invalid.
+   * The id and the metadata of the contract can't be patched.
+   */
+  public Future<Contract> patch(String id, JsonObject mergePatch, String ifMatch) {
+    if (!ContractConditionalWrite.isUuid(id)) {
+      return Future.succeededFuture(null);
+    }
+    JsonObject patch = mergePatch.copy();
+    patch.remove("id");
+    patch.remove("metadata");
+    JsonObject metadata;
+    try {
+      metadata = PostgresClient.pojo2JsonObject(MetadataUtil.createMetadata(okapiHeaders));
+    } catch (JsonProcessingException e) {
+      return Future.failedFuture(e);
+    }
+    metadata.remove("createdDate");
+    metadata.remove("createdByUserId");
+    metadata.remove("createdByUsername");
+
+    String sql =
+        "UPDATE "
+            + schema
+            + "."
+            + TABLE_NAME_CONTRACTS
+            + " SET jsonb = jsonb_set("
+            + schema
+            + ".jsonb_merge_patch(jsonb, $2),"
+            + " '{metadata}', coalesce(jsonb->'metadata', '{}'::jsonb) || $3)"
+            + " WHERE id = $1";
+    Tuple params = Tuple.of(UUID.fromString(id), patch, metadata);
+    List<Long> updatedDates =
+        ifMatch == null ? null : ContractEtag.ifMatchUpdatedDates(id, ifMatch);
+    if (updatedDates != null) {
+      if (updatedDates.isEmpty()) {
+        return Future.succeededFuture(null);
+      }
+      sql +=
+          " AND (extract(epoch FROM (jsonb->'metadata'->>'updatedDate')::timestamptz) * 1000)"
+              + "::bigint = ANY($4)";
+      params.addArrayOfLong(updatedDates.toArray(new Long[0]));
+    }
+    String update = sql + " RETURNING jsonb";
+    return postgresClient.withTrans(
+        conn ->
+            conn.execute(update, params)
+                .compose(
+                    rowSet ->
+                        rowSet.size() == 0
+                            ? Future.succeededFuture(null)
+                            : validate(rowSet.iterator().next().getJsonObject("jsonb"))));
+  }
+
+  private static Future<Contract> validate(JsonObject json) {
+    Contract contract;
+    try {
+      contract = json.mapTo(Contract.class);
+    } catch (IllegalArgumentException e) {
+      return Future.failedFuture(e);
+    }
+    Set<ConstraintViolation<Contract>> violations = VALIDATOR.validate(contract);
+    if (!violations.isEmpty()) {
+      return Future.failedFuture(
+          new IllegalArgumentException(
+              violations.stream()
+                  .map(v -> v.getPropertyPath() + " " + v.getMessage())
+                  .sorted()
+                  .collect(Collectors.joining(", "))));
+    }
+    return Future.succeededFuture(contract);
+  }
+}
@@ -0,0 +1,114 @@
+package org.folio.contract;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * A subset of the fields of contracts, given as comma separated JSON paths like {@code
+ * personal.lastName,status}. The subset is extracted in SQL with {@code jsonb_build_object}, so
+ * the other fields are neither sent by the database nor mapped. The id is always included; a path
+ * that doesn't exist in a contract is left out.
+ */
+public class ContractProjection {
+
+  public static final int MAX_FIELDS = 40;
+
+  private static final Pattern FIELD =
+      Pattern.compile("[A-Za-z][A-Za-z0-9_]*(\\.[A-Za-z][A-Za-z0-9_]*)*");
+
+  // field name -> null if the whole value is selected, otherwise the selected subfields
+  private final Map<String, Object> fields = new LinkedHashMap<>();
+
+  private ContractProjection() {}
+
+  /**
+   * Returns the projection, or null if {@code fields} is null or blank. Fails with an {@link
+   * IllegalArgumentException} if a path is invalid or there are more than {@link #MAX_FIELDS}.
+   */
+  public static ContractProjection parse(String fields) {
+    if (fields == null || fields.isBlank()) {
+      return null;
+    }
+    ContractProjection projection = new ContractProjection();
+    projection.add("id");
+    String[] paths = fields.split(",", -1);
+    if (paths.length > MAX_FIELDS) {
+      throw new IllegalArgumentException("More than " + MAX_FIELDS + " fields");
+    }
+    for (String path : paths) {
+      String trimmed = path.trim();
+      if (!FIELD.matcher(trimmed).matches()) {
+        throw new IllegalArgumentException("Invalid field " + trimmed);
+      }
+      projection.add(trimmed);
+    }
+    return projection;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void add(String path) {
+    Map<String, Object> node = fields;
+    String[] names = path.split("\\.");
+    for (int i = 0; i < names.length - 1; i++) {
+      if (node.containsKey(names[i]) && node.get(names[i]) == null) {
+        return; // the whole parent is selected
+      }
+      node = (Map<String, Object>) node.computeIfAbsent(names[i], k -> new LinkedHashMap<>());
+    }
+    node.put(names[names.length - 1], null);
+  }
+
+  /**
+   * The selected paths sorted and without duplicates or paths covered by a parent, so that equal
+   * projections give equal strings.
+   */
+  public String normalized() {
+    List<String> paths = new ArrayList<>();
+    addPaths(fields, "", paths);
+    Collections.sort(paths);
+    return String.join(",", paths);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void addPaths(Map<String, Object> node, String parent, List<String> paths) {
+    node.forEach(
+        (name, subfields) -> {
+          if (subfields == null) {
+            paths.add(parent + name);
+          } else {
+            addPaths((Map<String, Object>) subfields, parent + name + ".", paths);
+          }
+        });
+  }
+
+  /** SQL expression of the projection of the jsonb {@code column}. */
+  public String toSql(String column) {
+    return "jsonb_strip_nulls(" + toSql(column, fields, List.of()) + ")";
+  }
+
+  @SuppressWarnings("unchecked")
+  private static String toSql(String column, Map<String, Object> node, List<String> parent) {
+    return node.entrySet().stream()
+        .map(
+            entry -> {
+              List<String> path = new ArrayList<>(parent);
+              path.add(entry.getKey());
+              String value = column + " #> '{" + String.join(",", path) + "}'";
+              if (entry.getValue() != null) {
+                value =
+                    "CASE WHEN jsonb_typeof("
+                        + value
+                        + ") = 'object' THEN "
+                        + toSql(column, (Map<String, Object>) entry.getValue(), path)
+                        + " END";
+              }
+              return "'" + entry.getKey() + "', " + value;
+            })
+        .collect(Collectors.joining(", ", "jsonb_build_object(", ")"));
+  }
+}
@@ -0,0 +1,91 @@
+package org.folio.contract;
+
+import static org.folio.rest.impl.Constants.TABLE_NAME_CONTRACTS;
+
+import io.vertx.core.Future;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.Tuple;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import org.folio.cql2pgjson.CQL2PgJSON;
+import org.folio.cql2pgjson.exception.QueryValidationException;
+import org.folio.cql2pgjson.model.SqlSelect;
+import org.folio.rest.jaxrs.model.Contract;
+import org.folio.rest.jaxrs.model.Contracts;
+import org.folio.rest.persist.PostgresClient;
+
+/**
+ * Reads contracts restricted to the fields of a {@link ContractProjection}, with offset
+ * pagination. See {@link ContractKeysetPage} for cursor pagination.
+ */
+public class ContractReader {
+
+  private final PostgresClient postgresClient;
+  private final String table;
+  private final String column;
+
+  public ContractReader(
+      PostgresClient postgresClient, String tenantId, ContractProjection projection) {
+    this.postgresClient = postgresClient;
+    this.table = PostgresClient.convertToPsqlStandard(tenantId) + "." + TABLE_NAME_CONTRACTS;
+    this.column = projection.toSql("jsonb") + " AS jsonb";
+  }
+
+  /** Fetches the contracts matching the CQL {@code query}, an invalid query fails the future. */
+  public Future<Contracts> getPage(String query, int offset, int limit, String totalRecords) {
+    String where = "true";
+    String orderBy = "";
+    if (query != null && !query.isBlank()) {
+      try {
+        SqlSelect sqlSelect = new CQL2PgJSON(TABLE_NAME_CONTRACTS + ".jsonb").toSql(query);
+        where = sqlSelect.getWhere();
+        orderBy = sqlSelect.getOrderBy();
+      } catch (QueryValidationException | RuntimeException e) {
+        return Future.failedFuture(new IllegalArgumentException(e.getMessage(), e));
+      }
+    }
+
+    Future<Integer> count = ContractKeysetPage.count(postgresClient, table, where, totalRecords);
+    String sql =
+        "SELECT "
+            + column
+            + " FROM "
+            + table
+            + " WHERE "
+            + where
+            + (orderBy.isEmpty() ? "" : " ORDER BY " + orderBy)
+            + " OFFSET $1 LIMIT $2";
+    return postgresClient
+        .select(sql, Tuple.of(offset, limit))
+        .compose(
+            rowSet -> {
+              List<Contract> contracts = new ArrayList<>();
+              for (Row row : rowSet) {
+                contracts.add(row.getJsonObject("jsonb").mapTo(Contract.class));
+              }
+              return count.map(
+                  total -> new Contracts().withContracts(contracts).withTotalRecords(total));
+            });
+  }
+
+  /** Fetches the contract, completes with null if there is none with this id. */
+  public Future<Contract> getById(String id) {
+    if (!ContractConditionalWrite.isUuid(id)) {
+      return Future.succeededFuture();
+    }
+    return postgresClient
+        .select(
+            "SELECT " + column + " FROM " + table + " WHERE id = $1",
+            Tuple.of(UUID.fromString(id)))
+        .map(
+            rowSet -> {
+              Iterator<Row> rows = rowSet.iterator();
+              if (!rows.hasNext()) {
+                return null;
+              }
+              return rows.next().getJsonObject("jsonb").mapTo(Contract.class);
+            });
+  }
+}
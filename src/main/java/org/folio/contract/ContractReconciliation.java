@@ -0,0 +1,585 @@
+package org.folio.contract;
+
+import static org.folio.rest.impl.Constants.TABLE_NAME_CONTRACTS;
+import static org.folio.rest.impl.Constants.TABLE_NAME_CONTRACT_RECONCILIATION;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.Tuple;
+import java.time.Clock;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import javax.ws.rs.core.Response;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.folio.idm.IdmBulkhead;
+import org.folio.idm.IdmUnavailableException;
+import org.folio.metrics.Metrics;
+import org.folio.rest.jaxrs.model.Contract;
+import org.folio.rest.jaxrs.model.Contract.Status;
+import org.folio.rest.jaxrs.model.Personal;
+import org.folio.rest.persist.Conn;
+import org.folio.rest.persist.PostgresClient;
+import org.folio.rest.tools.utils.MetadataUtil;
+import org.folio.rest.tools.utils.TenantTool;
+import org.folio.util.EnvUtils;
+
+/**
+ * Checks new contracts against the IDM in the background. Contracts created with status {@code
+ * created} are queued in the {@code contract_reconciliation} table in the transaction that stores
+ * them, see {@code templates/db_scripts/contract_reconciliation.sql}. Each run claims ready jobs in
+ * batches with {@code FOR UPDATE SKIP LOCKED}, so that the instances of the module share the work,
+ * and leases them for {@code CONTRACT_RECONCILIATION_LEASE} seconds. The IDM is searched for the
+ * person of each contract with a bounded number of concurrent lookups; contracts without a match
+ * get the status {@code pending}, contracts with a match the status {@code conflict}. The results
+ * of a batch are written with one statement per outcome. Failed lookups are retried with
+ * exponential backoff, jobs that can't succeed are kept with their error. Lookups rejected by the
+ * rate limit are requeued after its retry delay and don't count as an attempt.
+ */
+public class ContractReconciliation {
+
+  public static final String STATE_READY = "ready";
+  public static final String STATE_DELAYED = "delayed";
+  public static final String STATE_FAILED = "failed";
+  public static final long MAX_BACKOFF_SECONDS = 3600;
+
+  private static final Logger log = LogManager.getLogger(ContractReconciliation.class);
+  private static final DateTimeFormatter METADATA_DATE_FORMAT =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSxxx");
+  private static final AtomicBoolean running = new AtomicBoolean();
+  private static volatile Run lastRun;
+
+  private final Vertx vertx;
+  private final BiFunction<String, Personal, Future<Response>> idmLookup;
+  private final Clock clock;
+  private final int batchSize;
+  private final int maxBatches;
+  private final int concurrency;
+  private final int maxAttempts;
+  private final long leaseSeconds;
+  private final long backoffSeconds;
+
+  /**
+   * {@code idmLookup} searches the IDM for a person of a tenant, see {@code
+   * GET /idm-connect/searchidm}.
+   */
+  public ContractReconciliation(
+      Vertx vertx,
+      BiFunction<String, Personal, Future<Response>> idmLookup,
+      Clock clock,
+      int batchSize,
+      int maxBatches,
+      int concurrency,
+      int maxAttempts,
+      long leaseSeconds,
+      long backoffSeconds) {
+    this.vertx = vertx;
+    this.idmLookup = idmLookup;
+    this.clock = clock;
+    this.batchSize = Math.max(batchSize, 1);
+    this.maxBatches = maxBatches;
+    this.concurrency = Math.max(concurrency, 1);
+    this.maxAttempts = maxAttempts;
+    this.leaseSeconds = leaseSeconds;
+    this.backoffSeconds = backoffSeconds;
+  }
+
+  public static ContractReconciliation fromEnv(
+      Vertx vertx, BiFunction<String, Personal, Future<Response>> idmLookup) {
+    return new ContractReconciliation(
+        vertx,
+        idmLookup,
+        Clock.systemUTC(),
+        EnvUtils.getInt("CONTRACT_RECONCILIATION_BATCH_SIZE", 100),
+        EnvUtils.getInt("CONTRACT_RECONCILIATION_MAX_BATCHES", 10),
+        Math.min(
+            EnvUtils.getInt("CONTRACT_RECONCILIATION_CONCURRENCY", 4),
+            IdmBulkhead.getInstance().getMaxConcurrentCalls()),
+        EnvUtils.getInt("CONTRACT_RECONCILIATION_MAX_ATTEMPTS", 10),
+        EnvUtils.getLong("CONTRACT_RECONCILIATION_LEASE", 300),
+        EnvUtils.getLong("CONTRACT_RECONCILIATION_BACKOFF", 30));
+  }
+
+  public static boolean isEnabled() {
+    return EnvUtils.getBoolean("CONTRACT_RECONCILIATION_ENABLED", false);
+  }
+
+  public static Run getLastRun() {
+    return lastRun;
+  }
+
+  /**
+   * Stores a new contract and queues its reconciliation in the same transaction, so that a stored
+   * contract can't be missing from the queue. Completes with the stored contract.
+   */
+  public static Future<Contract> create(
+      PostgresClient postgresClient, Map<String, String> okapiHeaders, Contract contract) {
+    if (contract.getId() == null) {
+      contract.setId(UUID.randomUUID().toString());
+    }
+    try {
+      MetadataUtil.populateMetadata(contract, okapiHeaders);
+    } catch (ReflectiveOperationException e) {
+      return Future.failedFuture(e);
+    }
+    String queue = table(TenantTool.tenantId(okapiHeaders), TABLE_NAME_CONTRACT_RECONCILIATION);
+    return postgresClient
+        .withTrans(
+            conn ->
+                conn.save(TABLE_NAME_CONTRACTS, contract.getId(), contract)
+                    .compose(
+                        id ->
+                            conn.execute(
+                                "INSERT INTO " + queue + " (id) VALUES ($1)",
+                                Tuple.of(UUID.fromString(id)))))
+        .map(contract);
+  }
+
+  /** Runs the reconciliation for all tenants. Completes with {@code null} if a run is ongoing. */
+  public Future<Run> run() {
+    if (!running.compareAndSet(false, true)) {
+      return Future.succeededFuture();
+    }
+    long start = System.nanoTime();
+    return ContractExpiry.getTenants(vertx)
+        .compose(
+            tenants -> {
+              Future<Run> runs = Future.succeededFuture(new Run(0, 0, 0, 0, 0, 0));
+              for (String tenant : tenants) {
+                runs =
+                    runs.compose(
+                        sum ->
+                            reconcileTenant(tenant)
+                                .map(sum::add)
+                                .otherwise(
+                                    t -> {
+                                      log.error("Reconciliation failed for tenant {}", tenant, t);
+                                      return sum;
+                                    }));
+              }
+              return runs.map(
+                  sum -> sum.withDurationMillis((System.nanoTime() - start) / 1_000_000));
+            })
+        .onSuccess(
+            run -> {
+              lastRun = run;
+              log.info(
+                  "Contract reconciliation: {} pending, {} conflict, {} retried, {} failed of {}"
+                      + " tenants in {} ms",
+                  run.getPending(),
+                  run.getConflict(),
+                  run.getRetried(),
+                  run.getFailed(),
+                  run.getTenants(),
+                  run.getDurationMillis());
+            })
+        .onFailure(t -> log.error("Contract reconciliation failed", t))
+        .onComplete(ar -> running.set(false));
+  }
+
+  Future<Run> reconcileTenant(String tenant) {
+    PostgresClient postgresClient = PostgresClient.getInstance(vertx, tenant);
+    return reconcileBatch(postgresClient, tenant, 0, new Run(1, 0, 0, 0, 0, 0))
+        .compose(run -> updateQueueMetrics(postgresClient, tenant).map(run));
+  }
+
+  private Future<Run> reconcileBatch(
+      PostgresClient postgresClient, String tenant, int batch, Run sum) {
+    return claim(postgresClient, tenant)
+        .compose(
+            jobs -> {
+              if (jobs.isEmpty()) {
+                return Future.succeededFuture(sum);
+              }
+              return lookupAll(tenant, jobs)
+                  .compose(v -> complete(postgresClient, tenant, jobs))
+                  .compose(
+                      run -> {
+                        Run total = sum.add(run);
+                        if (jobs.size() < batchSize || batch + 1 >= maxBatches) {
+                          return Future.succeededFuture(total);
+                        }
+                        // continue on a later event loop turn, other requests are served in between
+                        return Future.<Void>future(promise -> vertx.runOnContext(promise::complete))
+                            .compose(v -> reconcileBatch(postgresClient, tenant, batch + 1, total));
+                      });
+            });
+  }
+
+  /** Claims up to {@code batchSize} ready jobs and leases them. */
+  private Future<List<Job>> claim(PostgresClient postgresClient, String tenant) {
+    String queue = table(tenant, TABLE_NAME_CONTRACT_RECONCILIATION);
+    String sql =
+        "WITH claimed AS ("
+            + (" SELECT id FROM " + queue + " WHERE run_at <= now()")
+            + " ORDER BY run_at LIMIT $1 FOR UPDATE SKIP LOCKED)"
+            + (" UPDATE " + queue + " q")
+            + " SET run_at = now() + make_interval(secs => $2), attempts = q.attempts + 1"
+            + (" FROM claimed JOIN " + table(tenant, TABLE_NAME_CONTRACTS) + " c")
+            + " ON c.id = claimed.id WHERE q.id = claimed.id"
+            + " RETURNING q.id, q.attempts, c.jsonb";
+    return postgresClient
+        .execute(sql, Tuple.of(batchSize, (double) leaseSeconds))
+        .map(
+            rowSet -> {
+              List<Job> jobs = new ArrayList<>();
+              for (Row row : rowSet) {
+                jobs.add(
+                    new Job(
+                        row.getUUID("id"),
+                        row.getInteger("attempts"),
+                        row.getJsonObject("jsonb").mapTo(Contract.class)));
+              }
+              return jobs;
+            });
+  }
+
+  /** Looks up all jobs with at most {@code concurrency} lookups at a time. */
+  private Future<Void> lookupAll(String tenant, List<Job> jobs) {
+    AtomicInteger next = new AtomicInteger();
+    List<Future> lanes = new ArrayList<>();
+    for (int i = 0; i < Math.min(concurrency, jobs.size()); i++) {
+      lanes.add(lookupNext(tenant, jobs, next));
+    }
+    return CompositeFuture.all(lanes).mapEmpty();
+  }
+
+  private Future<Void> lookupNext(String tenant, List<Job> jobs, AtomicInteger next) {
+    int index = next.getAndIncrement();
+    if (index >= jobs.size()) {
+      return Future.succeededFuture();
+    }
+    Job job = jobs.get(index);
+    return lookup(tenant, job).compose(v -> lookupNext(tenant, jobs, next));
+  }
+
+  private Future<Void> lookup(String tenant, Job job) {
+    Contract contract = job.contract;
+    if (contract.getStatus() != Status.CREATED) {
+      job.outcome = Outcome.SKIPPED;
+      return Future.succeededFuture();
+    }
+    if (contract.getPersonal() == null) {
+      job.fail("Contract has no personal data");
+      return Future.succeededFuture();
+    }
+    Future<Response> response;
+    try {
+      response = idmLookup.apply(tenant, contract.getPersonal());
+    } catch (RuntimeException e) {
+      response = Future.failedFuture(e);
+    }
+    return response
+        .<Void>map(
+            r -> {
+              handleResponse(job, r);
+              return null;
+            })
+        .otherwise(
+            t -> {
+              if (t instanceof IdmUnavailableException) {
+                // rejected by our own limits without reaching the IDM, not an attempt
+                job.defer(t.getMessage(), ((IdmUnavailableException) t).getRetryAfterSeconds());
+              } else {
+                job.retry(String.valueOf(t.getMessage()));
+              }
+              return null;
+            });
+  }
+
+  private void handleResponse(Job job, Response response) {
+    String body = response.getEntity() == null ? "" : response.getEntity().toString();
+    int status = response.getStatus();
+    if (status >= 200 && status < 300) {
+      try {
+        job.outcome = new JsonArray(body).isEmpty() ? Outcome.PENDING : Outcome.CONFLICT;
+      } catch (DecodeException | ClassCastException e) {
+        job.fail("Unexpected IDM response: " + body);
+      }
+    } else if (status == 429 || status >= 500) {
+      job.retry("IDM status " + status + ": " + body);
+    } else {
+      job.fail("IDM status " + status + ": " + body);
+    }
+  }
+
+  /** Writes the outcome of the jobs in a single transaction. */
+  private Future<Run> complete(PostgresClient postgresClient, String tenant, List<Job> jobs) {
+    for (Job job : jobs) {
+      if (job.outcome == Outcome.RETRY && job.attempts >= maxAttempts) {
+        job.outcome = Outcome.FAILED;
+      }
+    }
+    String updatedDate =
+        OffsetDateTime.now(clock.withZone(ZoneOffset.UTC)).format(METADATA_DATE_FORMAT);
+    return postgresClient
+        .withTrans(
+            conn ->
+                setStatus(conn, tenant, ids(jobs, Outcome.PENDING), Status.PENDING, updatedDate)
+                    .compose(
+                        v ->
+                            setStatus(
+                                conn,
+                                tenant,
+                                ids(jobs, Outcome.CONFLICT),
+                                Status.CONFLICT,
+                                updatedDate))
+                    .compose(v -> delete(conn, tenant, ids(jobs, Outcome.SKIPPED)))
+                    .compose(v -> reschedule(conn, tenant, jobs)))
+        .map(
+            v -> {
+              Run run =
+                  new Run(
+                      0,
+                      count(jobs, Outcome.PENDING),
+                      count(jobs, Outcome.CONFLICT),
+                      count(jobs, Outcome.RETRY),
+                      count(jobs, Outcome.FAILED),
+                      0);
+              for (Outcome outcome : Outcome.values()) {
+                Metrics.reconciliationJobs(tenant, outcome.value, count(jobs, outcome));
+              }
+              return run;
+            });
+  }
+
+  /**
+   * Removes the jobs and sets the status of their contracts, contracts whose status has been
+   * changed in the meantime are left alone.
+   */
+  private Future<Void> setStatus(
+      Conn conn, String tenant, UUID[] ids, Status status, String updatedDate) {
+    if (ids.length == 0) {
+      return Future.succeededFuture();
+    }
+    String sql =
+        "WITH done AS ("
+            + (" DELETE FROM " + table(tenant, TABLE_NAME_CONTRACT_RECONCILIATION))
+            + " WHERE id = ANY($1) RETURNING id)"
+            + (" UPDATE " + table(tenant, TABLE_NAME_CONTRACTS) + " c")
+            + " SET jsonb = jsonb_set(jsonb_set(c.jsonb, '{status}', to_jsonb($2::text)),"
+            + " '{metadata,updatedDate}', to_jsonb($3::text))"
+            + " FROM done WHERE c.id = done.id AND (c.jsonb->>'status') = $4";
+    return conn.execute(sql, Tuple.of(ids, status.value(), updatedDate, Status.CREATED.value()))
+        .mapEmpty();
+  }
+
+  private Future<Void> delete(Conn conn, String tenant, UUID[] ids) {
+    if (ids.length == 0) {
+      return Future.succeededFuture();
+    }
+    return conn.execute(
+            "DELETE FROM "
+                + table(tenant, TABLE_NAME_CONTRACT_RECONCILIATION)
+                + " WHERE id = ANY($1)",
+            Tuple.of((Object) ids))
+        .mapEmpty();
+  }
+
+  /**
+   * Retried jobs become ready after the backoff, deferred jobs after their retry delay without
+   * counting the attempt, failed jobs never.
+   */
+  private Future<Void> reschedule(Conn conn, String tenant, List<Job> jobs) {
+    List<Job> rescheduled =
+        jobs.stream()
+            .filter(
+                job ->
+                    job.outcome == Outcome.RETRY
+                        || job.outcome == Outcome.DEFERRED
+                        || job.outcome == Outcome.FAILED)
+            .collect(Collectors.toList());
+    if (rescheduled.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    UUID[] ids = new UUID[rescheduled.size()];
+    Double[] delays = new Double[rescheduled.size()];
+    String[] errors = new String[rescheduled.size()];
+    Boolean[] deferred = new Boolean[rescheduled.size()];
+    for (int i = 0; i < rescheduled.size(); i++) {
+      Job job = rescheduled.get(i);
+      ids[i] = job.id;
+      errors[i] = job.error;
+      deferred[i] = job.outcome == Outcome.DEFERRED;
+      if (job.outcome == Outcome.FAILED) {
+        delays[i] = -1d;
+      } else if (job.outcome == Outcome.DEFERRED) {
+        delays[i] = (double) job.deferSeconds;
+      } else {
+        delays[i] = backoff(job.attempts);
+      }
+    }
+    String sql =
+        "UPDATE "
+            + table(tenant, TABLE_NAME_CONTRACT_RECONCILIATION)
+            + " q SET run_at = CASE WHEN d.delay < 0 THEN 'infinity'::timestamptz"
+            + " ELSE now() + make_interval(secs => d.delay) END, last_error = d.error,"
+            + " attempts = CASE WHEN d.deferred THEN q.attempts - 1 ELSE q.attempts END"
+            + " FROM unnest($1::uuid[], $2::float8[], $3::text[], $4::bool[])"
+            + " AS d(id, delay, error, deferred)"
+            + " WHERE q.id = d.id";
+    return conn.execute(sql, Tuple.of(ids, delays, errors, deferred)).mapEmpty();
+  }
+
+  /** Exponential backoff with jitter, between half and all of the nominal delay. */
+  double backoff(int attempts) {
+    double delay =
+        Math.min(backoffSeconds * Math.pow(2, Math.max(attempts - 1, 0)), MAX_BACKOFF_SECONDS);
+    return delay * ThreadLocalRandom.current().nextDouble(0.5, 1.0);
+  }
+
+  private Future<Void> updateQueueMetrics(PostgresClient postgresClient, String tenant) {
+    String sql =
+        "SELECT count(*) FILTER (WHERE run_at <= now()) AS ready,"
+            + " count(*) FILTER (WHERE run_at > now() AND run_at < 'infinity') AS delayed,"
+            + " count(*) FILTER (WHERE run_at = 'infinity') AS failed"
+            + (" FROM " + table(tenant, TABLE_NAME_CONTRACT_RECONCILIATION));
+    return postgresClient
+        .select(sql, Tuple.tuple())
+        .<Void>map(
+            rowSet -> {
+              Row row = rowSet.iterator().next();
+              Metrics.reconciliationQueue(tenant, STATE_READY, row.getLong("ready"));
+              Metrics.reconciliationQueue(tenant, STATE_DELAYED, row.getLong("delayed"));
+              Metrics.reconciliationQueue(tenant, STATE_FAILED, row.getLong("failed"));
+              return null;
+            })
+        .otherwiseEmpty();
+  }
+
+  private static String table(String tenant, String name) {
+    return PostgresClient.convertToPsqlStandard(tenant) + "." + name;
+  }
+
+  private static UUID[] ids(List<Job> jobs, Outcome outcome) {
+    return jobs.stream().filter(isOutcome(outcome)).map(job -> job.id).toArray(UUID[]::new);
+  }
+
+  private static int count(List<Job> jobs, Outcome outcome) {
+    return (int) jobs.stream().filter(isOutcome(outcome)).count();
+  }
+
+  private static Predicate<Job> isOutcome(Outcome outcome) {
+    return job -> job.outcome == outcome;
+  }
+
+  private enum Outcome {
+    PENDING("pending"),
+    CONFLICT("conflict"),
+    SKIPPED("skipped"),
+    RETRY("retry"),
+    DEFERRED("deferred"),
+    FAILED("failed");
+
+    private final String value;
+
+    Outcome(String value) {
+      this.value = value;
+    }
+  }
+
+  private static class Job {
+
+    private final UUID id;
+    private final int attempts;
+    private final Contract contract;
+    private Outcome outcome;
+    private String error;
+    private long deferSeconds;
+
+    Job(UUID id, int attempts, Contract contract) {
+      this.id = id;
+      this.attempts = attempts;
+      this.contract = contract;
+    }
+
+    void retry(String message) {
+      outcome = Outcome.RETRY;
+      error = message;
+    }
+
+    void defer(String message, long seconds) {
+      outcome = Outcome.DEFERRED;
+      error = message;
+      deferSeconds = seconds;
+    }
+
+    void fail(String message) {
+      outcome = Outcome.FAILED;
+      error = message;
+    }
+  }
+
+  public static class Run {
+
+    private final int tenants;
+    private final int pending;
+    private final int conflict;
+    private final int retried;
+    private final int failed;
+    private final long durationMillis;
+
+    public Run(
+        int tenants, int pending, int conflict, int retried, int failed, long durationMillis) {
+      this.tenants = tenants;
+      this.pending = pending;
+      this.conflict = conflict;
+      this.retried = retried;
+      this.failed = failed;
+      this.durationMillis = durationMillis;
+    }
+
+    Run add(Run run) {
+      return new Run(
+          tenants + run.tenants,
+          pending + run.pending,
+          conflict + run.conflict,
+          retried + run.retried,
+          failed + run.failed,
+          durationMillis + run.durationMillis);
+    }
+
+    Run withDurationMillis(long millis) {
+      return new Run(tenants, pending, conflict, retried, failed, millis);
+    }
+
+    public int getTenants() {
+      return tenants;
+    }
+
+    public int getPending() {
+      return pending;
+    }
+
+    public int getConflict() {
+      return conflict;
+    }
+
+    public int getRetried() {
+      return retried;
+    }
+
+    public int getFailed() {
+      return failed;
+    }
+
+    public long getDurationMillis() {
+      return durationMillis;
+    }
+  }
+}
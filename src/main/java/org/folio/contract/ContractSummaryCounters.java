@@ -0,0 +1,118 @@
+package org.folio.contract;
+
+import com.google.common.primitives.Ints;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.sqlclient.Row;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.folio.rest.jaxrs.model.ContractSummary;
+import org.folio.rest.jaxrs.model.StatusCount;
+import org.folio.rest.persist.PostgresClient;
+
+/**
+ * Reads the contract counters of the {@code contract_summary} table. The counters are maintained
+ * by triggers on the contract table as delta rows, which are summed here and merged by {@link
+ * #compact(Vertx)}, see {@code templates/db_scripts/contract_summary.sql}.
+ */
+public class ContractSummaryCounters {
+
+  private static final Logger log = LogManager.getLogger(ContractSummaryCounters.class);
+  public static final String TABLE_NAME_CONTRACT_SUMMARY = "contract_summary";
+  private static final String KIND_STATUS = "status";
+  private static final String KIND_BEGIN_MONTH = "beginMonth";
+  private static final String KIND_END_MONTH = "endMonth";
+  private static final AtomicBoolean compacting = new AtomicBoolean();
+
+  private final PostgresClient postgresClient;
+  private final String table;
+
+  public ContractSummaryCounters(PostgresClient postgresClient, String tenantId) {
+    this.postgresClient = postgresClient;
+    this.table =
+        PostgresClient.convertToPsqlStandard(tenantId) + "." + TABLE_NAME_CONTRACT_SUMMARY;
+  }
+
+  public Future<ContractSummary> get(boolean includeMonths) {
+    String sql =
+        "SELECT kind, status, month, sum(count)::bigint AS count FROM "
+            + table
+            + (includeMonths ? "" : " WHERE kind = '" + KIND_STATUS + "'")
+            + " GROUP BY kind, status, month HAVING sum(count) > 0"
+            + " ORDER BY kind, status, month";
+    return postgresClient
+        .select(sql)
+        .map(
+            rowSet -> {
+              ContractSummary summary = new ContractSummary();
+              long total = 0;
+              for (Row row : rowSet) {
+                String kind = row.getString("kind");
+                StatusCount statusCount =
+                    new StatusCount()
+                        .withStatus(row.getString("status"))
+                        .withCount(Ints.saturatedCast(row.getLong("count")));
+                if (KIND_STATUS.equals(kind)) {
+                  total += row.getLong("count");
+                  summary.getByStatus().add(statusCount);
+                } else if (KIND_BEGIN_MONTH.equals(kind)) {
+                  summary.getByBeginMonth().add(statusCount.withMonth(row.getString("month")));
+                } else if (KIND_END_MONTH.equals(kind)) {
+                  summary.getByEndMonth().add(statusCount.withMonth(row.getString("month")));
+                }
+              }
+              return summary.withTotalRecords(Ints.saturatedCast(total));
+            });
+  }
+
+  /** Merges the delta rows into one row per key. Completes with the number of removed rows. */
+  public Future<Long> compact() {
+    String schema = table.substring(0, table.indexOf('.'));
+    return postgresClient
+        .select("SELECT " + schema + ".contract_summary_compact()")
+        .map(rowSet -> rowSet.iterator().next().getLong(0));
+  }
+
+  /**
+   * Compacts the counters of all tenants one after another. Completes with {@code null} if a
+   * compaction is already ongoing.
+   */
+  public static Future<Long> compact(Vertx vertx) {
+    if (!compacting.compareAndSet(false, true)) {
+      return Future.succeededFuture();
+    }
+    long start = System.nanoTime();
+    return ContractExpiry.getTenants(vertx)
+        .compose(
+            tenants -> {
+              Future<Long> rows = Future.succeededFuture(0L);
+              for (String tenant : tenants) {
+                rows =
+                    rows.compose(
+                        sum ->
+                            new ContractSummaryCounters(
+                                    PostgresClient.getInstance(vertx, tenant), tenant)
+                                .compact()
+                                .map(count -> sum + count)
+                                .otherwise(
+                                    t -> {
+                                      log.error(
+                                          "Contract summary compaction failed for tenant {}",
+                                          tenant,
+                                          t);
+                                      return sum;
+                                    }));
+              }
+              return rows;
+            })
+        .onSuccess(
+            rows ->
+                log.info(
+                    "Contract summary compaction: {} rows removed in {} ms",
+                    rows,
+                    (System.nanoTime() - start) / 1_000_000))
+        .onFailure(t -> log.error("Contract summary compaction failed", t))
+        .onComplete(ar -> compacting.set(false));
+  }
+}
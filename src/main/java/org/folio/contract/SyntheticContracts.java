@@ -0,0 +1,118 @@
+package org.folio.contract;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.UUID;
+import org.folio.rest.jaxrs.model.Address;
+import org.folio.rest.jaxrs.model.Contract;
+import org.folio.rest.jaxrs.model.Contract.Status;
+import org.folio.rest.jaxrs.model.Personal;
+
+/** Realistic looking contracts for performance tests, generated without any external service. */
+public class SyntheticContracts {
+
+  /** Prefix of the libraryCard of synthetic contracts, followed by the contract number. */
+  public static final String LIBRARY_CARD_PREFIX = "S";
+
+  /** Prefix of the uniLogin of synthetic contracts. */
+  public static final String UNI_LOGIN_PREFIX = "syn";
+
+  private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+  private static final String DIGITS = "0123456789";
+
+  private static final String[] mailExtensions = {
+    "googlemail.com", "yahoo.com", "hotmail.com", "aol.com", "icloud.com"
+  };
+
+  private static final String[] firstNames = {
+    "Anna", "Ben", "Clara", "David", "Emma", "Felix", "Greta", "Hannes", "Ida", "Jonas", "Karla",
+    "Lukas", "Marie", "Noah", "Olivia", "Paul", "Romy", "Simon", "Theresa", "Ulrich"
+  };
+
+  private static final String[] lastNames = {
+    "Müller", "Schmidt", "Schneider", "Fischer", "Weber", "Meyer", "Wagner", "Becker", "Schulz",
+    "Hoffmann", "Schäfer", "Koch", "Bauer", "Richter", "Klein", "Wolf", "Schröder", "Neumann",
+    "Schwarz", "Zimmermann"
+  };
+
+  private static final String[] cities = {
+    "Leipzig", "Halle", "Dresden", "Chemnitz", "Markkleeberg", "Taucha", "Grimma", "Delitzsch"
+  };
+
+  private SyntheticContracts() {}
+
+  /**
+   * Creates a contract. The same {@code random} seed and {@code number} always give the same
+   * contract, {@code number} makes id, libraryCard, uniLogin and email unique. libraryCard and
+   * uniLogin are prefixed so that they differ from those of the sample contracts.
+   */
+  public static Contract createContract(Random random, int number) {
+    String firstName = firstNames[random.nextInt(firstNames.length)];
+    String lastName = lastNames[random.nextInt(lastNames.length)];
+    LocalDate beginDate = LocalDate.of(2010, 1, 1).plusDays(random.nextInt(4018));
+    return new Contract()
+        .withPersonal(
+            new Personal()
+                .withAddress(
+                    new Address()
+                        .withAddressLine1(
+                            capitalize(random(random, LETTERS, 8))
+                                + "straße "
+                                + (random.nextInt(120) + 1))
+                        .withAddressLine2(createAddressLine2(random))
+                        .withCity(cities[random.nextInt(cities.length)])
+                        .withZipCode(random(random, DIGITS, 5))
+                        .withCountry("Germany"))
+                .withFirstName(firstName)
+                .withLastName(lastName)
+                .withDateOfBirth(
+                    LocalDate.of(1950, 1, 1).plusDays(random.nextInt(20000)).toString())
+                .withEmail(
+                    (firstName + "." + lastName + number).toLowerCase()
+                        + "@"
+                        + mailExtensions[random.nextInt(mailExtensions.length)])
+                .withAcademicTitle(createTitle(random)))
+        .withComment("A comment.")
+        .withId(
+            UUID.nameUUIDFromBytes(
+                    ("synthetic contract " + number).getBytes(StandardCharsets.UTF_8))
+                .toString())
+        .withUniLogin(
+            UNI_LOGIN_PREFIX
+                + random(random, LETTERS, 3)
+                + random(random, DIGITS, 2)
+                + random(random, LETTERS, 3)
+                + number)
+        .withStatus(Status.values()[random.nextInt(Status.values().length)])
+        .withLibraryCard(LIBRARY_CARD_PREFIX + String.format("%08d", number))
+        .withBeginDate(beginDate.toString())
+        .withEndDate(beginDate.plusYears(2).toString());
+  }
+
+  private static String createAddressLine2(Random random) {
+    if (random.nextInt(10) <= 3) {
+      return random(random, LETTERS, 1).toUpperCase() + "/" + random(random, DIGITS, 1);
+    }
+    return null;
+  }
+
+  private static String createTitle(Random random) {
+    int i = random.nextInt(10);
+    if (i <= 2) return "Prof.";
+    if (i <= 4) return "Dr.";
+    return null;
+  }
+
+  private static String random(Random random, String chars, int count) {
+    StringBuilder sb = new StringBuilder(count);
+    for (int i = 0; i < count; i++) {
+      sb.append(chars.charAt(random.nextInt(chars.length())));
+    }
+    return sb.toString();
+  }
+
+  private static String capitalize(String s) {
+    return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+  }
+}
@@ -0,0 +1,141 @@
+package org.folio.idm;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import javax.ws.rs.core.Response;
+import org.folio.rest.jaxrs.model.Lookup;
+
+/**
+ * Runs a list of IDM lookups with a bounded number of lookups in flight and streams each result as
+ * one line of NDJSON as soon as it completes. New lookups are only started while the client keeps
+ * up with reading the results, and only when {@code permit} returns 0; otherwise the next lookup is
+ * started after the returned number of nanoseconds, so that a rate limit paces the batch instead
+ * of failing its lookups.
+ */
+public class IdmBatchLookup {
+
+  public static final String CONTENT_TYPE_NDJSON = "application/x-ndjson";
+
+  private final Vertx vertx;
+  private final List<Lookup> lookups;
+  private final int concurrency;
+  private final LongSupplier permit;
+  private final Function<Lookup, Future<Response>> lookupFunction;
+  private final HttpServerResponse response;
+  private int next;
+  private int inFlight;
+  private boolean launching;
+  private boolean waiting;
+  private boolean closed;
+  private boolean ended;
+
+  public IdmBatchLookup(
+      Vertx vertx,
+      List<Lookup> lookups,
+      int concurrency,
+      LongSupplier permit,
+      Function<Lookup, Future<Response>> lookupFunction,
+      HttpServerResponse response) {
+    this.vertx = vertx;
+    this.lookups = lookups;
+    this.concurrency = Math.max(concurrency, 1);
+    this.permit = permit;
+    this.lookupFunction = lookupFunction;
+    this.response = response;
+  }
+
+  public void start() {
+    response
+        .setStatusCode(200)
+        .setChunked(true)
+        .putHeader(HttpHeaders.CONTENT_TYPE, CONTENT_TYPE_NDJSON);
+    response.closeHandler(v -> closed = true);
+    response.drainHandler(v -> launch());
+    launch();
+  }
+
+  private void launch() {
+    launching = true;
+    while (!closed
+        && !waiting
+        && inFlight < concurrency
+        && next < lookups.size()
+        && !response.writeQueueFull()) {
+      long waitNanos = permit.getAsLong();
+      if (waitNanos > 0) {
+        waiting = true;
+        vertx.setTimer(
+            Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)),
+            id -> {
+              waiting = false;
+              launch();
+            });
+        break;
+      }
+      int index = next++;
+      inFlight++;
+      Future<Response> future;
+      try {
+        future = lookupFunction.apply(lookups.get(index));
+      } catch (RuntimeException e) {
+        future = Future.failedFuture(e);
+      }
+      future.onComplete(ar -> onLookupComplete(index, ar));
+    }
+    launching = false;
+    if (!ended && (closed || next >= lookups.size()) && inFlight == 0) {
+      ended = true;
+      if (!closed) {
+        response.end();
+      }
+    }
+  }
+
+  private void onLookupComplete(int index, AsyncResult<Response> ar) {
+    inFlight--;
+    if (!closed) {
+      response.write(toLine(index, ar).encode() + "\n");
+    }
+    if (!launching) {
+      launch();
+    }
+  }
+
+  private JsonObject toLine(int index, AsyncResult<Response> ar) {
+    Lookup lookup = lookups.get(index);
+    JsonObject line =
+        new JsonObject()
+            .put("index", index)
+            .put("firstname", lookup.getFirstname())
+            .put("lastname", lookup.getLastname())
+            .put("dateOfBirth", lookup.getDateOfBirth());
+    if (ar.failed()) {
+      return line.put("statusCode", 500).put("error", String.valueOf(ar.cause().getMessage()));
+    }
+    Response result = ar.result();
+    String body = result.getEntity() == null ? null : result.getEntity().toString();
+    line.put("statusCode", result.getStatus());
+    if (result.getStatus() < 200 || result.getStatus() >= 300) {
+      Object retryAfter = result.getHeaders().getFirst("Retry-After");
+      if (retryAfter != null) {
+        line.put("retryAfter", Long.parseLong(retryAfter.toString()));
+      }
+      return line.put("error", body);
+    }
+    try {
+      return line.put("result", body == null ? null : Json.decodeValue(body));
+    } catch (DecodeException e) {
+      return line.put("result", body);
+    }
+  }
+}
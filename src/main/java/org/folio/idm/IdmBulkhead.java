@@ -0,0 +1,73 @@
+package org.folio.idm;
+
+import static com.google.common.primitives.Ints.saturatedCast;
+
+import io.vertx.core.Future;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.folio.rest.jaxrs.model.Bulkhead;
+import org.folio.util.EnvUtils;
+
+/** Limits the number of concurrent IDM calls of each tenant. */
+public class IdmBulkhead {
+
+  public static final String ENV_MAX_CONCURRENT_CALLS = "IDM_BULKHEAD_MAX_CONCURRENT_CALLS";
+
+  private static final IdmBulkhead INSTANCE =
+      new IdmBulkhead(EnvUtils.getInt(ENV_MAX_CONCURRENT_CALLS, 10));
+
+  private final int maxConcurrentCalls;
+  private final Map<String, AtomicInteger> activeCalls = new ConcurrentHashMap<>();
+  private final Map<String, AtomicLong> rejectedCalls = new ConcurrentHashMap<>();
+
+  public IdmBulkhead(int maxConcurrentCalls) {
+    this.maxConcurrentCalls = maxConcurrentCalls;
+  }
+
+  public static IdmBulkhead getInstance() {
+    return INSTANCE;
+  }
+
+  public <T> Future<T> execute(String tenantId, Supplier<Future<T>> call) {
+    AtomicInteger active = activeCalls.computeIfAbsent(tenantId, k -> new AtomicInteger());
+    if (active.incrementAndGet() > maxConcurrentCalls) {
+      active.decrementAndGet();
+      rejectedCalls.computeIfAbsent(tenantId, k -> new AtomicLong()).incrementAndGet();
+      return Future.failedFuture(
+          new IdmUnavailableException(
+              "Too many concurrent IDM requests for tenant " + tenantId, 1));
+    }
+    Future<T> future;
+    try {
+      future = call.get();
+    } catch (RuntimeException e) {
+      active.decrementAndGet();
+      throw e;
+    }
+    return future.onComplete(ar -> active.decrementAndGet());
+  }
+
+  public int getMaxConcurrentCalls() {
+    return maxConcurrentCalls;
+  }
+
+  public int getActiveCalls(String tenantId) {
+    AtomicInteger active = activeCalls.get(tenantId);
+    return active == null ? 0 : active.get();
+  }
+
+  public long getRejectedCalls(String tenantId) {
+    AtomicLong rejected = rejectedCalls.get(tenantId);
+    return rejected == null ? 0 : rejected.get();
+  }
+
+  public Bulkhead getStats(String tenantId) {
+    return new Bulkhead()
+        .withMaxConcurrentCalls(maxConcurrentCalls)
+        .withActiveCalls(getActiveCalls(tenantId))
+        .withRejectedCalls(saturatedCast(getRejectedCalls(tenantId)));
+  }
+}
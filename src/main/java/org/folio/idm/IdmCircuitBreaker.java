@@ -0,0 +1,211 @@
+package org.folio.idm;
+
+import static com.google.common.primitives.Ints.saturatedCast;
+
+import io.vertx.core.Future;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import org.folio.rest.jaxrs.model.CircuitBreaker;
+import org.folio.util.EnvUtils;
+
+/**
+ * Circuit breaker around the IDM. It opens when the failure rate or the rate of slow calls within
+ * a sliding window of the last calls exceeds a threshold, rejects calls while open and lets a
+ * limited number of probe calls through when half-open.
+ */
+public class IdmCircuitBreaker {
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  public static final String ENV_WINDOW_SIZE = "IDM_BREAKER_WINDOW_SIZE";
+  public static final String ENV_MINIMUM_CALLS = "IDM_BREAKER_MINIMUM_CALLS";
+  public static final String ENV_FAILURE_RATE_THRESHOLD = "IDM_BREAKER_FAILURE_RATE_THRESHOLD";
+  public static final String ENV_SLOW_CALL_RATE_THRESHOLD = "IDM_BREAKER_SLOW_CALL_RATE_THRESHOLD";
+  public static final String ENV_SLOW_CALL_DURATION = "IDM_BREAKER_SLOW_CALL_DURATION";
+  public static final String ENV_OPEN_DURATION = "IDM_BREAKER_OPEN_DURATION";
+  public static final String ENV_HALF_OPEN_CALLS = "IDM_BREAKER_HALF_OPEN_CALLS";
+
+  private static final IdmCircuitBreaker INSTANCE =
+      new IdmCircuitBreaker(
+          EnvUtils.getInt(ENV_WINDOW_SIZE, 50),
+          EnvUtils.getInt(ENV_MINIMUM_CALLS, 20),
+          EnvUtils.getInt(ENV_FAILURE_RATE_THRESHOLD, 50),
+          EnvUtils.getInt(ENV_SLOW_CALL_RATE_THRESHOLD, 80),
+          EnvUtils.getLong(ENV_SLOW_CALL_DURATION, 3000),
+          EnvUtils.getLong(ENV_OPEN_DURATION, 30000),
+          EnvUtils.getInt(ENV_HALF_OPEN_CALLS, 3));
+
+  private final int minimumCalls;
+  private final int failureRateThreshold;
+  private final int slowCallRateThreshold;
+  private final long slowCallDurationNanos;
+  private final long openDurationNanos;
+  private final int halfOpenCalls;
+
+  private final boolean[] failures;
+  private final boolean[] slowCalls;
+  private int windowIndex;
+  private int windowCount;
+  private int failureCount;
+  private int slowCallCount;
+
+  private State state = State.CLOSED;
+  private long openedAt;
+  private int halfOpenInFlight;
+  private int halfOpenSucceeded;
+  private long rejectedCalls;
+  private long timesOpened;
+
+  public IdmCircuitBreaker(
+      int windowSize,
+      int minimumCalls,
+      int failureRateThreshold,
+      int slowCallRateThreshold,
+      long slowCallDurationMillis,
+      long openDurationMillis,
+      int halfOpenCalls) {
+    this.failures = new boolean[Math.max(windowSize, 1)];
+    this.slowCalls = new boolean[Math.max(windowSize, 1)];
+    this.minimumCalls = Math.max(1, Math.min(minimumCalls, failures.length));
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowCallRateThreshold = slowCallRateThreshold;
+    this.slowCallDurationNanos = TimeUnit.MILLISECONDS.toNanos(slowCallDurationMillis);
+    this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis);
+    this.halfOpenCalls = Math.max(halfOpenCalls, 1);
+  }
+
+  public static IdmCircuitBreaker getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Calls {@code call} if the breaker permits it. The call counts as failed if its future fails or
+   * {@code isFailure} matches its result.
+   */
+  public <T> Future<T> execute(Supplier<Future<T>> call, Predicate<T> isFailure) {
+    if (!tryAcquire()) {
+      return Future.failedFuture(
+          new IdmUnavailableException("IDM circuit breaker is open", getRetryAfterSeconds()));
+    }
+    long start = System.nanoTime();
+    Future<T> future;
+    try {
+      future = call.get();
+    } catch (RuntimeException e) {
+      onResult(System.nanoTime() - start, true);
+      throw e;
+    }
+    return future.onComplete(
+        ar -> onResult(System.nanoTime() - start, ar.failed() || isFailure.test(ar.result())));
+  }
+
+  public synchronized State getState() {
+    if (state == State.OPEN && System.nanoTime() - openedAt >= openDurationNanos) {
+      return State.HALF_OPEN;
+    }
+    return state;
+  }
+
+  public synchronized void reset() {
+    transitionTo(State.CLOSED);
+  }
+
+  synchronized boolean tryAcquire() {
+    if (state == State.OPEN) {
+      if (System.nanoTime() - openedAt < openDurationNanos) {
+        rejectedCalls++;
+        return false;
+      }
+      transitionTo(State.HALF_OPEN);
+    }
+    if (state == State.HALF_OPEN) {
+      if (halfOpenInFlight + halfOpenSucceeded >= halfOpenCalls) {
+        rejectedCalls++;
+        return false;
+      }
+      halfOpenInFlight++;
+    }
+    return true;
+  }
+
+  synchronized void onResult(long durationNanos, boolean failure) {
+    boolean slow = durationNanos >= slowCallDurationNanos;
+    if (state == State.HALF_OPEN) {
+      halfOpenInFlight = Math.max(0, halfOpenInFlight - 1);
+      if (failure || slow) {
+        transitionTo(State.OPEN);
+      } else if (++halfOpenSucceeded >= halfOpenCalls) {
+        transitionTo(State.CLOSED);
+      }
+      return;
+    }
+    if (state == State.OPEN) {
+      return;
+    }
+    record(failure, slow);
+    if (windowCount >= minimumCalls
+        && (getFailureRate() >= failureRateThreshold
+            || getSlowCallRate() >= slowCallRateThreshold)) {
+      transitionTo(State.OPEN);
+    }
+  }
+
+  private void record(boolean failure, boolean slow) {
+    if (windowCount == failures.length) {
+      failureCount -= failures[windowIndex] ? 1 : 0;
+      slowCallCount -= slowCalls[windowIndex] ? 1 : 0;
+    } else {
+      windowCount++;
+    }
+    failures[windowIndex] = failure;
+    slowCalls[windowIndex] = slow;
+    failureCount += failure ? 1 : 0;
+    slowCallCount += slow ? 1 : 0;
+    windowIndex = (windowIndex + 1) % failures.length;
+  }
+
+  private void transitionTo(State newState) {
+    if (newState == State.OPEN) {
+      openedAt = System.nanoTime();
+      timesOpened++;
+    }
+    if (newState != State.HALF_OPEN) {
+      windowIndex = 0;
+      windowCount = 0;
+      failureCount = 0;
+      slowCallCount = 0;
+    }
+    halfOpenInFlight = 0;
+    halfOpenSucceeded = 0;
+    state = newState;
+  }
+
+  private int getFailureRate() {
+    return windowCount == 0 ? 0 : failureCount * 100 / windowCount;
+  }
+
+  private int getSlowCallRate() {
+    return windowCount == 0 ? 0 : slowCallCount * 100 / windowCount;
+  }
+
+  private synchronized long getRetryAfterSeconds() {
+    long remaining = openDurationNanos - (System.nanoTime() - openedAt);
+    return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remaining + 999_999_999L));
+  }
+
+  public synchronized CircuitBreaker getStats() {
+    return new CircuitBreaker()
+        .withState(CircuitBreaker.State.fromValue(getState().name().toLowerCase(Locale.ROOT)))
+        .withFailureRate(getFailureRate())
+        .withSlowCallRate(getSlowCallRate())
+        .withBufferedCalls(windowCount)
+        .withRejectedCalls(saturatedCast(rejectedCalls))
+        .withTimesOpened(saturatedCast(timesOpened));
+  }
+}
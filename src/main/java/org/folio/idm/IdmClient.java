@@ -0,0 +1,173 @@
+package org.folio.idm;
+
+import static com.google.common.primitives.Ints.saturatedCast;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.impl.ContextInternal;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.folio.rest.jaxrs.model.ClientPool;
+
+/**
+ * Pooled HTTP client for the external IDM system. One instance is kept per Vert.x context; it is
+ * closed and removed from {@link #getInstances()} when the context is closed, that is when the
+ * verticle it belongs to is undeployed.
+ */
+public class IdmClient {
+
+  private static final String CONTEXT_KEY = IdmClient.class.getName();
+  private static final Set<IdmClient> INSTANCES = ConcurrentHashMap.newKeySet();
+
+  private final IdmClientConfig config;
+  private final HttpClient httpClient;
+  private final AtomicInteger activeRequests = new AtomicInteger();
+  private final AtomicInteger openConnections = new AtomicInteger();
+  private final AtomicLong requestsSent = new AtomicLong();
+  private final AtomicLong connectionsCreated = new AtomicLong();
+
+  public IdmClient(Vertx vertx, IdmClientConfig config) {
+    this.config = config;
+    this.httpClient =
+        vertx
+            .createHttpClient(config.toHttpClientOptions())
+            .connectionHandler(
+                connection -> {
+                  connectionsCreated.incrementAndGet();
+                  openConnections.incrementAndGet();
+                  connection.closeHandler(v -> openConnections.decrementAndGet());
+                });
+    INSTANCES.add(this);
+  }
+
+  public static IdmClient get(Context vertxContext) {
+    IdmClient idmClient = vertxContext.get(CONTEXT_KEY);
+    if (idmClient == null) {
+      IdmClient created = new IdmClient(vertxContext.owner(), IdmClientConfig.fromEnv());
+      vertxContext.put(CONTEXT_KEY, created);
+      ((ContextInternal) vertxContext)
+          .addCloseHook(completion -> created.close().onComplete(completion));
+      idmClient = created;
+    }
+    return idmClient;
+  }
+
+  /** All clients created in this JVM, one per Vert.x context that has sent IDM requests. */
+  public static Set<IdmClient> getInstances() {
+    return Collections.unmodifiableSet(INSTANCES);
+  }
+
+  /** Closes the underlying client and removes this client from {@link #getInstances()}. */
+  public Future<Void> close() {
+    INSTANCES.remove(this);
+    return httpClient.close();
+  }
+
+  public IdmClientConfig getConfig() {
+    return config;
+  }
+
+  /**
+   * Sends a request without reading the response body, so that it can be piped elsewhere. The
+   * request counts as active until the body has been received.
+   */
+  public Future<HttpClientResponse> stream(RequestOptions options) {
+    if (config.getRequestTimeout() > 0) {
+      options.setTimeout(config.getRequestTimeout());
+    }
+    activeRequests.incrementAndGet();
+    requestsSent.incrementAndGet();
+    return httpClient
+        .request(options)
+        .compose(HttpClientRequest::send)
+        .onSuccess(response -> response.end().onComplete(ar -> activeRequests.decrementAndGet()))
+        .onFailure(t -> activeRequests.decrementAndGet());
+  }
+
+  /**
+   * Sends a request and reads the response body. Completing {@code cancel} resets the request, the
+   * returned future then fails with a {@link CancellationException}.
+   */
+  public Future<IdmResponse> fetch(RequestOptions options, Future<Void> cancel) {
+    if (config.getRequestTimeout() > 0) {
+      options.setTimeout(config.getRequestTimeout());
+    }
+    activeRequests.incrementAndGet();
+    requestsSent.incrementAndGet();
+    return httpClient
+        .request(options)
+        .compose(
+            request -> {
+              cancel.onComplete(v -> request.reset());
+              return request.send();
+            })
+        .compose(
+            response ->
+                response
+                    .body()
+                    .map(
+                        body ->
+                            new IdmResponse(
+                                response.statusCode(),
+                                response.getHeader(HttpHeaders.CONTENT_TYPE),
+                                body)))
+        .recover(
+            t ->
+                Future.failedFuture(
+                    cancel.isComplete() ? new CancellationException("IDM request cancelled") : t))
+        .onComplete(ar -> activeRequests.decrementAndGet());
+  }
+
+  public int getActiveRequests() {
+    return activeRequests.get();
+  }
+
+  /**
+   * HTTP/1.1 connections serve one request at a time, so requests in flight beyond the number of
+   * open connections are waiting in the pool queue.
+   */
+  public int getQueuedRequests() {
+    if (config.isHttp2()) {
+      return 0;
+    }
+    return Math.max(0, activeRequests.get() - openConnections.get());
+  }
+
+  public int getOpenConnections() {
+    return openConnections.get();
+  }
+
+  public long getRequestsSent() {
+    return requestsSent.get();
+  }
+
+  public long getConnectionsCreated() {
+    return connectionsCreated.get();
+  }
+
+  public long getReusedConnections() {
+    return Math.max(0, requestsSent.get() - connectionsCreated.get());
+  }
+
+  public ClientPool getStats() {
+    return new ClientPool()
+        .withMaxPoolSize(config.getMaxPoolSize())
+        .withHttp2(config.isHttp2())
+        .withActiveRequests(getActiveRequests())
+        .withQueuedRequests(getQueuedRequests())
+        .withOpenConnections(getOpenConnections())
+        .withConnectionsCreated(saturatedCast(getConnectionsCreated()))
+        .withRequestsSent(saturatedCast(getRequestsSent()))
+        .withReusedConnections(saturatedCast(getReusedConnections()));
+  }
+}
@@ -0,0 +1,107 @@
+package org.folio.idm;
+
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpVersion;
+import java.util.concurrent.TimeUnit;
+import org.folio.util.EnvUtils;
+
+public class IdmClientConfig {
+
+  public static final String ENV_KEEP_ALIVE = "IDM_CLIENT_KEEP_ALIVE";
+  public static final String ENV_KEEP_ALIVE_TIMEOUT = "IDM_CLIENT_KEEP_ALIVE_TIMEOUT";
+  public static final String ENV_MAX_POOL_SIZE = "IDM_CLIENT_MAX_POOL_SIZE";
+  public static final String ENV_MAX_WAIT_QUEUE_SIZE = "IDM_CLIENT_MAX_WAIT_QUEUE_SIZE";
+  public static final String ENV_HTTP2 = "IDM_CLIENT_HTTP2";
+  public static final String ENV_CONNECT_TIMEOUT = "IDM_CLIENT_CONNECT_TIMEOUT";
+  public static final String ENV_IDLE_TIMEOUT = "IDM_CLIENT_IDLE_TIMEOUT";
+  public static final String ENV_REQUEST_TIMEOUT = "IDM_CLIENT_REQUEST_TIMEOUT";
+
+  private final boolean keepAlive;
+  private final int keepAliveTimeout;
+  private final int maxPoolSize;
+  private final int maxWaitQueueSize;
+  private final boolean http2;
+  private final int connectTimeout;
+  private final int idleTimeout;
+  private final long requestTimeout;
+
+  public IdmClientConfig(
+      boolean keepAlive,
+      int keepAliveTimeout,
+      int maxPoolSize,
+      int maxWaitQueueSize,
+      boolean http2,
+      int connectTimeout,
+      int idleTimeout,
+      long requestTimeout) {
+    this.keepAlive = keepAlive;
+    this.keepAliveTimeout = keepAliveTimeout;
+    this.maxPoolSize = maxPoolSize;
+    this.maxWaitQueueSize = maxWaitQueueSize;
+    this.http2 = http2;
+    this.connectTimeout = connectTimeout;
+    this.idleTimeout = idleTimeout;
+    this.requestTimeout = requestTimeout;
+  }
+
+  public static IdmClientConfig fromEnv() {
+    return new IdmClientConfig(
+        EnvUtils.getBoolean(ENV_KEEP_ALIVE, true),
+        EnvUtils.getInt(ENV_KEEP_ALIVE_TIMEOUT, 60),
+        EnvUtils.getInt(ENV_MAX_POOL_SIZE, 20),
+        EnvUtils.getInt(ENV_MAX_WAIT_QUEUE_SIZE, 200),
+        EnvUtils.getBoolean(ENV_HTTP2, false),
+        EnvUtils.getInt(ENV_CONNECT_TIMEOUT, 5000),
+        EnvUtils.getInt(ENV_IDLE_TIMEOUT, 60),
+        EnvUtils.getLong(ENV_REQUEST_TIMEOUT, 10000));
+  }
+
+  public HttpClientOptions toHttpClientOptions() {
+    HttpClientOptions options =
+        new HttpClientOptions()
+            .setKeepAlive(keepAlive)
+            .setKeepAliveTimeout(keepAliveTimeout)
+            .setMaxPoolSize(maxPoolSize)
+            .setHttp2MaxPoolSize(maxPoolSize)
+            .setMaxWaitQueueSize(maxWaitQueueSize)
+            .setConnectTimeout(connectTimeout)
+            .setIdleTimeout(idleTimeout)
+            .setIdleTimeoutUnit(TimeUnit.SECONDS);
+    if (http2) {
+      options.setProtocolVersion(HttpVersion.HTTP_2).setUseAlpn(true);
+    }
+    return options;
+  }
+
+  public boolean isKeepAlive() {
+    return keepAlive;
+  }
+
+  public int getKeepAliveTimeout() {
+    return keepAliveTimeout;
+  }
+
+  public int getMaxPoolSize() {
+    return maxPoolSize;
+  }
+
+  public int getMaxWaitQueueSize() {
+    return maxWaitQueueSize;
+  }
+
+  public boolean isHttp2() {
+    return http2;
+  }
+
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  public int getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  public long getRequestTimeout() {
+    return requestTimeout;
+  }
+}
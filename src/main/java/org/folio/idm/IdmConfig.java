@@ -0,0 +1,189 @@
+package org.folio.idm;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import org.folio.util.EnvUtils;
+
+/**
+ * Where and how the IDM is reached: the URLs of its replicas, given as comma separated list in
+ * {@code IDM_URL}, the token, the load balancing settings and the rate limit of lookups. Read by
+ * {@link IdmEndpoints} and replaced as a whole on reload.
+ *
+ * <p>The variables are taken from the environment. If {@code IDM_CONFIG_FILE} names a properties
+ * file, the variables set in the file take precedence; the file is read again every {@code
+ * IDM_CONFIG_RELOAD_INTERVAL} seconds, see {@code IdmConfigPeriodicApi}.
+ */
+public class IdmConfig {
+
+  public enum LoadBalancing {
+    /** Lowest latency average weighted by the requests in flight. */
+    EWMA,
+    /** Fewest requests in flight. */
+    LEAST_REQUESTS;
+
+    static LoadBalancing fromEnv(String value) {
+      return "least-requests".equalsIgnoreCase(value) ? LEAST_REQUESTS : EWMA;
+    }
+  }
+
+  public static final String ENV_CONFIG_FILE = "IDM_CONFIG_FILE";
+  public static final String ENV_URL = "IDM_URL";
+  public static final String ENV_TOKEN = "IDM_TOKEN";
+  public static final String ENV_LOAD_BALANCING = "IDM_LOAD_BALANCING";
+  public static final String ENV_EWMA_DECAY = "IDM_EWMA_DECAY";
+  public static final String ENV_RETRIES = "IDM_RETRIES";
+  public static final String ENV_EJECT_CONSECUTIVE_FAILURES = "IDM_EJECT_CONSECUTIVE_FAILURES";
+  public static final String ENV_EJECT_DURATION = "IDM_EJECT_DURATION";
+
+  private final String url;
+  private final List<String> urls;
+  private final String token;
+  private final LoadBalancing loadBalancing;
+  private final long ewmaDecayMillis;
+  private final int retries;
+  private final int ejectConsecutiveFailures;
+  private final long ejectDurationMillis;
+  private final IdmRateLimiter.Settings rateLimit;
+
+  public IdmConfig(
+      String url,
+      String token,
+      LoadBalancing loadBalancing,
+      long ewmaDecayMillis,
+      int retries,
+      int ejectConsecutiveFailures,
+      long ejectDurationMillis,
+      IdmRateLimiter.Settings rateLimit) {
+    this.url = url;
+    this.urls =
+        url == null
+            ? Collections.emptyList()
+            : Arrays.stream(url.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .distinct()
+                .collect(Collectors.toUnmodifiableList());
+    this.token = token;
+    this.loadBalancing = loadBalancing;
+    this.ewmaDecayMillis = Math.max(ewmaDecayMillis, 1);
+    this.retries = Math.max(retries, 0);
+    this.ejectConsecutiveFailures = Math.max(ejectConsecutiveFailures, 1);
+    this.ejectDurationMillis = ejectDurationMillis;
+    this.rateLimit = rateLimit;
+  }
+
+  /**
+   * Reads the config from the environment and {@code IDM_CONFIG_FILE}.
+   *
+   * @throws UncheckedIOException if the file can't be read
+   */
+  public static IdmConfig fromEnv() {
+    String file = System.getenv(ENV_CONFIG_FILE);
+    if (file == null || file.isBlank()) {
+      return from(System::getenv);
+    }
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+      properties.load(reader);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Can't read " + ENV_CONFIG_FILE + " " + file, e);
+    }
+    return from(name -> properties.getProperty(name, System.getenv(name)));
+  }
+
+  static IdmConfig from(UnaryOperator<String> variables) {
+    return new IdmConfig(
+        variables.apply(ENV_URL),
+        variables.apply(ENV_TOKEN),
+        LoadBalancing.fromEnv(variables.apply(ENV_LOAD_BALANCING)),
+        EnvUtils.getLong(variables, ENV_EWMA_DECAY, 10000),
+        EnvUtils.getInt(variables, ENV_RETRIES, 1),
+        EnvUtils.getInt(variables, ENV_EJECT_CONSECUTIVE_FAILURES, 5),
+        EnvUtils.getLong(variables, ENV_EJECT_DURATION, 30000),
+        new IdmRateLimiter.Settings(
+            EnvUtils.getDouble(variables, IdmRateLimiter.ENV_RATE, 0),
+            EnvUtils.getInt(variables, IdmRateLimiter.ENV_BURST, 20),
+            EnvUtils.getBoolean(variables, IdmRateLimiter.ENV_PER_USER, false)));
+  }
+
+  /** {@code IDM_URL} as given, null if not set. */
+  public String getUrl() {
+    return url;
+  }
+
+  /** The distinct URLs of {@code IDM_URL}, empty if not set or blank. */
+  public List<String> getUrls() {
+    return urls;
+  }
+
+  public String getToken() {
+    return token;
+  }
+
+  public LoadBalancing getLoadBalancing() {
+    return loadBalancing;
+  }
+
+  public long getEwmaDecayMillis() {
+    return ewmaDecayMillis;
+  }
+
+  public int getRetries() {
+    return retries;
+  }
+
+  public int getEjectConsecutiveFailures() {
+    return ejectConsecutiveFailures;
+  }
+
+  public long getEjectDurationMillis() {
+    return ejectDurationMillis;
+  }
+
+  public IdmRateLimiter.Settings getRateLimit() {
+    return rateLimit;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof IdmConfig)) {
+      return false;
+    }
+    IdmConfig other = (IdmConfig) o;
+    return Objects.equals(url, other.url)
+        && Objects.equals(token, other.token)
+        && loadBalancing == other.loadBalancing
+        && ewmaDecayMillis == other.ewmaDecayMillis
+        && retries == other.retries
+        && ejectConsecutiveFailures == other.ejectConsecutiveFailures
+        && ejectDurationMillis == other.ejectDurationMillis
+        && Objects.equals(rateLimit, other.rateLimit);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(
+        url,
+        token,
+        loadBalancing,
+        ewmaDecayMillis,
+        retries,
+        ejectConsecutiveFailures,
+        ejectDurationMillis,
+        rateLimit);
+  }
+}
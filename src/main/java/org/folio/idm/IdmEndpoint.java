@@ -0,0 +1,118 @@
+package org.folio.idm;
+
+import static com.google.common.primitives.Ints.saturatedCast;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.folio.rest.jaxrs.model.Endpoint;
+
+/**
+ * One replica of the IDM: its requests in flight, a moving average of its latency and its passive
+ * health. The average decays with time, a latency above it replaces it immediately (peak EWMA), so
+ * a replica that slows down gets less traffic at once. After a number of consecutive failures the
+ * replica is ejected for a while.
+ */
+public class IdmEndpoint {
+
+  private final String url;
+  private final AtomicInteger outstandingRequests = new AtomicInteger();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+
+  private double ewmaNanos;
+  private long ewmaUpdatedAt;
+  private boolean ewmaSet;
+  private int consecutiveFailures;
+  private boolean ejected;
+  private long ejectedUntil;
+  private long timesEjected;
+
+  public IdmEndpoint(String url) {
+    this.url = url;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  void start() {
+    outstandingRequests.incrementAndGet();
+    requests.incrementAndGet();
+  }
+
+  void cancel() {
+    outstandingRequests.decrementAndGet();
+  }
+
+  synchronized void end(long durationNanos, boolean failure, IdmConfig config) {
+    outstandingRequests.decrementAndGet();
+    long now = System.nanoTime();
+    if (!ewmaSet || durationNanos > ewmaNanos) {
+      ewmaNanos = durationNanos;
+      ewmaSet = true;
+    } else {
+      double weight =
+          Math.exp(
+              -(double) (now - ewmaUpdatedAt)
+                  / TimeUnit.MILLISECONDS.toNanos(config.getEwmaDecayMillis()));
+      ewmaNanos = ewmaNanos * weight + durationNanos * (1 - weight);
+    }
+    ewmaUpdatedAt = now;
+    if (!failure) {
+      consecutiveFailures = 0;
+      return;
+    }
+    failures.incrementAndGet();
+    if (++consecutiveFailures >= config.getEjectConsecutiveFailures()) {
+      consecutiveFailures = 0;
+      ejected = true;
+      ejectedUntil = now + TimeUnit.MILLISECONDS.toNanos(config.getEjectDurationMillis());
+      timesEjected++;
+    }
+  }
+
+  synchronized boolean isEjected(long now) {
+    return ejected && now - ejectedUntil < 0;
+  }
+
+  /** Nanoseconds until the ejection ends, 0 if not ejected. */
+  synchronized long getEjectionRemaining(long now) {
+    return isEjected(now) ? ejectedUntil - now : 0;
+  }
+
+  /** The lower the better. */
+  double getScore(IdmConfig.LoadBalancing loadBalancing) {
+    int outstanding = outstandingRequests.get();
+    if (loadBalancing == IdmConfig.LoadBalancing.LEAST_REQUESTS) {
+      return outstanding;
+    }
+    synchronized (this) {
+      // a replica without measurements yet scores 0 and gets probed
+      return ewmaNanos * (outstanding + 1);
+    }
+  }
+
+  public int getOutstandingRequests() {
+    return outstandingRequests.get();
+  }
+
+  public synchronized double getLatencyEwmaSeconds() {
+    return ewmaNanos / TimeUnit.SECONDS.toNanos(1);
+  }
+
+  public boolean isHealthy() {
+    return !isEjected(System.nanoTime());
+  }
+
+  public synchronized Endpoint getStats() {
+    return new Endpoint()
+        .withUrl(url)
+        .withHealthy(!isEjected(System.nanoTime()))
+        .withOutstandingRequests(getOutstandingRequests())
+        .withLatencyEwma(ewmaNanos / TimeUnit.MILLISECONDS.toNanos(1))
+        .withRequests(saturatedCast(requests.get()))
+        .withFailures(saturatedCast(failures.get()))
+        .withTimesEjected(saturatedCast(timesEjected));
+  }
+}
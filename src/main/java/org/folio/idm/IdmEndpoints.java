@@ -0,0 +1,228 @@
+package org.folio.idm;
+
+import io.vertx.core.Future;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.folio.metrics.Metrics;
+import org.folio.rest.jaxrs.model.Endpoint;
+
+/**
+ * Load balancing over the IDM replicas of {@link IdmConfig}. Each request goes to the better of
+ * two randomly chosen healthy replicas (power of two choices), by latency average or by requests
+ * in flight. Replicas with consecutive failures are ejected for a while; if all are ejected the
+ * one whose ejection ends first is used. A request that fails without response or with 502, 503
+ * or 504 is retried on another replica, all IDM requests are idempotent GETs. A request that fails
+ * with a {@link CancellationException} is neither retried nor counted as failure.
+ *
+ * <p>The config is read from the environment when the module starts, off the event loop, see
+ * {@code IdmConfigInitApi}; until then, or if it can't be read, the IDM is not configured. {@link
+ * #reload()} replaces it, the state of replicas that are still configured is kept and replicas
+ * that are no longer configured are dropped together with their gauges. {@link
+ * #reloadIfChanged()} is called periodically to pick up changes of {@code IDM_CONFIG_FILE}.
+ */
+public class IdmEndpoints {
+
+  private static final Logger log = LogManager.getLogger(IdmEndpoints.class);
+  private static final IdmEndpoints INSTANCE = new IdmEndpoints();
+  private static final State NOT_CONFIGURED = new State(IdmConfig.from(name -> null), List.of());
+
+  private final Map<String, IdmEndpoint> endpoints = new ConcurrentHashMap<>();
+  private volatile State state;
+
+  public static IdmEndpoints getInstance() {
+    return INSTANCE;
+  }
+
+  public IdmConfig getConfig() {
+    return getState().config;
+  }
+
+  /**
+   * Reads the config from the environment again. Blocks while reading {@code IDM_CONFIG_FILE}.
+   *
+   * @throws java.io.UncheckedIOException if the file can't be read
+   */
+  public void reload() {
+    reload(IdmConfig.fromEnv());
+  }
+
+  /**
+   * Reads the config again and replaces the current one if it differs. Blocks as {@link #reload()}
+   * does.
+   */
+  public synchronized boolean reloadIfChanged() {
+    IdmConfig config = IdmConfig.fromEnv();
+    if (state != null && config.equals(state.config)) {
+      return false;
+    }
+    reload(config);
+    return true;
+  }
+
+  public synchronized void reload(IdmConfig config) {
+    for (String url : List.copyOf(endpoints.keySet())) {
+      if (!config.getUrls().contains(url)) {
+        endpoints.remove(url);
+        Metrics.removeIdmEndpoint(url);
+      }
+    }
+    List<IdmEndpoint> active =
+        config.getUrls().stream()
+            .map(
+                url ->
+                    endpoints.computeIfAbsent(
+                        url,
+                        k -> {
+                          IdmEndpoint endpoint = new IdmEndpoint(k);
+                          Metrics.idmEndpoint(endpoint);
+                          return endpoint;
+                        }))
+            .collect(Collectors.toUnmodifiableList());
+    state = new State(config, active);
+    log.info("IDM endpoints: {}, load balancing {}", config.getUrls(), config.getLoadBalancing());
+  }
+
+  private State getState() {
+    State current = state;
+    return current == null ? NOT_CONFIGURED : current;
+  }
+
+  /**
+   * Calls {@code call} with the URL of a replica and retries on other replicas as configured.
+   * {@code release} frees a response that is dropped for a retry, e.g. by reading its body.
+   */
+  public <T> Future<T> execute(
+      Function<String, Future<T>> call,
+      Function<T, Integer> statusCode,
+      Function<T, Future<Void>> release) {
+    State current = getState();
+    Set<IdmEndpoint> tried = new HashSet<>();
+    IdmEndpoint endpoint = select(current, tried);
+    if (endpoint == null) {
+      return Future.failedFuture(new IllegalStateException("No IDM endpoint configured"));
+    }
+    return attempt(current, endpoint, tried, call, statusCode, release);
+  }
+
+  private <T> Future<T> attempt(
+      State current,
+      IdmEndpoint endpoint,
+      Set<IdmEndpoint> tried,
+      Function<String, Future<T>> call,
+      Function<T, Integer> statusCode,
+      Function<T, Future<Void>> release) {
+    tried.add(endpoint);
+    endpoint.start();
+    long start = System.nanoTime();
+    Future<T> future;
+    try {
+      future = call.apply(endpoint.getUrl());
+    } catch (RuntimeException e) {
+      future = Future.failedFuture(e);
+    }
+    return future.<T>compose(
+        result -> {
+          int status = statusCode.apply(result);
+          end(current, endpoint, start, status);
+          IdmEndpoint next = isRetryable(status) ? nextEndpoint(current, tried) : null;
+          if (next == null) {
+            return Future.succeededFuture(result);
+          }
+          return release
+              .apply(result)
+              .otherwiseEmpty()
+              .compose(v -> attempt(current, next, tried, call, statusCode, release));
+        },
+        t -> {
+          if (t instanceof CancellationException) {
+            // cancelled by the caller, says nothing about the health of the replica
+            endpoint.cancel();
+            return Future.failedFuture(t);
+          }
+          end(current, endpoint, start, 0);
+          IdmEndpoint next = nextEndpoint(current, tried);
+          if (next == null) {
+            return Future.failedFuture(t);
+          }
+          return attempt(current, next, tried, call, statusCode, release);
+        });
+  }
+
+  private static void end(State current, IdmEndpoint endpoint, long start, int status) {
+    long duration = System.nanoTime() - start;
+    endpoint.end(duration, status == 0 || status >= 500, current.config);
+    Metrics.timeIdmEndpoint(endpoint.getUrl(), status, duration);
+  }
+
+  private static boolean isRetryable(int status) {
+    return status == 502 || status == 503 || status == 504;
+  }
+
+  private static IdmEndpoint nextEndpoint(State current, Set<IdmEndpoint> tried) {
+    if (tried.size() > current.config.getRetries()) {
+      return null;
+    }
+    return select(current, tried);
+  }
+
+  /**
+   * Picks a healthy replica not tried yet. For the first attempt of a request an ejected replica is
+   * picked if there is no healthy one.
+   */
+  static IdmEndpoint select(State current, Set<IdmEndpoint> tried) {
+    long now = System.nanoTime();
+    List<IdmEndpoint> candidates = new ArrayList<>(current.endpoints.size());
+    for (IdmEndpoint endpoint : current.endpoints) {
+      if (!tried.contains(endpoint) && !endpoint.isEjected(now)) {
+        candidates.add(endpoint);
+      }
+    }
+    if (candidates.isEmpty()) {
+      if (!tried.isEmpty()) {
+        return null;
+      }
+      return current.endpoints.stream()
+          .min(Comparator.comparingLong(endpoint -> endpoint.getEjectionRemaining(now)))
+          .orElse(null);
+    }
+    if (candidates.size() == 1) {
+      return candidates.get(0);
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(candidates.size());
+    int second = random.nextInt(candidates.size() - 1);
+    if (second >= first) {
+      second++;
+    }
+    IdmEndpoint a = candidates.get(first);
+    IdmEndpoint b = candidates.get(second);
+    IdmConfig.LoadBalancing loadBalancing = current.config.getLoadBalancing();
+    return b.getScore(loadBalancing) < a.getScore(loadBalancing) ? b : a;
+  }
+
+  public List<Endpoint> getStats() {
+    return getState().endpoints.stream().map(IdmEndpoint::getStats).collect(Collectors.toList());
+  }
+
+  static class State {
+
+    private final IdmConfig config;
+    private final List<IdmEndpoint> endpoints;
+
+    State(IdmConfig config, List<IdmEndpoint> endpoints) {
+      this.config = config;
+      this.endpoints = endpoints;
+    }
+  }
+}
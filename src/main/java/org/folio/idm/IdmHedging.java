@@ -0,0 +1,210 @@
+package org.folio.idm;
+
+import static com.google.common.primitives.Ints.saturatedCast;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.folio.metrics.Metrics;
+import org.folio.rest.jaxrs.model.Hedging;
+import org.folio.util.EnvUtils;
+
+/**
+ * Hedged IDM requests: if a request hasn't been answered after a delay, the {@code
+ * IDM_HEDGING_PERCENTILE} percentile of the recent latencies, a second identical request is sent.
+ * The first response wins, the other request is cancelled. Each request adds {@code
+ * IDM_HEDGING_BUDGET} percent of a token to a budget, each hedge takes a whole token, so hedging
+ * adds at most that percentage of extra requests. No hedge is sent before {@code
+ * IDM_HEDGING_MINIMUM_SAMPLES} latencies have been recorded.
+ */
+public class IdmHedging {
+
+  public static final String ENV_ENABLED = "IDM_HEDGING_ENABLED";
+  public static final String ENV_PERCENTILE = "IDM_HEDGING_PERCENTILE";
+  public static final String ENV_MIN_DELAY = "IDM_HEDGING_MIN_DELAY";
+  public static final String ENV_BUDGET = "IDM_HEDGING_BUDGET";
+  public static final String ENV_WINDOW_SIZE = "IDM_HEDGING_WINDOW_SIZE";
+  public static final String ENV_MINIMUM_SAMPLES = "IDM_HEDGING_MINIMUM_SAMPLES";
+
+  private static final double MAX_TOKENS = 10;
+  private static final int RECALCULATE_EVERY = 16;
+
+  private static final IdmHedging INSTANCE =
+      new IdmHedging(
+          EnvUtils.getBoolean(ENV_ENABLED, false),
+          EnvUtils.getDouble(ENV_PERCENTILE, 95),
+          EnvUtils.getLong(ENV_MIN_DELAY, 10),
+          EnvUtils.getDouble(ENV_BUDGET, 5),
+          EnvUtils.getInt(ENV_WINDOW_SIZE, 1000),
+          EnvUtils.getInt(ENV_MINIMUM_SAMPLES, 100));
+
+  private final boolean enabled;
+  private final double percentile;
+  private final long minDelayNanos;
+  private final double tokensPerRequest;
+  private final int minimumSamples;
+
+  private final long[] latencies;
+  private int latencyIndex;
+  private int latencyCount;
+  private int sinceRecalculation;
+  private long delayNanos = -1;
+  private double tokens;
+  private long requests;
+  private long hedges;
+  private long hedgeWins;
+  private long budgetExhausted;
+
+  public IdmHedging(
+      boolean enabled,
+      double percentile,
+      long minDelayMillis,
+      double budgetPercent,
+      int windowSize,
+      int minimumSamples) {
+    this.enabled = enabled;
+    this.percentile = Math.min(Math.max(percentile, 0), 100);
+    this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(minDelayMillis, 1));
+    this.tokensPerRequest = Math.max(budgetPercent, 0) / 100;
+    this.latencies = new long[Math.max(windowSize, 1)];
+    this.minimumSamples = Math.max(1, Math.min(minimumSamples, latencies.length));
+  }
+
+  public static IdmHedging getInstance() {
+    return INSTANCE;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Calls {@code attempt} and, if enabled and it takes too long, calls it a second time. The
+   * future passed to {@code attempt} completes when its result is no longer needed, the attempt
+   * should then cancel its request.
+   */
+  public <T> Future<T> execute(Vertx vertx, Function<Future<Void>, Future<T>> attempt) {
+    if (!enabled) {
+      return attempt.apply(Promise.<Void>promise().future());
+    }
+    long delay = onRequest();
+    long start = System.nanoTime();
+    Promise<T> result = Promise.promise();
+    Promise<Void> cancelFirst = Promise.promise();
+    Promise<Void> cancelHedge = Promise.promise();
+    // [0] hedge started, [1] one of the attempts failed
+    boolean[] state = new boolean[2];
+
+    long timerId =
+        delay < 0
+            ? -1
+            : vertx.setTimer(
+                Math.max(1, TimeUnit.NANOSECONDS.toMillis(delay)),
+                id -> {
+                  if (result.future().isComplete() || !tryAcquireToken()) {
+                    return;
+                  }
+                  state[0] = true;
+                  Metrics.idmHedge("sent");
+                  long hedgeStart = System.nanoTime();
+                  attempt
+                      .apply(cancelHedge.future())
+                      .onComplete(
+                          ar -> {
+                            if (ar.succeeded()) {
+                              recordLatency(System.nanoTime() - hedgeStart);
+                              if (result.tryComplete(ar.result())) {
+                                onHedgeWin();
+                                cancelFirst.tryComplete();
+                              }
+                            } else if (state[1]) {
+                              result.tryFail(ar.cause());
+                            } else {
+                              state[1] = true;
+                            }
+                          });
+                });
+
+    attempt
+        .apply(cancelFirst.future())
+        .onComplete(
+            ar -> {
+              if (timerId >= 0) {
+                vertx.cancelTimer(timerId);
+              }
+              // a cancelled first attempt took at least as long as the winning hedge
+              if (ar.succeeded() || cancelFirst.future().isComplete()) {
+                recordLatency(System.nanoTime() - start);
+              }
+              if (ar.succeeded()) {
+                if (result.tryComplete(ar.result())) {
+                  cancelHedge.tryComplete();
+                  if (state[0]) {
+                    Metrics.idmHedge("lost");
+                  }
+                }
+              } else if (!state[0] || state[1]) {
+                result.tryFail(ar.cause());
+              } else {
+                state[1] = true;
+              }
+            });
+    return result.future();
+  }
+
+  /** Counts the request, adds to the budget and returns the hedge delay, -1 for no hedging. */
+  private synchronized long onRequest() {
+    requests++;
+    tokens = Math.min(MAX_TOKENS, tokens + tokensPerRequest);
+    return delayNanos;
+  }
+
+  private synchronized boolean tryAcquireToken() {
+    if (tokens < 1) {
+      budgetExhausted++;
+      Metrics.idmHedge("budget_exhausted");
+      return false;
+    }
+    tokens--;
+    hedges++;
+    return true;
+  }
+
+  private synchronized void onHedgeWin() {
+    hedgeWins++;
+    Metrics.idmHedge("won");
+  }
+
+  synchronized void recordLatency(long nanos) {
+    latencies[latencyIndex] = nanos;
+    latencyIndex = (latencyIndex + 1) % latencies.length;
+    latencyCount = Math.min(latencyCount + 1, latencies.length);
+    if (latencyCount >= minimumSamples
+        && (delayNanos < 0 || ++sinceRecalculation >= RECALCULATE_EVERY)) {
+      sinceRecalculation = 0;
+      long[] sorted = Arrays.copyOf(latencies, latencyCount);
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+      delayNanos = Math.max(minDelayNanos, sorted[Math.max(index, 0)]);
+    }
+  }
+
+  /** Current hedge delay in nanoseconds, -1 if not enough latencies have been recorded yet. */
+  public synchronized long getDelayNanos() {
+    return delayNanos;
+  }
+
+  public synchronized Hedging getStats() {
+    return new Hedging()
+        .withEnabled(enabled)
+        .withDelay(
+            delayNanos < 0 ? null : saturatedCast(TimeUnit.NANOSECONDS.toMillis(delayNanos)))
+        .withRequests(saturatedCast(requests))
+        .withHedges(saturatedCast(hedges))
+        .withHedgeWins(saturatedCast(hedgeWins))
+        .withBudgetExhausted(saturatedCast(budgetExhausted));
+  }
+}
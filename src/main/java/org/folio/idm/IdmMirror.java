@@ -0,0 +1,150 @@
+package org.folio.idm;
+
+import static org.folio.rest.impl.Constants.TABLE_NAME_IDM_MIRROR;
+import static org.folio.rest.impl.Constants.TABLE_NAME_IDM_MIRROR_STATE;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.Tuple;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import org.folio.metrics.Metrics;
+import org.folio.rest.persist.PostgresClient;
+import org.folio.util.EnvUtils;
+
+/**
+ * Answers IDM searches from the mirror table filled by {@link IdmMirrorSync}. Names are compared
+ * case-insensitively, the date of birth as YYYYMMDD. Each record gets a {@code mirrorMetadata}
+ * object with {@code syncedAt}, the start of the sync run that last received the record, and
+ * {@code checkedAt}, the start of the last successful sync run.
+ */
+public class IdmMirror {
+
+  private final PostgresClient postgresClient;
+  private final String tenantId;
+  private final String schema;
+  private final Clock clock;
+  private final long maxAgeSeconds;
+  private final int maxResults;
+
+  public IdmMirror(
+      PostgresClient postgresClient,
+      String tenantId,
+      Clock clock,
+      long maxAgeSeconds,
+      int maxResults) {
+    this.postgresClient = postgresClient;
+    this.tenantId = tenantId;
+    this.schema = PostgresClient.convertToPsqlStandard(tenantId);
+    this.clock = clock;
+    this.maxAgeSeconds = maxAgeSeconds;
+    this.maxResults = maxResults;
+  }
+
+  public static IdmMirror fromEnv(PostgresClient postgresClient, String tenantId) {
+    return new IdmMirror(
+        postgresClient,
+        tenantId,
+        Clock.systemUTC(),
+        EnvUtils.getLong("IDM_MIRROR_MAX_AGE", 3600),
+        EnvUtils.getInt("IDM_MIRROR_MAX_RESULTS", 100));
+  }
+
+  public static boolean isEnabled() {
+    return EnvUtils.getBoolean("IDM_MIRROR_ENABLED", false);
+  }
+
+  /**
+   * Returns the matching records, or null if the IDM has to be asked: no search parameter is
+   * given, the mirror hasn't been synced within {@code IDM_MIRROR_MAX_AGE} seconds, no record
+   * matches or more than {@code IDM_MIRROR_MAX_RESULTS} records match.
+   */
+  public Future<Hit> search(String givenname, String surname, String dateOfBirth) {
+    List<String> conditions = new ArrayList<>();
+    List<Object> params = new ArrayList<>();
+    addCondition(conditions, params, "lower(surname) = lower($%d)", surname);
+    addCondition(conditions, params, "lower(givenname) = lower($%d)", givenname);
+    addCondition(conditions, params, "date_of_birth = $%d", dateOfBirth);
+    if (conditions.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    params.add(maxResults + 1);
+    String sql =
+        "SELECT s.last_sync, m.record, m.synced_at FROM "
+            + (schema + "." + TABLE_NAME_IDM_MIRROR_STATE + " s")
+            + " LEFT JOIN LATERAL (SELECT record, synced_at, key FROM "
+            + (schema + "." + TABLE_NAME_IDM_MIRROR)
+            + (" WHERE " + String.join(" AND ", conditions))
+            + (" ORDER BY key LIMIT $" + params.size() + ") m ON true")
+            + " WHERE s.id = 1 ORDER BY m.key";
+    return Metrics.timeDb(
+            "idmMirrorSearch", tenantId, () -> postgresClient.select(sql, Tuple.from(params)))
+        .map(this::toHit);
+  }
+
+  private Hit toHit(RowSet<Row> rowSet) {
+    if (rowSet.size() == 0 || rowSet.size() > maxResults) {
+      return null;
+    }
+    OffsetDateTime now = OffsetDateTime.now(clock);
+    JsonArray records = new JsonArray();
+    OffsetDateTime lastSync = null;
+    for (Row row : rowSet) {
+      lastSync = row.getOffsetDateTime("last_sync");
+      JsonObject record = row.getJsonObject("record");
+      if (lastSync == null || record == null || lastSync.plusSeconds(maxAgeSeconds).isBefore(now)) {
+        return null;
+      }
+      records.add(
+          record
+              .copy()
+              .put(
+                  "mirrorMetadata",
+                  new JsonObject()
+                      .put("syncedAt", format(row.getOffsetDateTime("synced_at")))
+                      .put("checkedAt", format(lastSync))));
+    }
+    return new Hit(
+        new IdmResponse(200, "application/json", records.toBuffer()),
+        Math.max(Duration.between(lastSync, now).getSeconds(), 0));
+  }
+
+  private static String format(OffsetDateTime dateTime) {
+    return dateTime.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+  }
+
+  private static void addCondition(
+      List<String> conditions, List<Object> params, String condition, String value) {
+    if (value != null) {
+      params.add(value);
+      conditions.add(String.format(condition, params.size()));
+    }
+  }
+
+  public static class Hit {
+
+    private final IdmResponse idmResponse;
+    private final long ageSeconds;
+
+    public Hit(IdmResponse idmResponse, long ageSeconds) {
+      this.idmResponse = idmResponse;
+      this.ageSeconds = ageSeconds;
+    }
+
+    public IdmResponse getIdmResponse() {
+      return idmResponse;
+    }
+
+    /** Seconds since the start of the last successful sync run. */
+    public long getAgeSeconds() {
+      return ageSeconds;
+    }
+  }
+}
@@ -0,0 +1,349 @@
+package org.folio.idm;
+
+import static org.folio.rest.impl.Constants.TABLE_NAME_IDM_MIRROR;
+import static org.folio.rest.impl.Constants.TABLE_NAME_IDM_MIRROR_STATE;
+
+import io.netty.handler.codec.http.QueryStringEncoder;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.parsetools.JsonEventType;
+import io.vertx.core.parsetools.JsonParser;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.Tuple;
+import java.time.Clock;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.folio.contract.ContractExpiry;
+import org.folio.rest.persist.PostgresClient;
+import org.folio.util.EnvUtils;
+
+/**
+ * Copies the IDM directory into the {@code idm_mirror} table of each tenant, see {@code
+ * templates/db_scripts/idm_mirror.sql}. A full run fetches all records from {@code IDM_MIRROR_URL}
+ * and removes the records the IDM didn't return, it runs if the last full run is older than {@code
+ * IDM_MIRROR_FULL_INTERVAL} seconds. Otherwise only the records changed since the start of the
+ * last run are fetched, the request has the {@code changed_since} query parameter. The response, a
+ * JSON array or NDJSON, is parsed as it arrives and stored in batches of {@code
+ * IDM_MIRROR_BATCH_SIZE} records, reading pauses while a batch is stored.
+ */
+public class IdmMirrorSync {
+
+  public static final String PARAM_CHANGED_SINCE = "changed_since";
+  public static final String KEY = "unilogin";
+
+  private static final Logger log = LogManager.getLogger(IdmMirrorSync.class);
+  private static final AtomicBoolean running = new AtomicBoolean();
+  private static volatile Run lastRun;
+
+  private final Vertx vertx;
+  private final IdmClient idmClient;
+  private final Clock clock;
+  private final String mirrorUrl;
+  private final String idmToken;
+  private final long fullIntervalSeconds;
+  private final int batchSize;
+
+  public IdmMirrorSync(
+      Vertx vertx,
+      IdmClient idmClient,
+      Clock clock,
+      String mirrorUrl,
+      String idmToken,
+      long fullIntervalSeconds,
+      int batchSize) {
+    this.vertx = vertx;
+    this.idmClient = idmClient;
+    this.clock = clock;
+    this.mirrorUrl = mirrorUrl;
+    this.idmToken = idmToken;
+    this.fullIntervalSeconds = fullIntervalSeconds;
+    this.batchSize = Math.max(batchSize, 1);
+  }
+
+  public static IdmMirrorSync fromEnv(Context vertxContext) {
+    return new IdmMirrorSync(
+        vertxContext.owner(),
+        IdmClient.get(vertxContext),
+        Clock.systemUTC(),
+        System.getenv("IDM_MIRROR_URL"),
+        IdmEndpoints.getInstance().getConfig().getToken(),
+        EnvUtils.getLong("IDM_MIRROR_FULL_INTERVAL", 86400),
+        EnvUtils.getInt("IDM_MIRROR_BATCH_SIZE", 1000));
+  }
+
+  public static Run getLastRun() {
+    return lastRun;
+  }
+
+  /** Syncs the mirror of all tenants. Completes with {@code null} if a run is already ongoing. */
+  public Future<Run> run() {
+    if (mirrorUrl == null) {
+      log.error("IDM mirror sync skipped, IDM_MIRROR_URL environment variable not set");
+      return Future.succeededFuture();
+    }
+    if (!running.compareAndSet(false, true)) {
+      return Future.succeededFuture();
+    }
+    long start = System.nanoTime();
+    return ContractExpiry.getTenants(vertx)
+        .compose(
+            tenants -> {
+              Future<Run> runs = Future.succeededFuture(new Run(0, 0, 0, 0, 0));
+              for (String tenant : tenants) {
+                runs =
+                    runs.compose(
+                        sum ->
+                            syncTenant(tenant)
+                                .map(sum::add)
+                                .otherwise(
+                                    t -> {
+                                      log.error("IDM mirror sync failed for tenant {}", tenant, t);
+                                      return sum;
+                                    }));
+              }
+              return runs.map(
+                  sum ->
+                      new Run(
+                          sum.getTenants(),
+                          sum.getFullSyncs(),
+                          sum.getRecordsStored(),
+                          sum.getRecordsDeleted(),
+                          (System.nanoTime() - start) / 1_000_000));
+            })
+        .onSuccess(
+            run -> {
+              lastRun = run;
+              log.info(
+                  "IDM mirror sync: {} tenants synced ({} full), {} records stored, {} deleted"
+                      + " in {} ms",
+                  run.getTenants(),
+                  run.getFullSyncs(),
+                  run.getRecordsStored(),
+                  run.getRecordsDeleted(),
+                  run.getDurationMillis());
+            })
+        .onFailure(t -> log.error("IDM mirror sync failed", t))
+        .onComplete(ar -> running.set(false));
+  }
+
+  Future<Run> syncTenant(String tenant) {
+    PostgresClient postgresClient = PostgresClient.getInstance(vertx, tenant);
+    String schema = PostgresClient.convertToPsqlStandard(tenant);
+    OffsetDateTime start = OffsetDateTime.now(clock);
+    return postgresClient
+        .select(
+            "SELECT last_full_sync, last_sync FROM "
+                + schema
+                + "."
+                + TABLE_NAME_IDM_MIRROR_STATE
+                + " WHERE id = $1",
+            Tuple.of(1))
+        .compose(
+            rowSet -> {
+              Iterator<Row> rows = rowSet.iterator();
+              Row state = rows.hasNext() ? rows.next() : null;
+              OffsetDateTime lastFullSync =
+                  state == null ? null : state.getOffsetDateTime("last_full_sync");
+              OffsetDateTime lastSync = state == null ? null : state.getOffsetDateTime("last_sync");
+              boolean full =
+                  lastFullSync == null
+                      || lastSync == null
+                      || !lastFullSync.plusSeconds(fullIntervalSeconds).isAfter(start);
+              return fetch(postgresClient, schema, full ? null : lastSync, start)
+                  .compose(
+                      stored -> {
+                        if (!full) {
+                          return Future.succeededFuture(new Run(1, 0, stored, 0, 0));
+                        }
+                        return postgresClient
+                            .execute(
+                                "DELETE FROM "
+                                    + schema
+                                    + "."
+                                    + TABLE_NAME_IDM_MIRROR
+                                    + " WHERE synced_at < $1",
+                                Tuple.of(start))
+                            .map(deleted -> new Run(1, 1, stored, deleted.rowCount(), 0));
+                      })
+                  .compose(run -> saveState(postgresClient, schema, full, start).map(run));
+            });
+  }
+
+  private Future<RowSet<Row>> saveState(
+      PostgresClient postgresClient, String schema, boolean full, OffsetDateTime start) {
+    String table = schema + "." + TABLE_NAME_IDM_MIRROR_STATE;
+    if (full) {
+      return postgresClient.execute(
+          "INSERT INTO "
+              + table
+              + " (id, last_full_sync, last_sync) VALUES (1, $1, $1) ON CONFLICT (id) DO UPDATE"
+              + " SET last_full_sync = EXCLUDED.last_full_sync, last_sync = EXCLUDED.last_sync",
+          Tuple.of(start));
+    }
+    return postgresClient.execute(
+        "UPDATE " + table + " SET last_sync = $1 WHERE id = 1", Tuple.of(start));
+  }
+
+  /** Fetches the records changed since {@code changedSince}, all if null, and stores them. */
+  private Future<Integer> fetch(
+      PostgresClient postgresClient,
+      String schema,
+      OffsetDateTime changedSince,
+      OffsetDateTime syncedAt) {
+    QueryStringEncoder queryStringEncoder = new QueryStringEncoder(mirrorUrl);
+    if (changedSince != null) {
+      queryStringEncoder.addParam(
+          PARAM_CHANGED_SINCE, changedSince.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+    }
+    RequestOptions requestOptions =
+        new RequestOptions()
+            .setMethod(HttpMethod.GET)
+            .setAbsoluteURI(queryStringEncoder.toString());
+    if (idmToken != null) {
+      requestOptions.putHeader("Authorization", idmToken);
+    }
+    return idmClient
+        .stream(requestOptions)
+        .compose(
+            response -> {
+              if (response.statusCode() != 200) {
+                return response
+                    .body()
+                    .compose(
+                        body ->
+                            Future.failedFuture(
+                                new IllegalStateException(
+                                    "IDM mirror request failed with status "
+                                        + response.statusCode()
+                                        + ": "
+                                        + body)));
+              }
+              return store(
+                  postgresClient, schema + "." + TABLE_NAME_IDM_MIRROR, response, syncedAt);
+            });
+  }
+
+  private Future<Integer> store(
+      PostgresClient postgresClient,
+      String table,
+      HttpClientResponse response,
+      OffsetDateTime syncedAt) {
+    Promise<Integer> promise = Promise.promise();
+    JsonParser parser = JsonParser.newParser(response).objectValueMode();
+    JsonArray[] batch = {new JsonArray()};
+    int[] stored = {0};
+    parser.handler(
+        event -> {
+          if (event.type() != JsonEventType.VALUE || !(event.value() instanceof JsonObject)) {
+            return;
+          }
+          batch[0].add(event.value());
+          if (batch[0].size() < batchSize) {
+            return;
+          }
+          JsonArray records = batch[0];
+          batch[0] = new JsonArray();
+          parser.pause();
+          upsert(postgresClient, table, records, syncedAt)
+              .onSuccess(
+                  count -> {
+                    stored[0] += count;
+                    parser.resume();
+                  })
+              .onFailure(
+                  t -> {
+                    promise.tryFail(t);
+                    response.request().reset();
+                  });
+        });
+    parser.exceptionHandler(promise::tryFail);
+    parser.endHandler(
+        v -> {
+          if (batch[0].isEmpty()) {
+            promise.tryComplete(stored[0]);
+            return;
+          }
+          upsert(postgresClient, table, batch[0], syncedAt)
+              .onSuccess(count -> promise.tryComplete(stored[0] + count))
+              .onFailure(promise::tryFail);
+        });
+    return promise.future();
+  }
+
+  /** Inserts or replaces the records, records without key are ignored. */
+  private Future<Integer> upsert(
+      PostgresClient postgresClient, String table, JsonArray records, OffsetDateTime syncedAt) {
+    String sql =
+        "INSERT INTO "
+            + table
+            + " (key, givenname, surname, date_of_birth, record, synced_at)"
+            + " SELECT DISTINCT ON (r->>$2) r->>$2, r->>'givenname', r->>'surname',"
+            + " r->>'date_of_birth', r, $3::timestamptz"
+            + " FROM jsonb_array_elements($1::jsonb) AS r WHERE r->>$2 IS NOT NULL"
+            + " ON CONFLICT (key) DO UPDATE SET givenname = EXCLUDED.givenname,"
+            + " surname = EXCLUDED.surname, date_of_birth = EXCLUDED.date_of_birth,"
+            + " record = EXCLUDED.record, synced_at = EXCLUDED.synced_at";
+    return postgresClient
+        .execute(sql, Tuple.of(records, KEY, syncedAt))
+        .map(RowSet::rowCount);
+  }
+
+  public static class Run {
+
+    private final int tenants;
+    private final int fullSyncs;
+    private final int recordsStored;
+    private final int recordsDeleted;
+    private final long durationMillis;
+
+    public Run(
+        int tenants, int fullSyncs, int recordsStored, int recordsDeleted, long durationMillis) {
+      this.tenants = tenants;
+      this.fullSyncs = fullSyncs;
+      this.recordsStored = recordsStored;
+      this.recordsDeleted = recordsDeleted;
+      this.durationMillis = durationMillis;
+    }
+
+    Run add(Run run) {
+      return new Run(
+          tenants + run.tenants,
+          fullSyncs + run.fullSyncs,
+          recordsStored + run.recordsStored,
+          recordsDeleted + run.recordsDeleted,
+          durationMillis + run.durationMillis);
+    }
+
+    public int getTenants() {
+      return tenants;
+    }
+
+    public int getFullSyncs() {
+      return fullSyncs;
+    }
+
+    public int getRecordsStored() {
+      return recordsStored;
+    }
+
+    public int getRecordsDeleted() {
+      return recordsDeleted;
+    }
+
+    public long getDurationMillis() {
+      return durationMillis;
+    }
+  }
+}
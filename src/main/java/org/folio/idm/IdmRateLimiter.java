@@ -0,0 +1,154 @@
+package org.folio.idm;
+
+import static com.google.common.primitives.Ints.saturatedCast;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.folio.metrics.Metrics;
+import org.folio.rest.jaxrs.model.RateLimit;
+
+/**
+ * Limits the rate of IDM lookups of each tenant, or of each user of a tenant, with a token bucket
+ * of {@code IDM_RATE_LIMIT_BURST} tokens refilled at {@code IDM_RATE_LIMIT_RATE} tokens per
+ * second. A rate of 0 disables the limit. The settings are part of {@link IdmConfig} and are taken
+ * from the current config on each lookup.
+ *
+ * <p>A bucket is a single timestamp, the time at which it would be full again, updated with
+ * compare-and-set; taking a token never blocks.
+ */
+public class IdmRateLimiter {
+
+  public static final String ENV_RATE = "IDM_RATE_LIMIT_RATE";
+  public static final String ENV_BURST = "IDM_RATE_LIMIT_BURST";
+  public static final String ENV_PER_USER = "IDM_RATE_LIMIT_PER_USER";
+
+  private static final IdmRateLimiter INSTANCE =
+      new IdmRateLimiter(() -> IdmEndpoints.getInstance().getConfig().getRateLimit());
+
+  private final Supplier<Settings> settings;
+  private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+  private final Map<String, AtomicLong> throttledRequests = new ConcurrentHashMap<>();
+
+  public IdmRateLimiter(Supplier<Settings> settings) {
+    this.settings = settings;
+  }
+
+  public IdmRateLimiter(double rate, int burst, boolean perUser) {
+    Settings fixed = new Settings(rate, burst, perUser);
+    this.settings = () -> fixed;
+  }
+
+  public static IdmRateLimiter getInstance() {
+    return INSTANCE;
+  }
+
+  public boolean isEnabled() {
+    return settings.get().isEnabled();
+  }
+
+  /**
+   * Takes a token from the bucket of the tenant, or of the user if limited per user.
+   *
+   * @param userId the user, may be null
+   * @return 0 if the lookup may proceed, otherwise the nanoseconds until a token is available
+   */
+  public long tryAcquire(String tenantId, String userId) {
+    Settings current = settings.get();
+    if (!current.isEnabled()) {
+      return 0;
+    }
+    String key = current.perUser && userId != null ? tenantId + "/" + userId : tenantId;
+    long now = System.nanoTime();
+    AtomicLong fullAt = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+    while (true) {
+      long full = fullAt.get();
+      long next = (now - full > 0 ? now : full) + current.intervalNanos;
+      long wait = next - now - current.capacityNanos;
+      if (wait > 0) {
+        throttledRequests.computeIfAbsent(tenantId, k -> new AtomicLong()).incrementAndGet();
+        Metrics.idmThrottled(tenantId);
+        return wait;
+      }
+      if (fullAt.compareAndSet(full, next)) {
+        return 0;
+      }
+    }
+  }
+
+  /** {@code Retry-After} seconds for the result of {@link #tryAcquire}, at least 1. */
+  public static long toRetryAfterSeconds(long waitNanos) {
+    return Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+  }
+
+  public long getThrottledRequests(String tenantId) {
+    AtomicLong throttled = throttledRequests.get(tenantId);
+    return throttled == null ? 0 : throttled.get();
+  }
+
+  public RateLimit getStats(String tenantId) {
+    Settings current = settings.get();
+    return new RateLimit()
+        .withEnabled(current.isEnabled())
+        .withRate(current.rate)
+        .withBurst(current.burst)
+        .withPerUser(current.perUser)
+        .withThrottledRequests(saturatedCast(getThrottledRequests(tenantId)));
+  }
+
+  /** Rate, burst and scope of the limit. */
+  public static class Settings {
+
+    private final double rate;
+    private final int burst;
+    private final boolean perUser;
+    private final long intervalNanos;
+    private final long capacityNanos;
+
+    public Settings(double rate, int burst, boolean perUser) {
+      this.rate = Math.max(rate, 0);
+      this.burst = Math.max(burst, 1);
+      this.perUser = perUser;
+      this.intervalNanos = this.rate == 0 ? 0 : Math.max(1, (long) (1e9 / this.rate));
+      this.capacityNanos = intervalNanos * this.burst;
+    }
+
+    public boolean isEnabled() {
+      return intervalNanos > 0;
+    }
+
+    public double getRate() {
+      return rate;
+    }
+
+    public int getBurst() {
+      return burst;
+    }
+
+    public boolean isPerUser() {
+      return perUser;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Settings)) {
+        return false;
+      }
+      Settings other = (Settings) o;
+      return Double.compare(rate, other.rate) == 0
+          && burst == other.burst
+          && perUser == other.perUser;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(rate, burst, perUser);
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package org.folio.idm;
+
+import static com.google.common.primitives.Ints.saturatedCast;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.folio.rest.jaxrs.model.Coalescing;
+
+/**
+ * Lets concurrent identical IDM lookups share one upstream request. One instance is kept per
+ * Vert.x context.
+ */
+public class IdmRequestCoalescer {
+
+  private static final String CONTEXT_KEY = IdmRequestCoalescer.class.getName();
+
+  private final Map<String, Future<IdmResponse>> inFlight = new ConcurrentHashMap<>();
+  private final AtomicLong upstreamRequests = new AtomicLong();
+  private final AtomicLong coalescedRequests = new AtomicLong();
+
+  public static IdmRequestCoalescer get(Context vertxContext) {
+    IdmRequestCoalescer coalescer = vertxContext.get(CONTEXT_KEY);
+    if (coalescer == null) {
+      coalescer = new IdmRequestCoalescer();
+      vertxContext.put(CONTEXT_KEY, coalescer);
+    }
+    return coalescer;
+  }
+
+  public boolean isInFlight(String key) {
+    return inFlight.containsKey(key);
+  }
+
+  /**
+   * Returns the pending response for {@code key} if there is one, otherwise calls {@code upstream}
+   * and shares its response with all callers that arrive until it completes.
+   */
+  public Future<IdmResponse> execute(String key, Supplier<Future<IdmResponse>> upstream) {
+    Future<IdmResponse> pending = inFlight.get(key);
+    if (pending != null) {
+      coalescedRequests.incrementAndGet();
+      return pending;
+    }
+    upstreamRequests.incrementAndGet();
+    Future<IdmResponse> future = upstream.get();
+    if (!future.isComplete()) {
+      inFlight.put(key, future);
+      future.onComplete(ar -> inFlight.remove(key));
+    }
+    return future;
+  }
+
+  public Coalescing getStats() {
+    return new Coalescing()
+        .withInFlight(inFlight.size())
+        .withUpstreamRequests(saturatedCast(upstreamRequests.get()))
+        .withCoalescedRequests(saturatedCast(coalescedRequests.get()));
+  }
+}
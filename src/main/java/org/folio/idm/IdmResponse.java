@@ -0,0 +1,58 @@
+package org.folio.idm;
+
+import io.vertx.core.buffer.Buffer;
+
+/** Buffered response of the external IDM system that can be cached and shared. */
+public class IdmResponse {
+
+  private final int statusCode;
+  private final String contentType;
+  private final Buffer body;
+
+  public IdmResponse(int statusCode, String contentType, Buffer body) {
+    this.statusCode = statusCode;
+    this.contentType = contentType;
+    this.body = body == null ? Buffer.buffer() : body;
+  }
+
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  public Buffer getBody() {
+    return body;
+  }
+
+  public String bodyAsString() {
+    return body.toString();
+  }
+
+  public boolean isSuccess() {
+    return statusCode >= 200 && statusCode < 300;
+  }
+
+  /** Whether the body is an empty JSON array, i.e. the IDM did not find a matching person. */
+  public boolean isEmptyResult() {
+    int i = skipWhitespace(0);
+    if (i >= body.length() || body.getByte(i) != '[') {
+      return false;
+    }
+    i = skipWhitespace(i + 1);
+    if (i >= body.length() || body.getByte(i) != ']') {
+      return false;
+    }
+    return skipWhitespace(i + 1) == body.length();
+  }
+
+  private int skipWhitespace(int from) {
+    int i = from;
+    while (i < body.length() && Character.isWhitespace(body.getByte(i))) {
+      i++;
+    }
+    return i;
+  }
+}
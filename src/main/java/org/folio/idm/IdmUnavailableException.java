@@ -0,0 +1,18 @@
+package org.folio.idm;
+
+/** Thrown when a request to the IDM is rejected without being sent. */
+public class IdmUnavailableException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final long retryAfterSeconds;
+
+  public IdmUnavailableException(String message, long retryAfterSeconds) {
+    super(message);
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  public long getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+}
@@ -0,0 +1,172 @@
+package org.folio.idm;
+
+import static com.google.common.primitives.Ints.saturatedCast;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.folio.rest.jaxrs.model.ResultCache;
+import org.folio.util.EnvUtils;
+
+/**
+ * Bounded LRU cache of successful searchidm results, shared by all tenants and keyed by tenant and
+ * the normalized search parameters. Empty results are kept for a shorter time than matches.
+ */
+public class SearchIdmCache {
+
+  public static final String ENV_ENABLED = "IDM_CACHE_ENABLED";
+  public static final String ENV_MAX_SIZE = "IDM_CACHE_MAX_SIZE";
+  public static final String ENV_TTL = "IDM_CACHE_TTL";
+  public static final String ENV_NEGATIVE_TTL = "IDM_CACHE_NEGATIVE_TTL";
+
+  private static final SearchIdmCache INSTANCE =
+      new SearchIdmCache(
+          EnvUtils.getBoolean(ENV_ENABLED, true),
+          EnvUtils.getLong(ENV_MAX_SIZE, 10000),
+          EnvUtils.getLong(ENV_TTL, 300),
+          EnvUtils.getLong(ENV_NEGATIVE_TTL, 30));
+
+  private final boolean enabled;
+  private final long maxSize;
+  private final long ttlNanos;
+  private final long negativeTtlNanos;
+  private final Cache<Key, Entry> cache;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public SearchIdmCache(boolean enabled, long maxSize, long ttlSeconds, long negativeTtlSeconds) {
+    this.enabled = enabled && maxSize > 0 && ttlSeconds > 0;
+    this.maxSize = maxSize;
+    this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    this.negativeTtlNanos = TimeUnit.SECONDS.toNanos(Math.min(negativeTtlSeconds, ttlSeconds));
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumSize(Math.max(maxSize, 0))
+            .expireAfterWrite(Math.max(ttlSeconds, 0), TimeUnit.SECONDS)
+            .build();
+  }
+
+  public static SearchIdmCache getInstance() {
+    return INSTANCE;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public IdmResponse get(Key key) {
+    if (!enabled) {
+      return null;
+    }
+    Entry entry = cache.getIfPresent(key);
+    if (entry == null || entry.isExpired()) {
+      if (entry != null) {
+        cache.invalidate(key);
+      }
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return entry.response;
+  }
+
+  public long getRemainingTtlSeconds(Key key) {
+    Entry entry = cache.getIfPresent(key);
+    if (entry == null) {
+      return 0;
+    }
+    return Math.max(0, TimeUnit.NANOSECONDS.toSeconds(entry.expiresAt - System.nanoTime()));
+  }
+
+  /** Stores successful responses, returns whether the response was stored. */
+  public boolean put(Key key, IdmResponse response) {
+    if (!enabled || !response.isSuccess() || negativeTtlNanos <= 0 && response.isEmptyResult()) {
+      return false;
+    }
+    long ttl = response.isEmptyResult() ? negativeTtlNanos : ttlNanos;
+    cache.put(key, new Entry(response, System.nanoTime() + ttl));
+    return true;
+  }
+
+  public void invalidate(Key key) {
+    cache.invalidate(key);
+  }
+
+  public void invalidateTenant(String tenantId) {
+    cache.asMap().keySet().removeIf(key -> Objects.equals(key.tenantId, tenantId));
+  }
+
+  public ResultCache getStats() {
+    return new ResultCache()
+        .withEnabled(enabled)
+        .withMaxSize(saturatedCast(maxSize))
+        .withSize(saturatedCast(cache.size()))
+        .withHits(saturatedCast(hits.get()))
+        .withMisses(saturatedCast(misses.get()));
+  }
+
+  private static class Entry {
+
+    private final IdmResponse response;
+    private final long expiresAt;
+
+    private Entry(IdmResponse response, long expiresAt) {
+      this.response = response;
+      this.expiresAt = expiresAt;
+    }
+
+    private boolean isExpired() {
+      return System.nanoTime() - expiresAt >= 0;
+    }
+  }
+
+  public static class Key {
+
+    private final String tenantId;
+    private final String firstname;
+    private final String lastname;
+    private final String dateOfBirth;
+
+    private Key(String tenantId, String firstname, String lastname, String dateOfBirth) {
+      this.tenantId = tenantId;
+      this.firstname = firstname;
+      this.lastname = lastname;
+      this.dateOfBirth = dateOfBirth;
+    }
+
+    public static Key of(String tenantId, String firstname, String lastname, String dateOfBirth) {
+      return new Key(tenantId, normalize(firstname), normalize(lastname), normalize(dateOfBirth));
+    }
+
+    private static String normalize(String value) {
+      if (value == null) {
+        return null;
+      }
+      return Normalizer.normalize(value.trim(), Normalizer.Form.NFC).toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return Objects.equals(tenantId, key.tenantId)
+          && Objects.equals(firstname, key.firstname)
+          && Objects.equals(lastname, key.lastname)
+          && Objects.equals(dateOfBirth, key.dateOfBirth);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(tenantId, firstname, lastname, dateOfBirth);
+    }
+  }
+}
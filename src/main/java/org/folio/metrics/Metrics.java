@@ -0,0 +1,307 @@
+package org.folio.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.search.Search;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.ext.web.RoutingContext;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import javax.ws.rs.core.Response;
+import org.folio.idm.IdmBulkhead;
+import org.folio.idm.IdmCircuitBreaker;
+import org.folio.idm.IdmClient;
+import org.folio.idm.IdmEndpoint;
+import org.folio.idm.IdmHedging;
+import org.folio.idm.SearchIdmCache;
+import org.folio.rest.tools.utils.TenantTool;
+
+/**
+ * Prometheus metrics of the module: latency and status of the endpoints, Postgres calls and IDM
+ * calls, all tagged with the tenant, and gauges of the IDM client pool, the database calls in
+ * progress and the IDM resilience components.
+ */
+public class Metrics {
+
+  private static final PrometheusMeterRegistry registry =
+      new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+  private static final Map<String, AtomicInteger> activeDbCalls = new ConcurrentHashMap<>();
+  private static final Set<String> bulkheadTenants = ConcurrentHashMap.newKeySet();
+  private static final Map<String, AtomicLong> reconciliationQueue = new ConcurrentHashMap<>();
+
+  static {
+    idmClientGauge("idm.client.connections.open", IdmClient::getOpenConnections);
+    idmClientGauge("idm.client.requests.active", IdmClient::getActiveRequests);
+    idmClientGauge("idm.client.requests.queued", IdmClient::getQueuedRequests);
+    idmClientGauge("idm.client.pool.max", client -> client.getConfig().getMaxPoolSize());
+    Gauge.builder("idm.cache.size", () -> SearchIdmCache.getInstance().getStats().getSize())
+        .description("Number of cached searchidm results")
+        .register(registry);
+    Gauge.builder(
+            "idm.circuit.breaker.state",
+            () -> IdmCircuitBreaker.getInstance().getState().ordinal())
+        .description("State of the IDM circuit breaker, 0 closed, 1 open, 2 half open")
+        .register(registry);
+    Gauge.builder(
+            "idm.hedge.delay",
+            () -> Math.max(IdmHedging.getInstance().getDelayNanos(), 0) / 1e9)
+        .description("Seconds after which a hedged IDM request is sent, 0 until known")
+        .register(registry);
+  }
+
+  private Metrics() {}
+
+  public static PrometheusMeterRegistry getRegistry() {
+    return registry;
+  }
+
+  public static String scrape() {
+    return registry.scrape();
+  }
+
+  /**
+   * Like {@link #scrape()}, but without the samples of other tenants. Samples without tenant, e.g.
+   * of the IDM client pool, are module wide and kept.
+   */
+  public static String scrape(String tenantId) {
+    String own = "tenant=\"" + tenantId + "\"";
+    StringBuilder filtered = new StringBuilder();
+    for (String line : registry.scrape().split("\n")) {
+      if (line.startsWith("#")
+          || !line.contains("tenant=\"")
+          || line.contains("{" + own)
+          || line.contains("," + own)) {
+        filtered.append(line).append('\n');
+      }
+    }
+    return filtered.toString();
+  }
+
+  /**
+   * Wraps the result handler of an endpoint, the latency and status are recorded when the result
+   * is handed to RMB.
+   */
+  public static Handler<AsyncResult<Response>> timeEndpoint(
+      String method,
+      String uri,
+      Map<String, String> okapiHeaders,
+      Handler<AsyncResult<Response>> asyncResultHandler) {
+    return timeEndpoint(method, uri, okapiHeaders, System.nanoTime(), asyncResultHandler);
+  }
+
+  /** Like above, for requests that started before, e.g. streamed requests. */
+  public static Handler<AsyncResult<Response>> timeEndpoint(
+      String method,
+      String uri,
+      Map<String, String> okapiHeaders,
+      long startNanos,
+      Handler<AsyncResult<Response>> asyncResultHandler) {
+    String tenantId = TenantTool.tenantId(okapiHeaders);
+    return ar -> {
+      int status = ar.succeeded() ? ar.result().getStatus() : 500;
+      endpointTimer(method, uri, tenantId, status)
+          .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+      asyncResultHandler.handle(ar);
+    };
+  }
+
+  /**
+   * Records latency and status of an endpoint that writes its response itself, when the response
+   * has been written completely.
+   */
+  public static void timeEndpoint(
+      String method, String uri, Map<String, String> okapiHeaders, RoutingContext routingContext) {
+    String tenantId = TenantTool.tenantId(okapiHeaders);
+    Timer.Sample sample = Timer.start(registry);
+    routingContext.addBodyEndHandler(
+        v ->
+            sample.stop(
+                endpointTimer(method, uri, tenantId, routingContext.response().getStatusCode())));
+  }
+
+  /** Wraps the result handler passed to a {@code PgUtil} method. */
+  public static Handler<AsyncResult<Response>> timeDb(
+      String operation,
+      Map<String, String> okapiHeaders,
+      Handler<AsyncResult<Response>> asyncResultHandler) {
+    String tenantId = TenantTool.tenantId(okapiHeaders);
+    AtomicInteger active = activeDbCalls(tenantId);
+    active.incrementAndGet();
+    Timer.Sample sample = Timer.start(registry);
+    return ar -> {
+      active.decrementAndGet();
+      boolean success = ar.succeeded() && ar.result().getStatus() < 500;
+      sample.stop(dbTimer(operation, tenantId, success));
+      asyncResultHandler.handle(ar);
+    };
+  }
+
+  public static <T> Future<T> timeDb(String operation, String tenantId, Supplier<Future<T>> call) {
+    AtomicInteger active = activeDbCalls(tenantId);
+    active.incrementAndGet();
+    Timer.Sample sample = Timer.start(registry);
+    Future<T> future;
+    try {
+      future = call.get();
+    } catch (RuntimeException e) {
+      active.decrementAndGet();
+      sample.stop(dbTimer(operation, tenantId, false));
+      throw e;
+    }
+    return future.onComplete(
+        ar -> {
+          active.decrementAndGet();
+          sample.stop(dbTimer(operation, tenantId, ar.succeeded()));
+        });
+  }
+
+  /** Times a call to the IDM, failed calls without a response are recorded with status 0. */
+  public static <T> Future<T> timeIdm(
+      String tenantId, Function<T, Integer> statusCode, Supplier<Future<T>> call) {
+    if (bulkheadTenants.add(tenantId)) {
+      Gauge.builder(
+              "idm.bulkhead.calls.active",
+              () -> IdmBulkhead.getInstance().getActiveCalls(tenantId))
+          .description("Number of IDM calls in progress")
+          .tag("tenant", tenantId)
+          .register(registry);
+    }
+    Timer.Sample sample = Timer.start(registry);
+    return call.get()
+        .onComplete(
+            ar -> {
+              int status = ar.succeeded() ? statusCode.apply(ar.result()) : 0;
+              sample.stop(
+                  Timer.builder("idm.calls")
+                      .description("IDM calls")
+                      .tag("tenant", tenantId)
+                      .tag("status", String.valueOf(status))
+                      .publishPercentileHistogram()
+                      .register(registry));
+            });
+  }
+
+  /** Records a request to one IDM replica, failed requests without response have status 0. */
+  public static void timeIdmEndpoint(String url, int status, long durationNanos) {
+    Timer.builder("idm.endpoint.calls")
+        .description("Requests to the IDM replicas")
+        .tag("endpoint", url)
+        .tag("status", String.valueOf(status))
+        .publishPercentileHistogram()
+        .register(registry)
+        .record(durationNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /** Counts hedges of IDM requests by {@code outcome}: sent, won, lost or budget_exhausted. */
+  public static void idmHedge(String outcome) {
+    Counter.builder("idm.hedges")
+        .description("Hedged IDM requests")
+        .tag("outcome", outcome)
+        .register(registry)
+        .increment();
+  }
+
+  /** Counts IDM lookups of a tenant rejected by the rate limit. */
+  public static void idmThrottled(String tenantId) {
+    Counter.builder("idm.rate.limit.throttled")
+        .description("IDM lookups rejected by the rate limit")
+        .tag("tenant", tenantId)
+        .register(registry)
+        .increment();
+  }
+
+  /** Registers the gauges of an IDM replica. */
+  public static void idmEndpoint(IdmEndpoint endpoint) {
+    Gauge.builder("idm.endpoint.latency.ewma", endpoint, IdmEndpoint::getLatencyEwmaSeconds)
+        .description("Moving average of the latency of an IDM replica in seconds")
+        .tag("endpoint", endpoint.getUrl())
+        .strongReference(true)
+        .register(registry);
+    Gauge.builder("idm.endpoint.requests.active", endpoint, IdmEndpoint::getOutstandingRequests)
+        .description("Requests in flight to an IDM replica")
+        .tag("endpoint", endpoint.getUrl())
+        .strongReference(true)
+        .register(registry);
+    Gauge.builder("idm.endpoint.healthy", endpoint, e -> e.isHealthy() ? 1 : 0)
+        .description("1 if the IDM replica is healthy, 0 if it is ejected")
+        .tag("endpoint", endpoint.getUrl())
+        .strongReference(true)
+        .register(registry);
+  }
+
+  /** Removes the gauges of an IDM replica that is no longer configured. */
+  public static void removeIdmEndpoint(String url) {
+    Search.in(registry).tag("endpoint", url).gauges().forEach(registry::remove);
+  }
+
+  /** Sets the number of reconciliation jobs of a tenant that are in {@code state}. */
+  public static void reconciliationQueue(String tenantId, String state, long jobs) {
+    reconciliationQueue
+        .computeIfAbsent(
+            tenantId + "\n" + state,
+            k ->
+                registry.gauge(
+                    "contract.reconciliation.queue",
+                    Tags.of("tenant", tenantId, "state", state),
+                    new AtomicLong()))
+        .set(jobs);
+  }
+
+  /** Counts reconciliation jobs of a tenant that ended with {@code outcome}. */
+  public static void reconciliationJobs(String tenantId, String outcome, int jobs) {
+    if (jobs > 0) {
+      Counter.builder("contract.reconciliation.jobs")
+          .description("Processed contract reconciliation jobs")
+          .tag("tenant", tenantId)
+          .tag("outcome", outcome)
+          .register(registry)
+          .increment(jobs);
+    }
+  }
+
+  private static Timer endpointTimer(String method, String uri, String tenantId, int status) {
+    return Timer.builder("http.server.requests")
+        .description("Requests handled by the module")
+        .tag("method", method)
+        .tag("uri", uri)
+        .tag("tenant", tenantId)
+        .tag("status", String.valueOf(status))
+        .publishPercentileHistogram()
+        .register(registry);
+  }
+
+  private static Timer dbTimer(String operation, String tenantId, boolean success) {
+    return Timer.builder("db.calls")
+        .description("Postgres calls")
+        .tag("operation", operation)
+        .tag("tenant", tenantId)
+        .tag("outcome", success ? "success" : "failure")
+        .publishPercentileHistogram()
+        .register(registry);
+  }
+
+  private static AtomicInteger activeDbCalls(String tenantId) {
+    return activeDbCalls.computeIfAbsent(
+        tenantId,
+        k -> registry.gauge("db.calls.active", Tags.of("tenant", k), new AtomicInteger()));
+  }
+
+  private static void idmClientGauge(String name, ToDoubleFunction<IdmClient> value) {
+    Gauge.builder(name, () -> IdmClient.getInstances().stream().mapToDouble(value).sum())
+        .description("Sum over the IDM clients of all verticles")
+        .register(registry);
+  }
+}
@@ -3,9 +3,28 @@ package org.folio.rest.impl;
 public class Constants {
 
   public static final String TABLE_NAME_CONTRACTS = "contract";
+  public static final String TABLE_NAME_CONTRACT_RECONCILIATION = "contract_reconciliation";
+  public static final String TABLE_NAME_IDM_MIRROR = "idm_mirror";
+  public static final String TABLE_NAME_IDM_MIRROR_STATE = "idm_mirror_state";
   public static final String BASE_PATH_CONTRACTS = "/idm-connect/contract"; // NOSONAR
   public static final String BASE_PATH_SEARCHIDM = "/idm-connect/searchidm"; // NOSONAR
   public static final String MSG_IDM_URL_NOT_SET = "IDM_URL environment variable not set.";
+  public static final String MSG_IDM_URL_INVALID = "IDM_URL environment variable contains no URL.";
+  public static final String MSG_BATCH_TOO_LARGE = "Number of lookups exceeds the maximum of %d.";
+  public static final String MSG_RATE_LIMITED = "Too many IDM lookups, rate limit exceeded.";
+  public static final String MSG_IMPORT_ABORTED = "Import aborted.";
+  public static final String MSG_INVALID_EXPORT_FORMAT =
+      "Invalid format %s, expected ndjson or csv.";
+  public static final String MSG_OFFSET_WITH_CURSOR =
+      "offset can't be combined with cursor pagination.";
+  public static final String MSG_INVALID_MERGE_PATCH = "Patch is not a JSON object: ";
+  public static final String MSG_PRECONDITION_FAILED =
+      "Contract has been changed or deleted, If-Match doesn't match its ETag.";
+  public static final String HEADER_CACHE_STATUS = "Cache-Status";
+  public static final String CACHE_STATUS_HIT = "mod-idm-connect; hit";
+  public static final String CACHE_STATUS_MISS = "mod-idm-connect; fwd=uri-miss";
+  public static final String CACHE_STATUS_BYPASS = "mod-idm-connect; fwd=bypass";
+  public static final String CACHE_STATUS_MIRROR = "mod-idm-connect; hit; detail=mirror";
 
   private Constants() {}
 }
@@ -0,0 +1,22 @@
+package org.folio.rest.impl;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import org.folio.contract.ContractExpiry;
+import org.folio.rest.resource.interfaces.PeriodicAPI;
+import org.folio.util.EnvUtils;
+
+public class ContractExpiryPeriodicApi implements PeriodicAPI {
+
+  @Override
+  public long runEvery() {
+    return EnvUtils.getLong("CONTRACT_EXPIRY_INTERVAL", 3600) * 1000;
+  }
+
+  @Override
+  public void run(Vertx vertx, Context context) {
+    if (EnvUtils.getBoolean("CONTRACT_EXPIRY_ENABLED", true)) {
+      context.runOnContext(v -> ContractExpiry.fromEnv(vertx).run());
+    }
+  }
+}
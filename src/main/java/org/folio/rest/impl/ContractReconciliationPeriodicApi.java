@@ -0,0 +1,28 @@
+package org.folio.rest.impl;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import org.folio.contract.ContractReconciliation;
+import org.folio.rest.resource.interfaces.PeriodicAPI;
+import org.folio.util.EnvUtils;
+
+public class ContractReconciliationPeriodicApi implements PeriodicAPI {
+
+  @Override
+  public long runEvery() {
+    return EnvUtils.getLong("CONTRACT_RECONCILIATION_INTERVAL", 10) * 1000;
+  }
+
+  @Override
+  public void run(Vertx vertx, Context context) {
+    if (ContractReconciliation.isEnabled()) {
+      IdmConnectApi idmConnectApi = new IdmConnectApi();
+      context.runOnContext(
+          v ->
+              ContractReconciliation.fromEnv(
+                      vertx,
+                      (tenantId, personal) -> idmConnectApi.searchIdm(tenantId, personal, context))
+                  .run());
+    }
+  }
+}
@@ -0,0 +1,20 @@
+package org.folio.rest.impl;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import org.folio.contract.ContractSummaryCounters;
+import org.folio.rest.resource.interfaces.PeriodicAPI;
+import org.folio.util.EnvUtils;
+
+public class ContractSummaryPeriodicApi implements PeriodicAPI {
+
+  @Override
+  public long runEvery() {
+    return EnvUtils.getLong("CONTRACT_SUMMARY_COMPACT_INTERVAL", 300) * 1000;
+  }
+
+  @Override
+  public void run(Vertx vertx, Context context) {
+    context.runOnContext(v -> ContractSummaryCounters.compact(vertx));
+  }
+}
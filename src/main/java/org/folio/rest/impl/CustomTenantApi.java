@@ -1,51 +1,86 @@
 package org.folio.rest.impl;
 
-import static org.folio.rest.impl.Constants.TABLE_NAME_CONTRACTS;
-
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.io.Resources;
 import io.vertx.core.Context;
 import io.vertx.core.Future;
-import io.vertx.core.json.jackson.JacksonCodec;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.List;
+import java.io.InputStream;
 import java.util.Map;
-import org.folio.rest.jaxrs.model.Contract;
+import java.util.Optional;
+import org.folio.contract.ContractLoader;
+import org.folio.rest.jaxrs.model.Parameter;
 import org.folio.rest.jaxrs.model.TenantAttributes;
 import org.folio.rest.persist.PgUtil;
-import org.folio.rest.tools.utils.MetadataUtil;
+import org.folio.util.EnvUtils;
 
 public class CustomTenantApi extends TenantAPI {
 
+  public static final String PARAM_LOAD_SAMPLE = "loadSample";
+  public static final String PARAM_LOAD_SYNTHETIC = "loadSynthetic";
+  public static final String PARAM_LOAD_SYNTHETIC_SEED = "loadSyntheticSeed";
+
   @Override
   Future<Integer> loadData(
       TenantAttributes attributes,
       String tenantId,
       Map<String, String> headers,
       Context vertxContext) {
+    ContractLoader contractLoader =
+        new ContractLoader(
+            PgUtil.postgresClient(vertxContext, headers),
+            headers,
+            EnvUtils.getInt("CONTRACT_IMPORT_CHUNK_SIZE", 500));
     return super.loadData(attributes, tenantId, headers, vertxContext)
         .compose(
             superCount -> {
-              if (attributes.getParameters().stream()
-                  .anyMatch(p -> p.getKey().equals("loadSample") && p.getValue().equals("true"))) {
-                List<Contract> contracts;
-                try {
-                  String contractsStr =
-                      Resources.toString(
-                          Resources.getResource("examplecontracts.json"), StandardCharsets.UTF_8);
-                  contracts = JacksonCodec.decodeValue(contractsStr, new TypeReference<>() {});
-                  MetadataUtil.populateMetadata(contracts, headers);
-                } catch (IOException | ReflectiveOperationException e) {
-                  return Future.failedFuture(e);
-                }
+              if (getParameter(attributes, PARAM_LOAD_SAMPLE).map("true"::equals).orElse(false)) {
+                return loadSample(contractLoader).map(count -> count + superCount);
+              }
+              return Future.succeededFuture(superCount);
+            })
+        .compose(
+            count -> {
+              Optional<String> synthetic = getParameter(attributes, PARAM_LOAD_SYNTHETIC);
+              if (synthetic.isEmpty()) {
+                return Future.succeededFuture(count);
+              }
+              try {
+                return contractLoader
+                    .loadSynthetic(
+                        Integer.parseInt(synthetic.get()),
+                        getParameter(attributes, PARAM_LOAD_SYNTHETIC_SEED)
+                            .map(Long::parseLong)
+                            .orElse(1L))
+                    .map(syntheticCount -> syntheticCount + count);
+              } catch (NumberFormatException e) {
+                return Future.failedFuture(e);
+              }
+            });
+  }
 
-                return PgUtil.postgresClient(vertxContext, headers)
-                    .saveBatch(TABLE_NAME_CONTRACTS, contracts)
-                    .map(rs -> rs.size() + superCount);
-              } else {
-                return Future.succeededFuture(superCount);
+  private static Future<Integer> loadSample(ContractLoader contractLoader) {
+    InputStream inputStream;
+    try {
+      inputStream = Resources.getResource("examplecontracts.json").openStream();
+    } catch (IOException e) {
+      return Future.failedFuture(e);
+    }
+    return contractLoader
+        .load(inputStream)
+        .onComplete(
+            ar -> {
+              try {
+                inputStream.close();
+              } catch (IOException e) {
+                // nothing left to read
               }
             });
   }
+
+  private static Optional<String> getParameter(TenantAttributes attributes, String key) {
+    return attributes.getParameters().stream()
+        .filter(p -> p.getKey().equals(key))
+        .map(Parameter::getValue)
+        .findFirst();
+  }
 }
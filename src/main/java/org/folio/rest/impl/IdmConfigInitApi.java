@@ -0,0 +1,33 @@
+package org.folio.rest.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.folio.idm.IdmEndpoints;
+import org.folio.rest.resource.interfaces.InitAPI;
+
+/**
+ * Loads the IDM config when the module starts. The config file is read on a worker thread; if it
+ * can't be read the IDM is not configured until {@code IdmConfigPeriodicApi} reads it.
+ */
+public class IdmConfigInitApi implements InitAPI {
+
+  private static final Logger log = LogManager.getLogger(IdmConfigInitApi.class);
+
+  @Override
+  public void init(Vertx vertx, Context context, Handler<AsyncResult<Boolean>> handler) {
+    vertx
+        .<Void>executeBlocking(
+            promise -> {
+              IdmEndpoints.getInstance().reload();
+              promise.complete();
+            })
+        .onFailure(t -> log.error("IDM config not loaded, the IDM is not configured", t))
+        .<Boolean>map(true)
+        .otherwise(true)
+        .onComplete(handler);
+  }
+}
@@ -0,0 +1,30 @@
+package org.folio.rest.impl;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.folio.idm.IdmConfig;
+import org.folio.idm.IdmEndpoints;
+import org.folio.rest.resource.interfaces.PeriodicAPI;
+import org.folio.util.EnvUtils;
+
+public class IdmConfigPeriodicApi implements PeriodicAPI {
+
+  private static final Logger log = LogManager.getLogger(IdmConfigPeriodicApi.class);
+
+  @Override
+  public long runEvery() {
+    return EnvUtils.getLong("IDM_CONFIG_RELOAD_INTERVAL", 30) * 1000;
+  }
+
+  @Override
+  public void run(Vertx vertx, Context context) {
+    if (System.getenv(IdmConfig.ENV_CONFIG_FILE) != null) {
+      vertx
+          .<Boolean>executeBlocking(
+              promise -> promise.complete(IdmEndpoints.getInstance().reloadIfChanged()))
+          .onFailure(t -> log.error("IDM config not reloaded, keeping the current one", t));
+    }
+  }
+}
@@ -1,39 +1,169 @@
 package org.folio.rest.impl;
 
+import static org.folio.rest.RestVerticle.OKAPI_USERID_HEADER;
+import static org.folio.rest.RestVerticle.STREAM_ABORT;
+import static org.folio.rest.RestVerticle.STREAM_COMPLETE;
+import static org.folio.rest.RestVerticle.STREAM_ID;
+import static org.folio.rest.impl.Constants.BASE_PATH_CONTRACTS;
+import static org.folio.rest.impl.Constants.BASE_PATH_SEARCHIDM;
+import static org.folio.rest.impl.Constants.CACHE_STATUS_BYPASS;
+import static org.folio.rest.impl.Constants.CACHE_STATUS_HIT;
+import static org.folio.rest.impl.Constants.CACHE_STATUS_MIRROR;
+import static org.folio.rest.impl.Constants.CACHE_STATUS_MISS;
+import static org.folio.rest.impl.Constants.HEADER_CACHE_STATUS;
+import static org.folio.rest.impl.Constants.MSG_BATCH_TOO_LARGE;
+import static org.folio.rest.impl.Constants.MSG_IDM_URL_INVALID;
 import static org.folio.rest.impl.Constants.MSG_IDM_URL_NOT_SET;
+import static org.folio.rest.impl.Constants.MSG_IMPORT_ABORTED;
+import static org.folio.rest.impl.Constants.MSG_INVALID_EXPORT_FORMAT;
+import static org.folio.rest.impl.Constants.MSG_INVALID_MERGE_PATCH;
+import static org.folio.rest.impl.Constants.MSG_OFFSET_WITH_CURSOR;
+import static org.folio.rest.impl.Constants.MSG_PRECONDITION_FAILED;
+import static org.folio.rest.impl.Constants.MSG_RATE_LIMITED;
 import static org.folio.rest.impl.Constants.TABLE_NAME_CONTRACTS;
 
+import io.netty.handler.codec.http.QueryStringEncoder;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Context;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.buffer.Buffer;
-import io.vertx.ext.web.client.HttpRequest;
-import io.vertx.ext.web.client.HttpResponse;
-import io.vertx.ext.web.client.WebClient;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.DateTimeException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
+import org.folio.contract.ContractConditionalWrite;
+import org.folio.contract.ContractDuplicates;
+import org.folio.contract.ContractEtag;
+import org.folio.contract.ContractExport;
+import org.folio.contract.ContractImport;
+import org.folio.contract.ContractKeysetPage;
+import org.folio.contract.ContractPatch;
+import org.folio.contract.ContractProjection;
+import org.folio.contract.ContractReader;
+import org.folio.contract.ContractReconciliation;
+import org.folio.contract.ContractSummaryCounters;
+import org.folio.cql2pgjson.exception.FieldException;
+import org.folio.idm.IdmBatchLookup;
+import org.folio.idm.IdmBulkhead;
+import org.folio.idm.IdmCircuitBreaker;
+import org.folio.idm.IdmClient;
+import org.folio.idm.IdmConfig;
+import org.folio.idm.IdmEndpoints;
+import org.folio.idm.IdmHedging;
+import org.folio.idm.IdmMirror;
+import org.folio.idm.IdmRateLimiter;
+import org.folio.idm.IdmRequestCoalescer;
+import org.folio.idm.IdmResponse;
+import org.folio.idm.IdmUnavailableException;
+import org.folio.idm.SearchIdmCache;
+import org.folio.metrics.Metrics;
 import org.folio.rest.jaxrs.model.Contract;
+import org.folio.rest.jaxrs.model.Contract.Status;
 import org.folio.rest.jaxrs.model.Contracts;
+import org.folio.rest.jaxrs.model.IdmStats;
+import org.folio.rest.jaxrs.model.Personal;
+import org.folio.rest.jaxrs.model.SearchidmBatch;
 import org.folio.rest.jaxrs.resource.IdmConnect;
+import org.folio.rest.persist.PgExceptionUtil;
 import org.folio.rest.persist.PgUtil;
+import org.folio.rest.persist.PostgresClient;
+import org.folio.rest.persist.cql.CQLQueryValidationException;
+import org.folio.rest.tools.utils.TenantTool;
+import org.folio.rest.tools.utils.ValidationHelper;
+import org.folio.util.EnvUtils;
 
 public class IdmConnectApi implements IdmConnect {
 
   @Override
   public void getIdmConnectContract(
+      String after,
+      String sortKey,
+      String totalRecords,
+      String fields,
       String query,
       int offset,
       int limit,
       String lang,
+      RoutingContext routingContext,
       Map<String, String> okapiHeaders,
       Handler<AsyncResult<Response>> asyncResultHandler,
       Context vertxContext) {
+    Handler<AsyncResult<Response>> resultHandler =
+        withEtag(
+            routingContext,
+            fields,
+            Metrics.timeEndpoint("GET", BASE_PATH_CONTRACTS, okapiHeaders, asyncResultHandler));
+    ContractProjection projection;
+    try {
+      projection = ContractProjection.parse(fields);
+    } catch (IllegalArgumentException e) {
+      resultHandler.handle(
+          Future.succeededFuture(
+              GetIdmConnectContractResponse.respond400WithTextPlain(e.getMessage())));
+      return;
+    }
+    if (after != null || sortKey != null) {
+      if (offset != 0) {
+        resultHandler.handle(
+            Future.succeededFuture(
+                GetIdmConnectContractResponse.respond400WithTextPlain(MSG_OFFSET_WITH_CURSOR)));
+        return;
+      }
+      String tenantId = TenantTool.tenantId(okapiHeaders);
+      ContractKeysetPage keysetPage =
+          new ContractKeysetPage(
+              PgUtil.postgresClient(vertxContext, okapiHeaders), tenantId, projection);
+      Metrics.timeDb(
+              "keysetPage",
+              tenantId,
+              () -> keysetPage.get(query, sortKey, after, limit, totalRecords))
+          .<Response>map(GetIdmConnectContractResponse::respond200WithApplicationJson)
+          .otherwise(
+              t ->
+                  t instanceof IllegalArgumentException
+                      ? GetIdmConnectContractResponse.respond400WithTextPlain(t.getMessage())
+                      : GetIdmConnectContractResponse.respond500WithTextPlain(t.getMessage()))
+          .onComplete(resultHandler);
+      return;
+    }
+    if (projection != null) {
+      String tenantId = TenantTool.tenantId(okapiHeaders);
+      ContractReader reader =
+          new ContractReader(
+              PgUtil.postgresClient(vertxContext, okapiHeaders), tenantId, projection);
+      Metrics.timeDb(
+              "projectedGet",
+              tenantId,
+              () -> reader.getPage(query, offset, limit, totalRecords))
+          .<Response>map(GetIdmConnectContractResponse::respond200WithApplicationJson)
+          .otherwise(
+              t ->
+                  t instanceof IllegalArgumentException
+                      ? GetIdmConnectContractResponse.respond400WithTextPlain(t.getMessage())
+                      : GetIdmConnectContractResponse.respond500WithTextPlain(t.getMessage()))
+          .onComplete(resultHandler);
+      return;
+    }
+
     PgUtil.get(
         TABLE_NAME_CONTRACTS,
         Contract.class,
@@ -44,32 +174,164 @@ public class IdmConnectApi implements IdmConnect {
         okapiHeaders,
         vertxContext,
         GetIdmConnectContractResponse.class,
-        asyncResultHandler);
+        Metrics.timeDb("PgUtil.get", okapiHeaders, resultHandler));
   }
 
   @Override
   public void postIdmConnectContract(
       String lang,
       Contract entity,
+      RoutingContext routingContext,
       Map<String, String> okapiHeaders,
       Handler<AsyncResult<Response>> asyncResultHandler,
       Context vertxContext) {
-    PgUtil.post(
-        TABLE_NAME_CONTRACTS,
-        entity,
-        okapiHeaders,
-        vertxContext,
-        PostIdmConnectContractResponse.class,
-        asyncResultHandler);
+    Handler<AsyncResult<Response>> resultHandler =
+        Metrics.timeEndpoint("POST", BASE_PATH_CONTRACTS, okapiHeaders, asyncResultHandler);
+    flagConflict(entity, okapiHeaders, vertxContext)
+        .onComplete(
+            v -> {
+              if (entity.getStatus() == Status.CREATED && ContractReconciliation.isEnabled()) {
+                createAndEnqueue(entity, okapiHeaders, resultHandler, vertxContext);
+                return;
+              }
+              PgUtil.post(
+                  TABLE_NAME_CONTRACTS,
+                  entity,
+                  okapiHeaders,
+                  vertxContext,
+                  PostIdmConnectContractResponse.class,
+                  Metrics.timeDb("PgUtil.post", okapiHeaders, resultHandler));
+            });
+  }
+
+  /** Creates a contract with status created and queues it, see ContractReconciliation. */
+  private void createAndEnqueue(
+      Contract entity,
+      Map<String, String> okapiHeaders,
+      Handler<AsyncResult<Response>> resultHandler,
+      Context vertxContext) {
+    Metrics.timeDb(
+            "createAndEnqueue",
+            TenantTool.tenantId(okapiHeaders),
+            () ->
+                ContractReconciliation.create(
+                    PgUtil.postgresClient(vertxContext, okapiHeaders), okapiHeaders, entity))
+        .<Response>map(
+            contract ->
+                PostIdmConnectContractResponse.respond201WithApplicationJson(
+                    contract,
+                    PostIdmConnectContractResponse.headersFor201()
+                        .withLocation(BASE_PATH_CONTRACTS + "/" + contract.getId())))
+        .onSuccess(response -> resultHandler.handle(Future.succeededFuture(response)))
+        .onFailure(t -> ValidationHelper.handleError(t, resultHandler));
+  }
+
+  /**
+   * Sets the status of a new contract to conflict if a contract of a similar person exists, see
+   * CONTRACT_CONFLICT_SCORE. A failed lookup doesn't prevent the contract from being created.
+   */
+  private Future<Void> flagConflict(
+      Contract entity, Map<String, String> okapiHeaders, Context vertxContext) {
+    double conflictScore = EnvUtils.getDouble("CONTRACT_CONFLICT_SCORE", 0);
+    Personal personal = entity.getPersonal();
+    if (conflictScore <= 0
+        || personal == null
+        || (entity.getStatus() != null && entity.getStatus() != Status.CREATED)) {
+      return Future.succeededFuture();
+    }
+    String tenantId = TenantTool.tenantId(okapiHeaders);
+    ContractDuplicates duplicates =
+        new ContractDuplicates(PgUtil.postgresClient(vertxContext, okapiHeaders), tenantId);
+    return Metrics.timeDb(
+            "duplicates",
+            tenantId,
+            () ->
+                duplicates.find(
+                    personal.getFirstName(),
+                    personal.getLastName(),
+                    personal.getDateOfBirth(),
+                    conflictScore,
+                    1))
+        .<Void>map(
+            candidates -> {
+              if (!candidates.getCandidates().isEmpty()) {
+                entity.setStatus(Status.CONFLICT);
+              }
+              return null;
+            })
+        .otherwiseEmpty();
+  }
+
+  @Override
+  public void getIdmConnectContractDuplicates(
+      String firstname,
+      String lastname,
+      String dateOfBirth,
+      double minScore,
+      int limit,
+      Map<String, String> okapiHeaders,
+      Handler<AsyncResult<Response>> asyncResultHandler,
+      Context vertxContext) {
+    String tenantId = TenantTool.tenantId(okapiHeaders);
+    ContractDuplicates duplicates =
+        new ContractDuplicates(PgUtil.postgresClient(vertxContext, okapiHeaders), tenantId);
+    Metrics.timeDb(
+            "duplicates",
+            tenantId,
+            () -> duplicates.find(firstname, lastname, dateOfBirth, minScore, limit))
+        .<Response>map(GetIdmConnectContractDuplicatesResponse::respond200WithApplicationJson)
+        .otherwise(
+            t ->
+                t instanceof IllegalArgumentException
+                    ? GetIdmConnectContractDuplicatesResponse.respond400WithTextPlain(
+                        t.getMessage())
+                    : GetIdmConnectContractDuplicatesResponse.respond500WithTextPlain(
+                        t.getMessage()))
+        .onComplete(
+            Metrics.timeEndpoint(
+                "GET", BASE_PATH_CONTRACTS + "/duplicates", okapiHeaders, asyncResultHandler));
   }
 
   @Override
   public void getIdmConnectContractById(
       String id,
+      String fields,
       String lang,
+      RoutingContext routingContext,
       Map<String, String> okapiHeaders,
       Handler<AsyncResult<Response>> asyncResultHandler,
       Context vertxContext) {
+    Handler<AsyncResult<Response>> resultHandler =
+        withEtag(
+            routingContext,
+            fields,
+            Metrics.timeEndpoint(
+                "GET", BASE_PATH_CONTRACTS + "/{id}", okapiHeaders, asyncResultHandler));
+    ContractProjection projection;
+    try {
+      projection = ContractProjection.parse(fields);
+    } catch (IllegalArgumentException e) {
+      resultHandler.handle(
+          Future.succeededFuture(
+              GetIdmConnectContractByIdResponse.respond400WithTextPlain(e.getMessage())));
+      return;
+    }
+    if (projection != null) {
+      String tenantId = TenantTool.tenantId(okapiHeaders);
+      ContractReader reader =
+          new ContractReader(
+              PgUtil.postgresClient(vertxContext, okapiHeaders), tenantId, projection);
+      Metrics.timeDb("projectedGetById", tenantId, () -> reader.getById(id))
+          .<Response>map(
+              contract ->
+                  contract == null
+                      ? GetIdmConnectContractByIdResponse.respond404WithTextPlain(id)
+                      : GetIdmConnectContractByIdResponse.respond200WithApplicationJson(contract))
+          .otherwise(
+              t -> GetIdmConnectContractByIdResponse.respond500WithTextPlain(t.getMessage()))
+          .onComplete(resultHandler);
+      return;
+    }
     PgUtil.getById(
         TABLE_NAME_CONTRACTS,
         Contract.class,
@@ -77,23 +339,51 @@ public class IdmConnectApi implements IdmConnect {
         okapiHeaders,
         vertxContext,
         GetIdmConnectContractByIdResponse.class,
-        asyncResultHandler);
+        Metrics.timeDb("PgUtil.getById", okapiHeaders, resultHandler));
   }
 
   @Override
   public void deleteIdmConnectContractById(
       String id,
       String lang,
+      RoutingContext routingContext,
       Map<String, String> okapiHeaders,
       Handler<AsyncResult<Response>> asyncResultHandler,
       Context vertxContext) {
+    String ifMatch = routingContext.request().getHeader(HttpHeaders.IF_MATCH);
+    if (ifMatch != null) {
+      Handler<AsyncResult<Response>> resultHandler =
+          Metrics.timeEndpoint(
+              "DELETE", BASE_PATH_CONTRACTS + "/{id}", okapiHeaders, asyncResultHandler);
+      Metrics.timeDb(
+              "conditionalDelete",
+              TenantTool.tenantId(okapiHeaders),
+              () ->
+                  new ContractConditionalWrite(
+                          PgUtil.postgresClient(vertxContext, okapiHeaders), okapiHeaders)
+                      .delete(id, ifMatch))
+          .map(
+              deleted ->
+                  deleted
+                      ? DeleteIdmConnectContractByIdResponse.respond204()
+                      : toPreconditionFailedResponse())
+          .otherwise(
+              t -> DeleteIdmConnectContractByIdResponse.respond500WithTextPlain(t.getMessage()))
+          .onComplete(resultHandler);
+      return;
+    }
+
     PgUtil.deleteById(
         TABLE_NAME_CONTRACTS,
         id,
         okapiHeaders,
         vertxContext,
         DeleteIdmConnectContractByIdResponse.class,
-        asyncResultHandler);
+        Metrics.timeEndpoint(
+            "DELETE",
+            BASE_PATH_CONTRACTS + "/{id}",
+            okapiHeaders,
+            Metrics.timeDb("PgUtil.deleteById", okapiHeaders, asyncResultHandler)));
   }
 
   @Override
@@ -101,9 +391,37 @@ public class IdmConnectApi implements IdmConnect {
       String id,
       String lang,
       Contract entity,
+      RoutingContext routingContext,
       Map<String, String> okapiHeaders,
       Handler<AsyncResult<Response>> asyncResultHandler,
       Context vertxContext) {
+    String ifMatch = routingContext.request().getHeader(HttpHeaders.IF_MATCH);
+    if (ifMatch != null) {
+      Handler<AsyncResult<Response>> resultHandler =
+          Metrics.timeEndpoint(
+              "PUT", BASE_PATH_CONTRACTS + "/{id}", okapiHeaders, asyncResultHandler);
+      Metrics.timeDb(
+              "conditionalPut",
+              TenantTool.tenantId(okapiHeaders),
+              () ->
+                  new ContractConditionalWrite(
+                          PgUtil.postgresClient(vertxContext, okapiHeaders), okapiHeaders)
+                      .put(id, entity, ifMatch))
+          .map(
+              updated ->
+                  updated
+                      ? PutIdmConnectContractByIdResponse.respond204()
+                      : toPreconditionFailedResponse())
+          .otherwise(
+              t ->
+                  PgExceptionUtil.isUniqueViolation(t)
+                      ? PutIdmConnectContractByIdResponse.respond400WithTextPlain(
+                          PgExceptionUtil.getMessage(t))
+                      : PutIdmConnectContractByIdResponse.respond500WithTextPlain(t.getMessage()))
+          .onComplete(resultHandler);
+      return;
+    }
+
     PgUtil.put(
         TABLE_NAME_CONTRACTS,
         entity,
@@ -111,10 +429,201 @@ public class IdmConnectApi implements IdmConnect {
         okapiHeaders,
         vertxContext,
         PutIdmConnectContractByIdResponse.class,
-        asyncResultHandler);
+        Metrics.timeEndpoint(
+            "PUT",
+            BASE_PATH_CONTRACTS + "/{id}",
+            okapiHeaders,
+            Metrics.timeDb("PgUtil.put", okapiHeaders, asyncResultHandler)));
+  }
+
+  @Override
+  public void patchIdmConnectContractById(
+      String id,
+      InputStream entity,
+      RoutingContext routingContext,
+      Map<String, String> okapiHeaders,
+      Handler<AsyncResult<Response>> asyncResultHandler,
+      Context vertxContext) {
+    Handler<AsyncResult<Response>> resultHandler =
+        Metrics.timeEndpoint(
+            "PATCH", BASE_PATH_CONTRACTS + "/{id}", okapiHeaders, asyncResultHandler);
+    JsonObject mergePatch;
+    try {
+      mergePatch = new JsonObject(Buffer.buffer(entity.readAllBytes()));
+    } catch (IOException | DecodeException e) {
+      resultHandler.handle(
+          Future.succeededFuture(
+              PatchIdmConnectContractByIdResponse.respond400WithTextPlain(
+                  MSG_INVALID_MERGE_PATCH + e.getMessage())));
+      return;
+    }
+
+    String ifMatch = routingContext.request().getHeader(HttpHeaders.IF_MATCH);
+    boolean returnMinimal =
+        String.valueOf(routingContext.request().getHeader("Prefer")).contains("return=minimal");
+    Metrics.timeDb(
+            "patch",
+            TenantTool.tenantId(okapiHeaders),
+            () ->
+                new ContractPatch(PgUtil.postgresClient(vertxContext, okapiHeaders), okapiHeaders)
+                    .patch(id, mergePatch, ifMatch))
+        .<Response>map(
+            contract -> {
+              if (contract == null) {
+                return ifMatch == null
+                    ? PatchIdmConnectContractByIdResponse.respond404WithTextPlain(id)
+                    : PatchIdmConnectContractByIdResponse.respond412WithTextPlain(
+                        MSG_PRECONDITION_FAILED);
+              }
+              Response response =
+                  returnMinimal
+                      ? PatchIdmConnectContractByIdResponse.respond204()
+                      : PatchIdmConnectContractByIdResponse.respond200WithApplicationJson(contract);
+              return Response.fromResponse(response)
+                  .header("ETag", ContractEtag.of(contract))
+                  .build();
+            })
+        .otherwise(
+            t ->
+                t instanceof IllegalArgumentException
+                    ? PatchIdmConnectContractByIdResponse.respond422WithTextPlain(t.getMessage())
+                    : PatchIdmConnectContractByIdResponse.respond500WithTextPlain(t.getMessage()))
+        .onComplete(resultHandler);
   }
 
-  private String toBasicIsoDate(String dateString) {
+  @org.folio.rest.annotations.Stream
+  @Override
+  public void postIdmConnectContractImport(
+      Integer chunkSize,
+      InputStream entity,
+      RoutingContext routingContext,
+      Map<String, String> okapiHeaders,
+      Handler<AsyncResult<Response>> asyncResultHandler,
+      Context vertxContext) {
+    String streamId = okapiHeaders.get(STREAM_ID);
+    if (okapiHeaders.containsKey(STREAM_ABORT)) {
+      ContractImport.remove(streamId);
+      Metrics.timeEndpoint(
+              "POST", BASE_PATH_CONTRACTS + "/import", okapiHeaders, asyncResultHandler)
+          .handle(
+          Future.succeededFuture(
+              PostIdmConnectContractImportResponse.respond400WithTextPlain(MSG_IMPORT_ABORTED)));
+      return;
+    }
+
+    ContractImport contractImport = ContractImport.get(streamId);
+    if (contractImport == null) {
+      contractImport =
+          new ContractImport(
+              PgUtil.postgresClient(vertxContext, okapiHeaders),
+              okapiHeaders,
+              chunkSize == null ? EnvUtils.getInt("CONTRACT_IMPORT_CHUNK_SIZE", 500) : chunkSize);
+      ContractImport.put(streamId, contractImport);
+    }
+
+    if (okapiHeaders.containsKey(STREAM_COMPLETE)) {
+      Handler<AsyncResult<Response>> resultHandler =
+          Metrics.timeEndpoint(
+              "POST",
+              BASE_PATH_CONTRACTS + "/import",
+              okapiHeaders,
+              contractImport.getStartNanos(),
+              asyncResultHandler);
+      ContractImport.remove(streamId)
+          .end()
+          .<Response>map(PostIdmConnectContractImportResponse::respond200WithApplicationJson)
+          .otherwise(
+              t -> PostIdmConnectContractImportResponse.respond500WithTextPlain(t.getMessage()))
+          .onComplete(resultHandler);
+      return;
+    }
+
+    try {
+      contractImport.handle(Buffer.buffer(entity.readAllBytes()));
+    } catch (IOException e) {
+      ContractImport.remove(streamId);
+      Metrics.timeEndpoint(
+              "POST",
+              BASE_PATH_CONTRACTS + "/import",
+              okapiHeaders,
+              contractImport.getStartNanos(),
+              asyncResultHandler)
+          .handle(
+          Future.succeededFuture(
+              PostIdmConnectContractImportResponse.respond500WithTextPlain(e.getMessage())));
+      return;
+    }
+    // stop reading the upload while a batch is inserted, so that Postgres sets the pace
+    Future<Void> drained = contractImport.drain();
+    if (!drained.isComplete()) {
+      HttpServerRequest request = routingContext.request();
+      request.pause();
+      drained.onComplete(v -> request.resume());
+    }
+  }
+
+  @Override
+  public void getIdmConnectContractExport(
+      String query,
+      String format,
+      String fields,
+      RoutingContext routingContext,
+      Map<String, String> okapiHeaders,
+      Handler<AsyncResult<Response>> asyncResultHandler,
+      Context vertxContext) {
+    Metrics.timeEndpoint("GET", BASE_PATH_CONTRACTS + "/export", okapiHeaders, routingContext);
+    ContractExport contractExport = new ContractExport(format, fields);
+    if (!contractExport.isValidFormat()) {
+      asyncResultHandler.handle(
+          Future.succeededFuture(
+              GetIdmConnectContractExportResponse.respond400WithTextPlain(
+                  String.format(MSG_INVALID_EXPORT_FORMAT, format))));
+      return;
+    }
+
+    Metrics.timeDb(
+            "export",
+            TenantTool.tenantId(okapiHeaders),
+            () ->
+                contractExport.start(
+                    PgUtil.postgresClient(vertxContext, okapiHeaders),
+                    query,
+                    routingContext.response()))
+        .onFailure(
+            t -> {
+              boolean invalidQuery =
+                  t instanceof FieldException
+                      || t instanceof CQLQueryValidationException
+                      || t.getCause() instanceof CQLQueryValidationException;
+              asyncResultHandler.handle(
+                  Future.succeededFuture(
+                      invalidQuery
+                          ? GetIdmConnectContractExportResponse.respond400WithTextPlain(
+                              t.getMessage())
+                          : GetIdmConnectContractExportResponse.respond500WithTextPlain(
+                              t.getMessage())));
+            });
+  }
+
+  @Override
+  public void getIdmConnectContractSummary(
+      boolean includeMonths,
+      Map<String, String> okapiHeaders,
+      Handler<AsyncResult<Response>> asyncResultHandler,
+      Context vertxContext) {
+    String tenantId = TenantTool.tenantId(okapiHeaders);
+    ContractSummaryCounters counters =
+        new ContractSummaryCounters(PgUtil.postgresClient(vertxContext, okapiHeaders), tenantId);
+    Metrics.timeDb("summary", tenantId, () -> counters.get(includeMonths))
+        .<Response>map(GetIdmConnectContractSummaryResponse::respond200WithApplicationJson)
+        .otherwise(
+            t -> GetIdmConnectContractSummaryResponse.respond500WithTextPlain(t.getMessage()))
+        .onComplete(
+            Metrics.timeEndpoint(
+                "GET", BASE_PATH_CONTRACTS + "/summary", okapiHeaders, asyncResultHandler));
+  }
+
+  String toBasicIsoDate(String dateString) {
     try {
       return LocalDate.parse(dateString).format(DateTimeFormatter.BASIC_ISO_DATE);
     } catch (NullPointerException | DateTimeException e) {
@@ -122,26 +631,88 @@ public class IdmConnectApi implements IdmConnect {
     }
   }
 
-  private Response toResponse(HttpResponse<Buffer> bufferHttpResponse) {
+  Response toResponse(IdmResponse idmResponse, String cacheStatus) {
     ResponseBuilder responseBuilder =
-        Response.status(bufferHttpResponse.statusCode())
-            .header("Content-Type", bufferHttpResponse.getHeader("Content-Type"))
-            .entity(bufferHttpResponse.bodyAsString());
+        Response.status(idmResponse.getStatusCode())
+            .header("Content-Type", idmResponse.getContentType())
+            .header(HEADER_CACHE_STATUS, cacheStatus)
+            .entity(idmResponse.bodyAsString());
     return responseBuilder.build();
   }
 
-  private HttpRequest<Buffer> createIdmRequest(
-      WebClient webClient,
-      String idmUrl,
-      String idmToken,
-      String firstname,
-      String lastname,
-      String dateOfBirth) {
-    HttpRequest<Buffer> bufferHttpRequest = webClient.getAbs(idmUrl);
-    if (idmToken != null) {
-      bufferHttpRequest.putHeader("Authorization", idmToken);
+  /**
+   * Adds the ETag header to successful responses with a contract or contract collection, and
+   * replaces them by 304 Not Modified if the tag matches If-None-Match. Responses projected to
+   * {@code fields} get weak tags that differ from those of the full contracts.
+   */
+  private Handler<AsyncResult<Response>> withEtag(
+      RoutingContext routingContext,
+      String fields,
+      Handler<AsyncResult<Response>> asyncResultHandler) {
+    return ar -> {
+      if (ar.failed() || ar.result().getStatus() != 200) {
+        asyncResultHandler.handle(ar);
+        return;
+      }
+      Object entity = ar.result().getEntity();
+      // fields has been validated when the response is 200
+      ContractProjection projection = ContractProjection.parse(fields);
+      String etag;
+      if (entity instanceof Contract) {
+        etag = ContractEtag.of((Contract) entity, projection);
+      } else if (entity instanceof Contracts) {
+        etag = ContractEtag.of((Contracts) entity, projection);
+      } else {
+        asyncResultHandler.handle(ar);
+        return;
+      }
+      String ifNoneMatch = routingContext.request().getHeader(HttpHeaders.IF_NONE_MATCH);
+      if (ContractEtag.matchesIfNoneMatch(ifNoneMatch, etag)) {
+        asyncResultHandler.handle(
+            Future.succeededFuture(Response.notModified().header("ETag", etag).build()));
+        return;
+      }
+      asyncResultHandler.handle(
+          Future.succeededFuture(Response.fromResponse(ar.result()).header("ETag", etag).build()));
+    };
+  }
+
+  private Response toPreconditionFailedResponse() {
+    return Response.status(412)
+        .header("Content-Type", MediaType.TEXT_PLAIN)
+        .entity(MSG_PRECONDITION_FAILED)
+        .build();
+  }
+
+  /** Takes a token of the IDM rate limit, returns a 429 response if there is none, else null. */
+  private Response checkRateLimit(String tenantId, String userId) {
+    long waitNanos = IdmRateLimiter.getInstance().tryAcquire(tenantId, userId);
+    if (waitNanos <= 0) {
+      return null;
     }
+    return Response.status(429)
+        .header("Content-Type", MediaType.TEXT_PLAIN)
+        .header("Retry-After", IdmRateLimiter.toRetryAfterSeconds(waitNanos))
+        .entity(MSG_RATE_LIMITED)
+        .build();
+  }
+
+  private Future<Response> toUnavailableResponse(Throwable throwable) {
+    if (throwable instanceof IdmUnavailableException) {
+      return Future.succeededFuture(
+          Response.status(503)
+              .header("Content-Type", MediaType.TEXT_PLAIN)
+              .header(
+                  "Retry-After", ((IdmUnavailableException) throwable).getRetryAfterSeconds())
+              .entity(throwable.getMessage())
+              .build());
+    }
+    return Future.failedFuture(throwable);
+  }
 
+  Map<String, String> createIdmQueryParams(
+      String firstname, String lastname, String dateOfBirth) {
+    Map<String, String> queryParams = new LinkedHashMap<>();
     Stream.of(
             new String[] {"givenname", firstname},
             new String[] {"surname", lastname},
@@ -149,10 +720,241 @@ public class IdmConnectApi implements IdmConnect {
         .forEach(
             a -> {
               if (a[1] != null) {
-                bufferHttpRequest.addQueryParam(a[0], a[1]);
+                queryParams.put(a[0], a[1]);
               }
             });
-    return bufferHttpRequest;
+    return queryParams;
+  }
+
+  /** Requests of different tenants are never coalesced, even with the same IDM and token. */
+  static String createCoalescingKey(
+      String tenantId, String idmUrl, String idmToken, Map<String, String> queryParams) {
+    return String.join("\n", tenantId, idmUrl, String.valueOf(idmToken), queryParams.toString());
+  }
+
+  private Future<IdmResponse> sendIdmRequest(
+      IdmClient idmClient,
+      IdmConfig idmConfig,
+      Map<String, String> queryParams,
+      String tenantId,
+      Context vertxContext) {
+    Supplier<Future<IdmResponse>> call =
+        () ->
+            IdmHedging.getInstance()
+                .execute(
+                    vertxContext.owner(),
+                    cancel ->
+                        IdmEndpoints.getInstance()
+                            .execute(
+                                idmUrl ->
+                                    idmClient.fetch(
+                                        createIdmRequestOptions(
+                                            idmUrl, idmConfig.getToken(), queryParams),
+                                        cancel),
+                                IdmResponse::getStatusCode,
+                                idmResponse -> Future.succeededFuture()));
+    return IdmBulkhead.getInstance()
+        .execute(
+            tenantId,
+            () ->
+                IdmCircuitBreaker.getInstance()
+                    .execute(
+                        () -> Metrics.timeIdm(tenantId, IdmResponse::getStatusCode, call),
+                        idmResponse -> idmResponse.getStatusCode() >= 500));
+  }
+
+  RequestOptions createIdmRequestOptions(
+      String idmUrl, String idmToken, Map<String, String> queryParams) {
+    QueryStringEncoder queryStringEncoder = new QueryStringEncoder(idmUrl);
+    queryParams.forEach(queryStringEncoder::addParam);
+    RequestOptions requestOptions =
+        new RequestOptions()
+            .setMethod(HttpMethod.GET)
+            .setAbsoluteURI(queryStringEncoder.toString());
+    if (idmToken != null) {
+      requestOptions.putHeader("Authorization", idmToken);
+    }
+    return requestOptions;
+  }
+
+  private void streamIdmResponse(
+      IdmConfig idmConfig,
+      Map<String, String> queryParams,
+      String tenantId,
+      RoutingContext routingContext,
+      Handler<AsyncResult<Response>> asyncResultHandler,
+      Context vertxContext) {
+    IdmClient idmClient = IdmClient.get(vertxContext);
+    Supplier<Future<HttpClientResponse>> call =
+        () ->
+            IdmEndpoints.getInstance()
+                .execute(
+                    idmUrl ->
+                        idmClient.stream(
+                            createIdmRequestOptions(idmUrl, idmConfig.getToken(), queryParams)),
+                    HttpClientResponse::statusCode,
+                    idmResponse -> idmResponse.body().mapEmpty());
+    HttpServerResponse response = routingContext.response();
+    IdmBulkhead.getInstance()
+        .execute(
+            tenantId,
+            () ->
+                IdmCircuitBreaker.getInstance()
+                    .execute(
+                        () ->
+                            Metrics.timeIdm(
+                                tenantId,
+                                HttpClientResponse::statusCode,
+                                () ->
+                                    call.get()
+                                        .compose(idmResponse -> pipe(idmResponse, response))),
+                        idmResponse -> idmResponse.statusCode() >= 500))
+        .onFailure(
+            t -> {
+              if (!response.headWritten()) {
+                toUnavailableResponse(t).onComplete(asyncResultHandler);
+              } else if (!response.ended()) {
+                response.reset();
+              }
+            });
+  }
+
+  /**
+   * Pipes the IDM response to the client. Completes when the body has been piped, so that the
+   * bulkhead permit is held and the circuit breaker is told the outcome only then. The client
+   * closing the connection is not an IDM failure.
+   */
+  private static Future<HttpClientResponse> pipe(
+      HttpClientResponse idmResponse, HttpServerResponse response) {
+    response.setStatusCode(idmResponse.statusCode());
+    String contentType = idmResponse.getHeader(HttpHeaders.CONTENT_TYPE);
+    if (contentType != null) {
+      response.putHeader(HttpHeaders.CONTENT_TYPE, contentType);
+    }
+    String contentLength = idmResponse.getHeader(HttpHeaders.CONTENT_LENGTH);
+    if (contentLength != null) {
+      response.putHeader(HttpHeaders.CONTENT_LENGTH, contentLength);
+    } else {
+      response.setChunked(true);
+    }
+    response.putHeader(HEADER_CACHE_STATUS, CACHE_STATUS_BYPASS);
+    AtomicBoolean clientClosed = new AtomicBoolean();
+    response.closeHandler(
+        v -> {
+          clientClosed.set(true);
+          idmResponse.request().reset();
+        });
+    return idmResponse
+        .pipeTo(response)
+        .recover(t -> clientClosed.get() ? Future.succeededFuture() : Future.failedFuture(t))
+        .map(idmResponse);
+  }
+
+  /** Completes with null if the mirror is disabled, can't answer or fails. */
+  private Future<Response> searchIdmMirror(
+      String tenantId,
+      String firstname,
+      String lastname,
+      String dateOfBirth,
+      Context vertxContext) {
+    if (!IdmMirror.isEnabled()) {
+      return Future.succeededFuture();
+    }
+    return IdmMirror.fromEnv(PostgresClient.getInstance(vertxContext.owner(), tenantId), tenantId)
+        .search(firstname, lastname, toBasicIsoDate(dateOfBirth))
+        .map(
+            hit ->
+                hit == null
+                    ? null
+                    : Response.fromResponse(toResponse(hit.getIdmResponse(), CACHE_STATUS_MIRROR))
+                        .header("Age", hit.getAgeSeconds())
+                        .build())
+        .otherwiseEmpty();
+  }
+
+  private Future<Response> searchIdm(
+      IdmConfig idmConfig,
+      String tenantId,
+      String firstname,
+      String lastname,
+      String dateOfBirth,
+      Context vertxContext) {
+    return searchIdmMirror(tenantId, firstname, lastname, dateOfBirth, vertxContext)
+        .compose(
+            mirrorResponse -> {
+              if (mirrorResponse != null) {
+                return Future.succeededFuture(mirrorResponse);
+              }
+              return searchIdmLive(
+                  idmConfig, tenantId, firstname, lastname, dateOfBirth, vertxContext);
+            });
+  }
+
+  private Future<Response> searchIdmLive(
+      IdmConfig idmConfig,
+      String tenantId,
+      String firstname,
+      String lastname,
+      String dateOfBirth,
+      Context vertxContext) {
+    SearchIdmCache cache = SearchIdmCache.getInstance();
+    SearchIdmCache.Key cacheKey =
+        SearchIdmCache.Key.of(tenantId, firstname, lastname, toBasicIsoDate(dateOfBirth));
+    IdmResponse cached = cache.get(cacheKey);
+    if (cached != null) {
+      return Future.succeededFuture(
+          toResponse(cached, CACHE_STATUS_HIT + "; ttl=" + cache.getRemainingTtlSeconds(cacheKey)));
+    }
+
+    IdmClient idmClient = IdmClient.get(vertxContext);
+    Map<String, String> queryParams = createIdmQueryParams(firstname, lastname, dateOfBirth);
+    IdmRequestCoalescer coalescer = IdmRequestCoalescer.get(vertxContext);
+    String coalescingKey =
+        createCoalescingKey(tenantId, idmConfig.getUrl(), idmConfig.getToken(), queryParams);
+    boolean collapsed = coalescer.isInFlight(coalescingKey);
+    return coalescer
+        .execute(
+            coalescingKey,
+            () -> sendIdmRequest(idmClient, idmConfig, queryParams, tenantId, vertxContext))
+        .map(
+            idmResponse -> {
+              if (!cache.isEnabled()) {
+                return toResponse(idmResponse, CACHE_STATUS_BYPASS);
+              }
+              if (collapsed) {
+                return toResponse(idmResponse, CACHE_STATUS_MISS + "; collapsed");
+              }
+              boolean stored = cache.put(cacheKey, idmResponse);
+              return toResponse(
+                  idmResponse, stored ? CACHE_STATUS_MISS + "; stored" : CACHE_STATUS_MISS);
+            })
+        .recover(this::toUnavailableResponse);
+  }
+
+  /**
+   * IDM search for the person of a contract, used by the contract reconciliation. Fails with an
+   * {@link IdmUnavailableException} if the rate limit has no token left.
+   */
+  Future<Response> searchIdm(String tenantId, Personal personal, Context vertxContext) {
+    IdmConfig idmConfig = IdmEndpoints.getInstance().getConfig();
+    if (idmConfig.getUrls().isEmpty()) {
+      return Future.failedFuture(
+          new IllegalStateException(
+              idmConfig.getUrl() == null ? MSG_IDM_URL_NOT_SET : MSG_IDM_URL_INVALID));
+    }
+    long waitNanos = IdmRateLimiter.getInstance().tryAcquire(tenantId, null);
+    if (waitNanos > 0) {
+      return Future.failedFuture(
+          new IdmUnavailableException(
+              MSG_RATE_LIMITED, IdmRateLimiter.toRetryAfterSeconds(waitNanos)));
+    }
+    return searchIdm(
+        idmConfig,
+        tenantId,
+        personal.getFirstName(),
+        personal.getLastName(),
+        personal.getDateOfBirth(),
+        vertxContext);
   }
 
   @Override
@@ -160,28 +962,175 @@ public class IdmConnectApi implements IdmConnect {
       String firstname,
       String lastname,
       String dateOfBirth,
+      RoutingContext routingContext,
       Map<String, String> okapiHeaders,
       Handler<AsyncResult<Response>> asyncResultHandler,
       Context vertxContext) {
-    String idmUrl = System.getenv("IDM_URL");
-    String idmToken = System.getenv("IDM_TOKEN");
+    Metrics.timeEndpoint("GET", BASE_PATH_SEARCHIDM, okapiHeaders, routingContext);
+    IdmConfig idmConfig = IdmEndpoints.getInstance().getConfig();
 
-    if (idmUrl == null) {
+    if (idmConfig.getUrl() == null) {
       asyncResultHandler.handle(
           Future.succeededFuture(
               GetIdmConnectSearchidmResponse.respond500WithTextPlain(MSG_IDM_URL_NOT_SET)));
       return;
     }
+    if (idmConfig.getUrls().isEmpty()) {
+      asyncResultHandler.handle(
+          Future.succeededFuture(
+              Response.status(400)
+                  .header("Content-Type", MediaType.TEXT_PLAIN)
+                  .entity(MSG_IDM_URL_INVALID)
+                  .build()));
+      return;
+    }
+
+    String tenantId = TenantTool.tenantId(okapiHeaders);
+    Response rateLimited = checkRateLimit(tenantId, okapiHeaders.get(OKAPI_USERID_HEADER));
+    if (rateLimited != null) {
+      asyncResultHandler.handle(Future.succeededFuture(rateLimited));
+      return;
+    }
+    if (Boolean.parseBoolean(System.getenv("IDM_STREAMING"))) {
+      searchIdmMirror(tenantId, firstname, lastname, dateOfBirth, vertxContext)
+          .onSuccess(
+              mirrorResponse -> {
+                if (mirrorResponse != null) {
+                  asyncResultHandler.handle(Future.succeededFuture(mirrorResponse));
+                  return;
+                }
+                streamIdmResponse(
+                    idmConfig,
+                    createIdmQueryParams(firstname, lastname, dateOfBirth),
+                    tenantId,
+                    routingContext,
+                    asyncResultHandler,
+                    vertxContext);
+              });
+      return;
+    }
 
-    createIdmRequest(
-            WebClient.create(vertxContext.owner()),
-            idmUrl,
-            idmToken,
-            firstname,
-            lastname,
-            dateOfBirth)
-        .send()
-        .map(this::toResponse)
+    searchIdm(idmConfig, tenantId, firstname, lastname, dateOfBirth, vertxContext)
         .onComplete(asyncResultHandler);
   }
+
+  @Override
+  public void postIdmConnectSearchidmBatch(
+      Integer concurrency,
+      SearchidmBatch entity,
+      RoutingContext routingContext,
+      Map<String, String> okapiHeaders,
+      Handler<AsyncResult<Response>> asyncResultHandler,
+      Context vertxContext) {
+    Metrics.timeEndpoint("POST", BASE_PATH_SEARCHIDM + "/batch", okapiHeaders, routingContext);
+    IdmConfig idmConfig = IdmEndpoints.getInstance().getConfig();
+
+    if (idmConfig.getUrl() == null) {
+      asyncResultHandler.handle(
+          Future.succeededFuture(
+              PostIdmConnectSearchidmBatchResponse.respond500WithTextPlain(MSG_IDM_URL_NOT_SET)));
+      return;
+    }
+    if (idmConfig.getUrls().isEmpty()) {
+      asyncResultHandler.handle(
+          Future.succeededFuture(
+              PostIdmConnectSearchidmBatchResponse.respond400WithTextPlain(MSG_IDM_URL_INVALID)));
+      return;
+    }
+
+    int maxSize = EnvUtils.getInt("IDM_BATCH_MAX_SIZE", 5000);
+    if (entity.getLookups().size() > maxSize) {
+      asyncResultHandler.handle(
+          Future.succeededFuture(
+              PostIdmConnectSearchidmBatchResponse.respond413WithTextPlain(
+                  String.format(MSG_BATCH_TOO_LARGE, maxSize))));
+      return;
+    }
+
+    String tenantId = TenantTool.tenantId(okapiHeaders);
+    String userId = okapiHeaders.get(OKAPI_USERID_HEADER);
+    int maxConcurrency = IdmBulkhead.getInstance().getMaxConcurrentCalls();
+    int effectiveConcurrency =
+        Math.min(
+            concurrency == null ? EnvUtils.getInt("IDM_BATCH_CONCURRENCY", 4) : concurrency,
+            maxConcurrency);
+    // a batch that can't start now fails as a whole, once started the rate limit paces it
+    Response rateLimited = checkRateLimit(tenantId, userId);
+    if (rateLimited != null) {
+      asyncResultHandler.handle(Future.succeededFuture(rateLimited));
+      return;
+    }
+    AtomicBoolean firstToken = new AtomicBoolean(true);
+    new IdmBatchLookup(
+            vertxContext.owner(),
+            entity.getLookups(),
+            effectiveConcurrency,
+            () ->
+                firstToken.getAndSet(false)
+                    ? 0
+                    : IdmRateLimiter.getInstance().tryAcquire(tenantId, userId),
+            lookup ->
+                searchIdm(
+                    idmConfig,
+                    tenantId,
+                    lookup.getFirstname(),
+                    lookup.getLastname(),
+                    lookup.getDateOfBirth(),
+                    vertxContext),
+            routingContext.response())
+        .start();
+  }
+
+  @Override
+  public void deleteIdmConnectSearchidmCache(
+      String firstname,
+      String lastname,
+      String dateOfBirth,
+      Map<String, String> okapiHeaders,
+      Handler<AsyncResult<Response>> asyncResultHandler,
+      Context vertxContext) {
+    String tenantId = TenantTool.tenantId(okapiHeaders);
+    if (firstname == null && lastname == null && dateOfBirth == null) {
+      SearchIdmCache.getInstance().invalidateTenant(tenantId);
+    } else {
+      SearchIdmCache.getInstance()
+          .invalidate(
+              SearchIdmCache.Key.of(tenantId, firstname, lastname, toBasicIsoDate(dateOfBirth)));
+    }
+    Metrics.timeEndpoint("DELETE", BASE_PATH_SEARCHIDM + "/cache", okapiHeaders, asyncResultHandler)
+        .handle(Future.succeededFuture(DeleteIdmConnectSearchidmCacheResponse.respond204()));
+  }
+
+  @Override
+  public void getIdmConnectSearchidmStats(
+      Map<String, String> okapiHeaders,
+      Handler<AsyncResult<Response>> asyncResultHandler,
+      Context vertxContext) {
+    IdmStats idmStats =
+        new IdmStats()
+            .withClientPool(IdmClient.get(vertxContext).getStats())
+            .withResultCache(SearchIdmCache.getInstance().getStats())
+            .withCoalescing(IdmRequestCoalescer.get(vertxContext).getStats())
+            .withCircuitBreaker(IdmCircuitBreaker.getInstance().getStats())
+            .withBulkhead(IdmBulkhead.getInstance().getStats(TenantTool.tenantId(okapiHeaders)))
+            .withRateLimit(
+                IdmRateLimiter.getInstance().getStats(TenantTool.tenantId(okapiHeaders)))
+            .withHedging(IdmHedging.getInstance().getStats())
+            .withEndpoints(IdmEndpoints.getInstance().getStats());
+    Metrics.timeEndpoint("GET", BASE_PATH_SEARCHIDM + "/stats", okapiHeaders, asyncResultHandler)
+        .handle(
+            Future.succeededFuture(
+                GetIdmConnectSearchidmStatsResponse.respond200WithApplicationJson(idmStats)));
+  }
+
+  @Override
+  public void getIdmConnectMetrics(
+      Map<String, String> okapiHeaders,
+      Handler<AsyncResult<Response>> asyncResultHandler,
+      Context vertxContext) {
+    asyncResultHandler.handle(
+        Future.succeededFuture(
+            GetIdmConnectMetricsResponse.respond200WithTextPlain(
+                Metrics.scrape(TenantTool.tenantId(okapiHeaders)))));
+  }
 }
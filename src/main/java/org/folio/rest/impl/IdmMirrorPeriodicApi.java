@@ -0,0 +1,23 @@
+package org.folio.rest.impl;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import org.folio.idm.IdmMirror;
+import org.folio.idm.IdmMirrorSync;
+import org.folio.rest.resource.interfaces.PeriodicAPI;
+import org.folio.util.EnvUtils;
+
+public class IdmMirrorPeriodicApi implements PeriodicAPI {
+
+  @Override
+  public long runEvery() {
+    return EnvUtils.getLong("IDM_MIRROR_INTERVAL", 900) * 1000;
+  }
+
+  @Override
+  public void run(Vertx vertx, Context context) {
+    if (IdmMirror.isEnabled()) {
+      context.runOnContext(v -> IdmMirrorSync.fromEnv(context).run());
+    }
+  }
+}
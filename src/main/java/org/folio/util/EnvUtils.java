@@ -0,0 +1,81 @@
+package org.folio.util;
+
+import java.util.function.UnaryOperator;
+
+public class EnvUtils {
+
+  private EnvUtils() {}
+
+  public static String getString(String name, String defaultValue) {
+    return getString(System::getenv, name, defaultValue);
+  }
+
+  public static int getInt(String name, int defaultValue) {
+    return getInt(System::getenv, name, defaultValue);
+  }
+
+  public static long getLong(String name, long defaultValue) {
+    return getLong(System::getenv, name, defaultValue);
+  }
+
+  public static double getDouble(String name, double defaultValue) {
+    return getDouble(System::getenv, name, defaultValue);
+  }
+
+  public static boolean getBoolean(String name, boolean defaultValue) {
+    return getBoolean(System::getenv, name, defaultValue);
+  }
+
+  /** Like {@link #getString(String, String)} with the variables taken from {@code variables}. */
+  public static String getString(
+      UnaryOperator<String> variables, String name, String defaultValue) {
+    String value = variables.apply(name);
+    return value == null || value.isBlank() ? defaultValue : value;
+  }
+
+  public static int getInt(UnaryOperator<String> variables, String name, int defaultValue) {
+    String value = variables.apply(name);
+    if (value == null || value.isBlank()) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  public static long getLong(UnaryOperator<String> variables, String name, long defaultValue) {
+    String value = variables.apply(name);
+    if (value == null || value.isBlank()) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  public static double getDouble(
+      UnaryOperator<String> variables, String name, double defaultValue) {
+    String value = variables.apply(name);
+    if (value == null || value.isBlank()) {
+      return defaultValue;
+    }
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  public static boolean getBoolean(
+      UnaryOperator<String> variables, String name, boolean defaultValue) {
+    String value = variables.apply(name);
+    if (value == null || value.isBlank()) {
+      return defaultValue;
+    }
+    return Boolean.parseBoolean(value.trim());
+  }
+}
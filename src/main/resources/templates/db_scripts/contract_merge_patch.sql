@@ -0,0 +1,27 @@
+-- JSON Merge Patch (RFC 7396) of a jsonb value, used by PATCH /idm-connect/contract/{id} to apply
+-- a patch in the UPDATE statement itself. Members of the patch replace the members of the target,
+-- objects are merged recursively and null removes a member.
+
+CREATE OR REPLACE FUNCTION ${myuniversity}_${mymodule}.jsonb_merge_patch(target jsonb, patch jsonb)
+RETURNS jsonb AS $$
+BEGIN
+  IF jsonb_typeof(patch) IS DISTINCT FROM 'object' THEN
+    RETURN patch;
+  END IF;
+  IF jsonb_typeof(target) IS DISTINCT FROM 'object' THEN
+    target := '{}'::jsonb;
+  END IF;
+  RETURN (
+    SELECT coalesce(jsonb_object_agg(key, value), '{}'::jsonb)
+    FROM (
+      SELECT coalesce(t.key, p.key) AS key,
+             CASE WHEN p.key IS NULL THEN t.value
+                  ELSE ${myuniversity}_${mymodule}.jsonb_merge_patch(t.value, p.value)
+             END AS value
+      FROM jsonb_each(target) t
+      FULL JOIN jsonb_each(patch) p ON p.key = t.key
+      WHERE p.value IS DISTINCT FROM 'null'::jsonb
+    ) merged
+  );
+END;
+$$ LANGUAGE plpgsql IMMUTABLE;
@@ -0,0 +1,16 @@
+-- Work queue of the IDM reconciliation of new contracts, see ContractReconciliation. A job is
+-- ready when run_at has passed; claiming a job moves run_at by the lease time so that the job of a
+-- crashed worker becomes ready again. Failed jobs are retried with backoff, jobs that can't succeed
+-- keep run_at = 'infinity' and their last_error.
+
+CREATE TABLE IF NOT EXISTS ${myuniversity}_${mymodule}.contract_reconciliation (
+  id uuid PRIMARY KEY
+    REFERENCES ${myuniversity}_${mymodule}.contract (id) ON DELETE CASCADE,
+  attempts int NOT NULL DEFAULT 0,
+  run_at timestamptz NOT NULL DEFAULT now(),
+  last_error text,
+  created_at timestamptz NOT NULL DEFAULT now()
+);
+
+CREATE INDEX IF NOT EXISTS contract_reconciliation_run_at_idx
+  ON ${myuniversity}_${mymodule}.contract_reconciliation (run_at);
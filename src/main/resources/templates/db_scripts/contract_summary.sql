@@ -0,0 +1,121 @@
+-- Counters of contracts by status and by status and begin/end month (YYYY-MM), maintained by
+-- triggers on the contract table. The triggers only insert delta rows, one per key and statement,
+-- so concurrent writers never wait for each other on a shared counter row; readers sum the deltas
+-- and contract_summary_compact() periodically merges them. The script is idempotent and rebuilds
+-- the counters on every install and upgrade.
+
+CREATE TABLE IF NOT EXISTS ${myuniversity}_${mymodule}.contract_summary (
+  kind text NOT NULL,
+  status text NOT NULL,
+  month text NOT NULL,
+  count bigint NOT NULL
+);
+
+ALTER TABLE ${myuniversity}_${mymodule}.contract_summary
+  DROP CONSTRAINT IF EXISTS contract_summary_pkey;
+CREATE INDEX IF NOT EXISTS contract_summary_key_idx
+  ON ${myuniversity}_${mymodule}.contract_summary (kind, status, month);
+
+DROP FUNCTION IF EXISTS ${myuniversity}_${mymodule}.contract_summary_add(jsonb, int);
+
+CREATE OR REPLACE FUNCTION ${myuniversity}_${mymodule}.contract_summary_keys(rec jsonb, delta int)
+RETURNS TABLE (kind text, status text, month text, count bigint) AS $$
+  VALUES
+    ('status', coalesce(rec->>'status', ''), '', delta::bigint),
+    ('beginMonth', coalesce(rec->>'status', ''), coalesce(left(rec->>'beginDate', 7), ''),
+        delta::bigint),
+    ('endMonth', coalesce(rec->>'status', ''), coalesce(left(rec->>'endDate', 7), ''),
+        delta::bigint);
+$$ LANGUAGE sql IMMUTABLE;
+
+CREATE OR REPLACE FUNCTION ${myuniversity}_${mymodule}.contract_summary_trigger()
+RETURNS trigger AS $$
+BEGIN
+  IF TG_OP = 'TRUNCATE' THEN
+    DELETE FROM ${myuniversity}_${mymodule}.contract_summary;
+  ELSIF TG_OP = 'INSERT' THEN
+    INSERT INTO ${myuniversity}_${mymodule}.contract_summary (kind, status, month, count)
+      SELECT k.kind, k.status, k.month, sum(k.count)
+        FROM new_rows n, ${myuniversity}_${mymodule}.contract_summary_keys(n.jsonb, 1) k
+        GROUP BY 1, 2, 3;
+  ELSIF TG_OP = 'DELETE' THEN
+    INSERT INTO ${myuniversity}_${mymodule}.contract_summary (kind, status, month, count)
+      SELECT k.kind, k.status, k.month, sum(k.count)
+        FROM old_rows o, ${myuniversity}_${mymodule}.contract_summary_keys(o.jsonb, -1) k
+        GROUP BY 1, 2, 3;
+  ELSE
+    -- updates that don't change status or dates cancel out and insert nothing
+    INSERT INTO ${myuniversity}_${mymodule}.contract_summary (kind, status, month, count)
+      SELECT d.kind, d.status, d.month, sum(d.count)
+        FROM (
+          SELECT k.*
+            FROM old_rows o, ${myuniversity}_${mymodule}.contract_summary_keys(o.jsonb, -1) k
+          UNION ALL
+          SELECT k.*
+            FROM new_rows n, ${myuniversity}_${mymodule}.contract_summary_keys(n.jsonb, 1) k
+        ) d
+        GROUP BY 1, 2, 3
+        HAVING sum(d.count) <> 0;
+  END IF;
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Merges the delta rows into one row per key. Rows inserted by transactions that commit later
+-- are not visible to the DELETE and stay untouched.
+CREATE OR REPLACE FUNCTION ${myuniversity}_${mymodule}.contract_summary_compact()
+RETURNS bigint AS $$
+  WITH deleted AS (
+    DELETE FROM ${myuniversity}_${mymodule}.contract_summary
+      RETURNING kind, status, month, count
+  ), inserted AS (
+    INSERT INTO ${myuniversity}_${mymodule}.contract_summary (kind, status, month, count)
+      SELECT kind, status, month, sum(count) FROM deleted GROUP BY 1, 2, 3 HAVING sum(count) <> 0
+      RETURNING 1
+  )
+  SELECT (SELECT count(*) FROM deleted) - (SELECT count(*) FROM inserted);
+$$ LANGUAGE sql;
+
+DROP TRIGGER IF EXISTS contract_summary ON ${myuniversity}_${mymodule}.contract;
+
+DROP TRIGGER IF EXISTS contract_summary_insert ON ${myuniversity}_${mymodule}.contract;
+CREATE TRIGGER contract_summary_insert
+  AFTER INSERT ON ${myuniversity}_${mymodule}.contract
+  REFERENCING NEW TABLE AS new_rows
+  FOR EACH STATEMENT EXECUTE PROCEDURE ${myuniversity}_${mymodule}.contract_summary_trigger();
+
+DROP TRIGGER IF EXISTS contract_summary_update ON ${myuniversity}_${mymodule}.contract;
+CREATE TRIGGER contract_summary_update
+  AFTER UPDATE ON ${myuniversity}_${mymodule}.contract
+  REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+  FOR EACH STATEMENT EXECUTE PROCEDURE ${myuniversity}_${mymodule}.contract_summary_trigger();
+
+DROP TRIGGER IF EXISTS contract_summary_delete ON ${myuniversity}_${mymodule}.contract;
+CREATE TRIGGER contract_summary_delete
+  AFTER DELETE ON ${myuniversity}_${mymodule}.contract
+  REFERENCING OLD TABLE AS old_rows
+  FOR EACH STATEMENT EXECUTE PROCEDURE ${myuniversity}_${mymodule}.contract_summary_trigger();
+
+DROP TRIGGER IF EXISTS contract_summary_truncate ON ${myuniversity}_${mymodule}.contract;
+CREATE TRIGGER contract_summary_truncate
+  AFTER TRUNCATE ON ${myuniversity}_${mymodule}.contract
+  FOR EACH STATEMENT EXECUTE PROCEDURE ${myuniversity}_${mymodule}.contract_summary_trigger();
+
+DO $$
+BEGIN
+  -- block writes while the counters are rebuilt
+  LOCK TABLE ${myuniversity}_${mymodule}.contract IN SHARE MODE;
+  DELETE FROM ${myuniversity}_${mymodule}.contract_summary;
+  INSERT INTO ${myuniversity}_${mymodule}.contract_summary (kind, status, month, count)
+    SELECT 'status', coalesce(jsonb->>'status', ''), '', count(*)
+      FROM ${myuniversity}_${mymodule}.contract GROUP BY 2
+    UNION ALL
+    SELECT 'beginMonth', coalesce(jsonb->>'status', ''), coalesce(left(jsonb->>'beginDate', 7), ''),
+        count(*)
+      FROM ${myuniversity}_${mymodule}.contract GROUP BY 2, 3
+    UNION ALL
+    SELECT 'endMonth', coalesce(jsonb->>'status', ''), coalesce(left(jsonb->>'endDate', 7), ''),
+        count(*)
+      FROM ${myuniversity}_${mymodule}.contract GROUP BY 2, 3;
+END;
+$$;
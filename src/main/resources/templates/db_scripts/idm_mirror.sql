@@ -0,0 +1,31 @@
+-- Local copy of the IDM directory, filled by the periodic mirror sync and used by
+-- GET /idm-connect/searchidm if IDM_MIRROR_ENABLED is set. synced_at is the start of the sync run
+-- that last received the record, idm_mirror_state has a single row with the start of the last
+-- full and of the last successful sync run.
+
+CREATE TABLE IF NOT EXISTS ${myuniversity}_${mymodule}.idm_mirror (
+  key text PRIMARY KEY,
+  givenname text,
+  surname text,
+  date_of_birth text,
+  record jsonb NOT NULL,
+  synced_at timestamptz NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idm_mirror_surname_givenname_date_of_birth_idx
+  ON ${myuniversity}_${mymodule}.idm_mirror (lower(surname), lower(givenname), date_of_birth);
+
+CREATE INDEX IF NOT EXISTS idm_mirror_givenname_idx
+  ON ${myuniversity}_${mymodule}.idm_mirror (lower(givenname));
+
+CREATE INDEX IF NOT EXISTS idm_mirror_date_of_birth_idx
+  ON ${myuniversity}_${mymodule}.idm_mirror (date_of_birth);
+
+CREATE INDEX IF NOT EXISTS idm_mirror_synced_at_idx
+  ON ${myuniversity}_${mymodule}.idm_mirror (synced_at);
+
+CREATE TABLE IF NOT EXISTS ${myuniversity}_${mymodule}.idm_mirror_state (
+  id int PRIMARY KEY CHECK (id = 1),
+  last_full_sync timestamptz,
+  last_sync timestamptz
+);
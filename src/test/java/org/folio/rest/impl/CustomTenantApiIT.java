@@ -11,6 +11,7 @@ import io.restassured.builder.RequestSpecBuilder;
 import io.restassured.parsing.Parser;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
@@ -25,6 +26,7 @@ import javax.ws.rs.core.Response;
 import org.folio.postgres.testing.PostgresTesterContainer;
 import org.folio.rest.RestVerticle;
 import org.folio.rest.jaxrs.model.Contract;
+import org.folio.rest.jaxrs.model.ContractSummary;
 import org.folio.rest.jaxrs.model.Contracts;
 import org.folio.rest.jaxrs.model.Parameter;
 import org.folio.rest.jaxrs.model.TenantAttributes;
@@ -146,4 +148,118 @@ public class CustomTenantApiIT {
                     }))
         .onComplete(context.asyncAssertSuccess());
   }
+
+  @Test
+  public void testWithLoadSyntheticAttribute(TestContext context) {
+    Promise<AsyncResult<Response>> promise = Promise.promise();
+    new CustomTenantApi()
+        .postTenantSync(
+            new TenantAttributes()
+                .withModuleTo(ModuleName.getModuleVersion())
+                .withParameters(
+                    List.of(
+                        new Parameter().withKey("loadSample").withValue("true"),
+                        new Parameter().withKey("loadSynthetic").withValue("1234"))),
+            OKAPI_HEADERS,
+            promise::complete,
+            vertx.getOrCreateContext());
+
+    promise
+        .future()
+        .onSuccess(
+            resp ->
+                context.verify(
+                    v -> {
+                      assertThat(
+                              given()
+                                  .get("/summary")
+                                  .then()
+                                  .statusCode(200)
+                                  .extract()
+                                  .as(ContractSummary.class)
+                                  .getTotalRecords())
+                          .isEqualTo(20 + 1234);
+                      Contracts synthetic =
+                          given()
+                              .queryParam("query", "libraryCard==(S00000001 or S00001234)")
+                              .get()
+                              .then()
+                              .extract()
+                              .as(Contracts.class);
+                      assertThat(synthetic.getContracts())
+                          .extracting(Contract::getLibraryCard)
+                          .containsExactlyInAnyOrder("S00000001", "S00001234");
+                    }))
+        .onComplete(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void testLoadSyntheticWithSampleAndAgain(TestContext context) {
+    // the sample contracts contain libraryCard 00149822
+    int count = 150000;
+    postTenant(
+            null,
+            List.of(
+                new Parameter().withKey("loadSample").withValue("true"),
+                new Parameter().withKey("loadSynthetic").withValue(String.valueOf(count))))
+        // loading again, e.g. on upgrade, adds new contracts
+        .compose(
+            v ->
+                postTenant(
+                    ModuleName.getModuleVersion(),
+                    List.of(new Parameter().withKey("loadSynthetic").withValue("10"))))
+        .onSuccess(
+            v ->
+                context.verify(
+                    v2 -> {
+                      assertThat(
+                              given()
+                                  .get("/summary")
+                                  .then()
+                                  .statusCode(200)
+                                  .extract()
+                                  .as(ContractSummary.class)
+                                  .getTotalRecords())
+                          .isEqualTo(20 + count + 10);
+                      Contracts contracts =
+                          given()
+                              .queryParam(
+                                  "query", "libraryCard==(00149822 or S00149822 or S00150010)")
+                              .get()
+                              .then()
+                              .statusCode(200)
+                              .extract()
+                              .as(Contracts.class);
+                      assertThat(contracts.getContracts())
+                          .extracting(Contract::getLibraryCard)
+                          .containsExactlyInAnyOrder("00149822", "S00149822", "S00150010");
+                    }))
+        .onComplete(context.asyncAssertSuccess());
+  }
+
+  private Future<Void> postTenant(String moduleFrom, List<Parameter> parameters) {
+    Promise<AsyncResult<Response>> promise = Promise.promise();
+    new CustomTenantApi()
+        .postTenantSync(
+            new TenantAttributes()
+                .withModuleFrom(moduleFrom)
+                .withModuleTo(ModuleName.getModuleVersion())
+                .withParameters(parameters),
+            OKAPI_HEADERS,
+            promise::complete,
+            vertx.getOrCreateContext());
+    return promise
+        .future()
+        .compose(
+            ar -> {
+              if (ar.failed()) {
+                return Future.failedFuture(ar.cause());
+              }
+              if (ar.result().getStatus() >= 300) {
+                return Future.failedFuture(
+                    "Tenant init failed: " + ar.result().getStatus() + ar.result().getEntity());
+              }
+              return Future.succeededFuture();
+            });
+  }
 }
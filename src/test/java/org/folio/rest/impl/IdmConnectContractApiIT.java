@@ -4,36 +4,71 @@ import static io.restassured.RestAssured.given;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.data.Index.atIndex;
 import static org.folio.rest.impl.Constants.BASE_PATH_CONTRACTS;
+import static org.folio.rest.impl.Constants.TABLE_NAME_CONTRACTS;
+import static org.folio.rest.impl.Constants.TABLE_NAME_CONTRACT_RECONCILIATION;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
 
 import com.google.common.io.Resources;
 import io.restassured.RestAssured;
 import io.restassured.builder.RequestSpecBuilder;
 import io.restassured.parsing.Parser;
+import io.restassured.specification.RequestSpecification;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.Tuple;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.ws.rs.core.Response;
+import org.folio.contract.ContractExpiry;
+import org.folio.contract.ContractReconciliation;
+import org.folio.contract.ContractSummaryCounters;
+import org.folio.cql2pgjson.CQL2PgJSON;
+import org.folio.cql2pgjson.exception.QueryValidationException;
+import org.folio.idm.IdmUnavailableException;
+import org.folio.metrics.Metrics;
 import org.folio.postgres.testing.PostgresTesterContainer;
 import org.folio.rest.RestVerticle;
 import org.folio.rest.jaxrs.model.Contract;
 import org.folio.rest.jaxrs.model.Contract.Status;
+import org.folio.rest.jaxrs.model.ContractImportReport;
+import org.folio.rest.jaxrs.model.ContractSummary;
 import org.folio.rest.jaxrs.model.Contracts;
+import org.folio.rest.jaxrs.model.DuplicateCandidate;
+import org.folio.rest.jaxrs.model.DuplicateCandidates;
+import org.folio.rest.jaxrs.model.ImportError;
+import org.folio.rest.jaxrs.model.StatusCount;
 import org.folio.rest.jaxrs.model.TenantAttributes;
 import org.folio.rest.persist.PostgresClient;
 import org.folio.rest.tools.utils.ModuleName;
 import org.folio.rest.tools.utils.NetworkUtils;
+import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import uk.org.webcompere.systemstubs.rules.EnvironmentVariablesRule;
 
 @RunWith(VertxUnitRunner.class)
 public class IdmConnectContractApiIT {
@@ -43,9 +78,13 @@ public class IdmConnectContractApiIT {
   private static final Map<String, String> OKAPI_HEADERS = Map.of("x-okapi-tenant", TENANT);
   private static final String CONTRACT_JSON = "examplecontract.json";
   private static final Vertx vertx = Vertx.vertx();
+  private static String contractJson;
+
+  @Rule public EnvironmentVariablesRule envs = new EnvironmentVariablesRule();
 
   @BeforeClass
-  public static void beforeClass(TestContext context) {
+  public static void beforeClass(TestContext context) throws IOException {
+    contractJson = Resources.toString(Resources.getResource(CONTRACT_JSON), StandardCharsets.UTF_8);
     int port = NetworkUtils.nextFreePort();
     RestAssured.reset();
     RestAssured.baseURI = HOST;
@@ -63,7 +102,27 @@ public class IdmConnectContractApiIT {
     DeploymentOptions options =
         new DeploymentOptions().setConfig(new JsonObject().put("http.port", port));
 
-    vertx.deployVerticle(RestVerticle.class.getName(), options, context.asyncAssertSuccess());
+    vertx
+        .deployVerticle(RestVerticle.class.getName(), options)
+        .compose(
+            x -> {
+              Promise<AsyncResult<Response>> promise = Promise.promise();
+              new CustomTenantApi()
+                  .postTenantSync(
+                      new TenantAttributes().withModuleTo(ModuleName.getModuleVersion()),
+                      OKAPI_HEADERS,
+                      promise::complete,
+                      vertx.getOrCreateContext());
+              return promise.future();
+            })
+        .onComplete(context.asyncAssertSuccess());
+  }
+
+  @After
+  public void after(TestContext context) {
+    String table = PostgresClient.convertToPsqlStandard(TENANT) + "." + TABLE_NAME_CONTRACTS;
+    PostgresClient.getInstance(vertx, TENANT)
+        .execute("DELETE FROM " + table, context.asyncAssertSuccess());
   }
 
   @AfterClass
@@ -72,19 +131,8 @@ public class IdmConnectContractApiIT {
   }
 
   @Test
-  public void testThatWeCanGetPostPutAndDelete(TestContext context) throws IOException {
-    Promise<AsyncResult<Response>> promise = Promise.promise();
-    new CustomTenantApi()
-        .postTenantSync(
-            new TenantAttributes().withModuleTo(ModuleName.getModuleVersion()),
-            OKAPI_HEADERS,
-            promise::complete,
-            vertx.getOrCreateContext());
-    promise.future().onComplete(context.asyncAssertSuccess());
-
-    String jsonStr =
-        Resources.toString(Resources.getResource(CONTRACT_JSON), StandardCharsets.UTF_8);
-    Contract expectedContract = Json.decodeValue(jsonStr, Contract.class);
+  public void testThatWeCanGetPostPutAndDelete(TestContext context) {
+    Contract expectedContract = exampleContract().mapTo(Contract.class);
 
     // POST
     Contract postResult =
@@ -164,4 +212,930 @@ public class IdmConnectContractApiIT {
     // GET by id
     given().pathParam("id", postResult.getId()).get("/{id}").then().statusCode(404);
   }
+
+  @Test
+  public void testEtag(TestContext context) {
+    Contract contract = postContract(UnaryOperator.identity());
+    String id = contract.getId();
+
+    String etag =
+        given().pathParam("id", id).get("/{id}").then().statusCode(200).extract().header("ETag");
+    assertThat(etag).startsWith("\"").endsWith("\"");
+    given()
+        .pathParam("id", id)
+        .header("If-None-Match", "\"other\", W/" + etag)
+        .get("/{id}")
+        .then()
+        .statusCode(304)
+        .header("ETag", etag);
+    given()
+        .pathParam("id", id)
+        .header("If-None-Match", "\"other\"")
+        .get("/{id}")
+        .then()
+        .statusCode(200)
+        .header("ETag", etag);
+
+    String query = "id==" + id;
+    String listEtag =
+        given().queryParam("query", query).get().then().statusCode(200).extract().header("ETag");
+    given()
+        .queryParam("query", query)
+        .header("If-None-Match", listEtag)
+        .get()
+        .then()
+        .statusCode(304);
+
+    // PUT with outdated or weak tag fails, with current tag succeeds
+    given()
+        .pathParam("id", id)
+        .header("If-Match", "\"outdated\"")
+        .body(contract.withStatus(Status.ACTIVATED))
+        .put("/{id}")
+        .then()
+        .statusCode(412);
+    given()
+        .pathParam("id", id)
+        .header("If-Match", "W/" + etag)
+        .body(contract.withStatus(Status.ACTIVATED))
+        .put("/{id}")
+        .then()
+        .statusCode(412);
+    given()
+        .pathParam("id", id)
+        .header("If-Match", etag)
+        .body(contract.withStatus(Status.ACTIVATED))
+        .put("/{id}")
+        .then()
+        .statusCode(204);
+
+    String newEtag =
+        given()
+            .pathParam("id", id)
+            .header("If-None-Match", etag)
+            .get("/{id}")
+            .then()
+            .statusCode(200)
+            .extract()
+            .header("ETag");
+    assertThat(newEtag).isNotEqualTo(etag);
+    given()
+        .queryParam("query", query)
+        .header("If-None-Match", listEtag)
+        .get()
+        .then()
+        .statusCode(200)
+        .header("ETag", not(listEtag));
+
+    // DELETE with the old tag fails, with the current tag succeeds
+    given().pathParam("id", id).header("If-Match", etag).delete("/{id}").then().statusCode(412);
+    given().pathParam("id", id).header("If-Match", newEtag).delete("/{id}").then().statusCode(204);
+    given().pathParam("id", id).header("If-Match", "*").delete("/{id}").then().statusCode(412);
+    given().pathParam("id", id).get("/{id}").then().statusCode(404);
+  }
+
+  @Test
+  public void testPatch(TestContext context) {
+    Contract contract = postContract(UnaryOperator.identity());
+    String id = contract.getId();
+
+    JsonObject patch =
+        new JsonObject()
+            .put("id", UUID.randomUUID().toString())
+            .put("status", "activated")
+            .putNull("comment")
+            .put("personal", new JsonObject().put("email", "patched@example.com"));
+    io.restassured.response.Response response =
+        given()
+            .pathParam("id", id)
+            .contentType("application/merge-patch+json")
+            .body(patch.encode())
+            .patch("/{id}")
+            .then()
+            .statusCode(200)
+            .extract()
+            .response();
+    Contract patched = response.as(Contract.class);
+    assertThat(patched.getId()).isEqualTo(id);
+    assertThat(patched.getStatus()).isEqualTo(Status.ACTIVATED);
+    assertThat(patched.getComment()).isNull();
+    assertThat(patched.getPersonal().getEmail()).isEqualTo("patched@example.com");
+    assertThat(patched.getPersonal().getLastName())
+        .isEqualTo(contract.getPersonal().getLastName());
+    assertThat(patched.getMetadata().getCreatedDate())
+        .isEqualTo(contract.getMetadata().getCreatedDate());
+    assertThat(patched.getMetadata().getUpdatedDate())
+        .isAfter(contract.getMetadata().getUpdatedDate());
+    assertThat(given().pathParam("id", id).get("/{id}").then().extract().as(Contract.class))
+        .usingRecursiveComparison()
+        .isEqualTo(patched);
+
+    // If-Match and Prefer return=minimal
+    String etag = response.header("ETag");
+    given()
+        .pathParam("id", id)
+        .contentType("application/merge-patch+json")
+        .header("If-Match", "\"outdated\"")
+        .body("{\"status\":\"pending\"}")
+        .patch("/{id}")
+        .then()
+        .statusCode(412);
+    given()
+        .pathParam("id", id)
+        .contentType("application/merge-patch+json")
+        .header("If-Match", etag)
+        .header("Prefer", "return=minimal")
+        .body("{\"status\":\"pending\"}")
+        .patch("/{id}")
+        .then()
+        .statusCode(204)
+        .header("ETag", not(etag));
+    // the old tag, and a tag with the current date but of another contract, don't match
+    String current = given().pathParam("id", id).get("/{id}").then().extract().header("ETag");
+    String otherContract = current.replaceFirst("-[^\"]*", "-0123456789abcdef");
+    for (String stale : List.of(etag, otherContract)) {
+      given()
+          .pathParam("id", id)
+          .contentType("application/merge-patch+json")
+          .header("If-Match", stale)
+          .body("{\"status\":\"activated\"}")
+          .patch("/{id}")
+          .then()
+          .statusCode(412);
+    }
+
+    // invalid patches leave the contract unchanged
+    given()
+        .pathParam("id", id)
+        .contentType("application/merge-patch+json")
+        .body("{\"status\":\"unknown\"}")
+        .patch("/{id}")
+        .then()
+        .statusCode(422);
+    given()
+        .pathParam("id", id)
+        .contentType("application/merge-patch+json")
+        .body("{\"personal\":{\"lastName\":null}}")
+        .patch("/{id}")
+        .then()
+        .statusCode(422);
+    given()
+        .pathParam("id", id)
+        .contentType("application/merge-patch+json")
+        .body("[]")
+        .patch("/{id}")
+        .then()
+        .statusCode(400);
+    Contract unchanged =
+        given().pathParam("id", id).get("/{id}").then().extract().as(Contract.class);
+    assertThat(unchanged.getStatus()).isEqualTo(Status.PENDING);
+
+    given()
+        .pathParam("id", UUID.randomUUID().toString())
+        .contentType("application/merge-patch+json")
+        .body("{}")
+        .patch("/{id}")
+        .then()
+        .statusCode(404);
+    given().pathParam("id", id).delete("/{id}").then().statusCode(204);
+  }
+
+  @Test
+  public void testDuplicates(TestContext context) {
+    List<String> ids =
+        Stream.of(
+                List.of("Wendelin", "Quasthoff", "1987-03-09"),
+                List.of("Wendelina", "Quasthoff", "1990-01-01"),
+                List.of("Zacharias", "Blumenthal", "1987-03-10"))
+            .map(
+                person ->
+                    postContract(withPerson(person.get(0), person.get(1), person.get(2))).getId())
+            .collect(Collectors.toList());
+
+    // typo in the last name, date of birth in another format
+    DuplicateCandidates candidates =
+        getDuplicates(
+            Map.of(
+                "firstname",
+                "Wendelin",
+                "lastname",
+                "Quasthof",
+                "dateOfBirth",
+                "09.03.1987",
+                "minScore",
+                "0.4"));
+    assertThat(candidates.getCandidates())
+        .extracting(c -> c.getContract().getId())
+        .containsExactly(ids.get(0), ids.get(1));
+    assertThat(candidates.getCandidates().get(0).getScore()).isGreaterThan(0.9);
+    assertThat(candidates.getTotalRecords()).isEqualTo(2);
+
+    // swapped names, day and month swapped
+    candidates =
+        getDuplicates(
+            Map.of("firstname", "Quasthoff", "lastname", "Wendelin", "dateOfBirth", "1987-09-03"));
+    assertThat(candidates.getCandidates())
+        .extracting(DuplicateCandidate::getScore)
+        .first()
+        .isEqualTo(1.0);
+    assertThat(candidates.getCandidates().get(0).getContract().getId()).isEqualTo(ids.get(0));
+
+    given().get("/duplicates").then().statusCode(400);
+
+    // POST flags the status conflict
+    envs.set("CONTRACT_CONFLICT_SCORE", "0.9");
+    Contract posted =
+        postContract(
+            contract ->
+                withPerson("Wendelin", "Quasthoff", "1987-03-09")
+                    .apply(contract)
+                    .put("status", Status.CREATED.value()));
+    assertThat(posted.getStatus()).isEqualTo(Status.CONFLICT);
+    posted =
+        postContract(
+            contract ->
+                withPerson("Ottilie", "Rabenstein", "1970-07-07")
+                    .apply(contract)
+                    .put("status", Status.CREATED.value()));
+    assertThat(posted.getStatus()).isEqualTo(Status.CREATED);
+  }
+
+  private static DuplicateCandidates getDuplicates(Map<String, String> queryParams) {
+    return given()
+        .queryParams(queryParams)
+        .get("/duplicates")
+        .then()
+        .statusCode(200)
+        .extract()
+        .as(DuplicateCandidates.class);
+  }
+
+  @Test
+  public void testImport(TestContext context) {
+    List<String> ids =
+        List.of(
+            UUID.randomUUID().toString(),
+            UUID.randomUUID().toString(),
+            UUID.randomUUID().toString());
+    String ndjson =
+        Stream.of(
+                withUniqueIdentifiers(exampleContract()).put("id", ids.get(0)).encode(),
+                withUniqueIdentifiers(exampleContract()).put("id", ids.get(1)).encode(),
+                "42",
+                withUniqueIdentifiers(exampleContract()).put("id", ids.get(2)).encode(),
+                exampleContract().put("personal", new JsonObject()).encode())
+            .collect(Collectors.joining("\n"));
+
+    ContractImportReport report =
+        given()
+            .contentType("application/octet-stream")
+            .body(ndjson)
+            .queryParam("chunkSize", 2)
+            .post("/import")
+            .then()
+            .statusCode(200)
+            .extract()
+            .as(ContractImportReport.class);
+    assertThat(report.getProcessed()).isEqualTo(5);
+    assertThat(report.getImported()).isEqualTo(3);
+    assertThat(report.getFailed()).isEqualTo(2);
+    assertThat(report.getImportErrors()).extracting(ImportError::getIndex).containsExactly(2, 4);
+
+    ids.forEach(id -> given().pathParam("id", id).get("/{id}").then().statusCode(200));
+
+    // a duplicate libraryCard in the middle of a batch fails only that contract
+    JsonObject duplicate = withUniqueIdentifiers(exampleContract());
+    String libraryCard = duplicate.getString("libraryCard");
+    List<JsonObject> contracts =
+        List.of(
+            withUniqueIdentifiers(exampleContract()),
+            duplicate,
+            withUniqueIdentifiers(exampleContract()).put("libraryCard", libraryCard),
+            withUniqueIdentifiers(exampleContract()));
+    report =
+        given()
+            .contentType("application/octet-stream")
+            .body(contracts.stream().map(JsonObject::encode).collect(Collectors.joining("\n")))
+            .queryParam("chunkSize", 4)
+            .post("/import")
+            .then()
+            .statusCode(200)
+            .extract()
+            .as(ContractImportReport.class);
+    assertThat(report.getImported()).isEqualTo(3);
+    assertThat(report.getFailed()).isEqualTo(1);
+    assertThat(report.getImportErrors()).extracting(ImportError::getIndex).containsExactly(2);
+    assertThat(
+            given()
+                .queryParam("query", "libraryCard==" + libraryCard)
+                .get()
+                .then()
+                .statusCode(200)
+                .extract()
+                .as(Contracts.class)
+                .getTotalRecords())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testExport(TestContext context) {
+    List<String> ids =
+        Stream.of("Export, Alpha", "Exportbeta")
+            .map(lastName -> postContract(withLastName(lastName)).getId())
+            .collect(Collectors.toList());
+    String query = "personal.lastName=Export* sortBy personal.lastName";
+
+    String ndjson =
+        given()
+            .queryParam("query", query)
+            .get("/export")
+            .then()
+            .statusCode(200)
+            .contentType("application/x-ndjson")
+            .extract()
+            .asString();
+    assertThat(ndjson.split("\n"))
+        .extracting(line -> Json.decodeValue(line, Contract.class).getId())
+        .containsExactly(ids.get(0), ids.get(1));
+
+    String csv =
+        given()
+            .queryParam("query", query)
+            .queryParam("format", "csv")
+            .queryParam("fields", "personal.lastName,status,personal.unknown")
+            .get("/export")
+            .then()
+            .statusCode(200)
+            .contentType("text/csv")
+            .extract()
+            .asString();
+    assertThat(csv)
+        .isEqualTo(
+            "personal.lastName,status,personal.unknown\r\n"
+                + "\"Export, Alpha\",pending,\r\n"
+                + "Exportbeta,pending,\r\n");
+
+    given().queryParam("format", "xml").get("/export").then().statusCode(400);
+    given().queryParam("query", "personal.lastName=").get("/export").then().statusCode(400);
+
+  }
+
+  @Test
+  public void testCursorPagination(TestContext context) {
+    List<String> ids =
+        Stream.of("Cursora", "Cursorb", "Cursorc")
+            .map(lastName -> postContract(withLastName(lastName)).getId())
+            .collect(Collectors.toList());
+    String query = "personal.lastName=Cursor*";
+
+    Contracts firstPage =
+        given()
+            .queryParam("query", query)
+            .queryParam("sortKey", "lastName")
+            .queryParam("limit", 2)
+            .get()
+            .then()
+            .statusCode(200)
+            .extract()
+            .as(Contracts.class);
+    assertThat(firstPage.getContracts())
+        .extracting(Contract::getId)
+        .containsExactly(ids.get(0), ids.get(1));
+    assertThat(firstPage.getTotalRecords()).isEqualTo(3);
+    assertThat(firstPage.getNextCursor()).isNotNull();
+
+    Contracts secondPage =
+        given()
+            .queryParam("query", query)
+            .queryParam("after", firstPage.getNextCursor())
+            .queryParam("limit", 2)
+            .queryParam("totalRecords", "none")
+            .get()
+            .then()
+            .statusCode(200)
+            .extract()
+            .as(Contracts.class);
+    assertThat(secondPage.getContracts()).extracting(Contract::getId).containsExactly(ids.get(2));
+    assertThat(secondPage.getTotalRecords()).isNull();
+    assertThat(secondPage.getNextCursor()).isNull();
+
+    given().queryParam("sortKey", "id").queryParam("offset", 1).get().then().statusCode(400);
+    given().queryParam("sortKey", "unknown").get().then().statusCode(400);
+    given().queryParam("after", "invalid").get().then().statusCode(400);
+    given()
+        .queryParam("query", query + " sortBy personal.lastName")
+        .queryParam("sortKey", "id")
+        .get()
+        .then()
+        .statusCode(400);
+
+    // a contract without a last name sorts first and is not skipped
+    String withoutName =
+        postContract(
+                contract -> {
+                  contract.remove("personal");
+                  return contract.put("comment", "Cursornull");
+                })
+            .getId();
+    String withName =
+        postContract(
+                contract -> withLastName("Cursord").apply(contract).put("comment", "Cursornull"))
+            .getId();
+    firstPage = getPage("comment==Cursornull", null, 1);
+    assertThat(firstPage.getContracts()).extracting(Contract::getId).containsExactly(withoutName);
+    byte[] cursor = Base64.getUrlDecoder().decode(firstPage.getNextCursor());
+    assertThat(new JsonArray(new String(cursor, StandardCharsets.UTF_8)).getString(1)).isEmpty();
+    secondPage = getPage("comment==Cursornull", firstPage.getNextCursor(), 1);
+    assertThat(secondPage.getContracts()).extracting(Contract::getId).containsExactly(withName);
+  }
+
+  private static Contracts getPage(String query, String after, int limit) {
+    RequestSpecification request =
+        given()
+            .queryParam("query", query)
+            .queryParam("sortKey", "lastName")
+            .queryParam("limit", limit)
+            .queryParam("totalRecords", "none");
+    if (after != null) {
+      request.queryParam("after", after);
+    }
+    return request
+        .get()
+        .then()
+        .statusCode(200)
+        .extract()
+        .as(Contracts.class);
+  }
+
+  @Test
+  public void testFields(TestContext context) {
+    List<String> ids =
+        Stream.of("Fieldsa", "Fieldsb")
+            .map(lastName -> postContract(withLastName(lastName)).getId())
+            .collect(Collectors.toList());
+    String query = "personal.lastName=Fields* sortBy personal.lastName";
+    String fields = "personal.lastName, status,personal.unknown,unknown.field";
+    JsonObject expected =
+        new JsonObject()
+            .put("id", ids.get(0))
+            .put("status", "pending")
+            .put("personal", new JsonObject().put("lastName", "Fieldsa"));
+
+    JsonObject page =
+        new JsonObject(
+            given()
+                .queryParam("query", query)
+                .queryParam("fields", fields)
+                .get()
+                .then()
+                .statusCode(200)
+                .extract()
+                .asString());
+    assertThat(page.getJsonArray("contracts")).hasSize(2).first().isEqualTo(expected);
+    assertThat(page.getJsonArray("contracts").getJsonObject(1).getJsonObject("personal"))
+        .isEqualTo(new JsonObject().put("lastName", "Fieldsb"));
+    assertThat(page.getInteger("totalRecords")).isEqualTo(2);
+
+    JsonObject keysetPage =
+        new JsonObject(
+            given()
+                .queryParam("query", "personal.lastName=Fields*")
+                .queryParam("sortKey", "lastName")
+                .queryParam("limit", 1)
+                .queryParam("fields", fields)
+                .get()
+                .then()
+                .statusCode(200)
+                .extract()
+                .asString());
+    assertThat(keysetPage.getJsonArray("contracts")).containsExactly(expected);
+    assertThat(keysetPage.getString("nextCursor")).isNotNull();
+
+    JsonObject byId =
+        new JsonObject(
+            given()
+                .pathParam("id", ids.get(0))
+                .queryParam("fields", "personal,status")
+                .get("/{id}")
+                .then()
+                .statusCode(200)
+                .extract()
+                .asString());
+    assertThat(byId.fieldNames()).containsExactlyInAnyOrder("id", "personal", "status");
+    assertThat(byId.getJsonObject("personal").getString("lastName")).isEqualTo("Fieldsa");
+    assertThat(byId.getJsonObject("personal").fieldNames())
+        .isEqualTo(exampleContract().getJsonObject("personal").fieldNames());
+
+    given().queryParam("fields", "personal.lastName,").get().then().statusCode(400);
+    given().queryParam("fields", "personal'").get().then().statusCode(400);
+    given()
+        .pathParam("id", ids.get(0))
+        .queryParam("fields", "jsonb->>'id'")
+        .get("/{id}")
+        .then()
+        .statusCode(400);
+    given()
+        .pathParam("id", UUID.randomUUID().toString())
+        .queryParam("fields", "status")
+        .get("/{id}")
+        .then()
+        .statusCode(404);
+
+  }
+
+  @Test
+  public void testFieldsEtag(TestContext context) {
+    Contract contract = postContract(UnaryOperator.identity());
+    String id = contract.getId();
+    String etag =
+        given().pathParam("id", id).get("/{id}").then().statusCode(200).extract().header("ETag");
+
+    // id and updatedDate are all the full tag depends on, the projected tag must still differ
+    String fields = "metadata.updatedDate,status";
+    String projectedEtag =
+        given()
+            .pathParam("id", id)
+            .queryParam("fields", fields)
+            .header("If-None-Match", etag)
+            .get("/{id}")
+            .then()
+            .statusCode(200)
+            .extract()
+            .header("ETag");
+    assertThat(projectedEtag).startsWith("W/\"").isNotEqualTo("W/" + etag);
+    given()
+        .pathParam("id", id)
+        .queryParam("fields", "status, metadata.updatedDate,status")
+        .header("If-None-Match", projectedEtag)
+        .get("/{id}")
+        .then()
+        .statusCode(304)
+        .header("ETag", projectedEtag);
+    given()
+        .pathParam("id", id)
+        .header("If-None-Match", projectedEtag)
+        .get("/{id}")
+        .then()
+        .statusCode(200)
+        .header("ETag", etag);
+
+    String query = "id==" + id;
+    String listEtag =
+        given().queryParam("query", query).get().then().statusCode(200).extract().header("ETag");
+    given()
+        .queryParam("query", query)
+        .queryParam("fields", fields)
+        .header("If-None-Match", listEtag)
+        .get()
+        .then()
+        .statusCode(200)
+        .header("ETag", startsWith("W/"));
+
+    // a projected tag doesn't satisfy If-Match
+    given()
+        .pathParam("id", id)
+        .header("If-Match", projectedEtag)
+        .body(contract.withStatus(Status.ACTIVATED))
+        .put("/{id}")
+        .then()
+        .statusCode(412);
+    given()
+        .pathParam("id", id)
+        .header("If-Match", projectedEtag)
+        .delete("/{id}")
+        .then()
+        .statusCode(412);
+    given().pathParam("id", id).header("If-Match", etag).delete("/{id}").then().statusCode(204);
+  }
+
+  @Test
+  public void testSummary(TestContext context) throws Exception {
+    ContractSummary before = getSummary();
+
+    List<Contract> contracts =
+        Stream.of(1, 2)
+            .map(i -> postContract(UnaryOperator.identity()))
+            .collect(Collectors.toList());
+    given()
+        .pathParam("id", contracts.get(0).getId())
+        .body(contracts.get(0).withStatus(Status.ACTIVATED))
+        .put("/{id}")
+        .then()
+        .statusCode(204);
+
+    ContractSummary after = getSummary();
+    assertThat(after.getTotalRecords()).isEqualTo(before.getTotalRecords() + 2);
+    assertThat(getCount(after.getByStatus(), "pending", null))
+        .isEqualTo(getCount(before.getByStatus(), "pending", null) + 1);
+    assertThat(getCount(after.getByStatus(), "activated", null))
+        .isEqualTo(getCount(before.getByStatus(), "activated", null) + 1);
+    assertThat(getCount(after.getByBeginMonth(), "activated", "2015-10"))
+        .isEqualTo(getCount(before.getByBeginMonth(), "activated", "2015-10") + 1);
+    assertThat(getCount(after.getByEndMonth(), "pending", "2017-10"))
+        .isEqualTo(getCount(before.getByEndMonth(), "pending", "2017-10") + 1);
+
+    // merging the delta rows keeps the counts
+    Long removed =
+        ContractSummaryCounters.compact(vertx)
+            .toCompletionStage()
+            .toCompletableFuture()
+            .get(60, TimeUnit.SECONDS);
+    assertThat(removed).isPositive();
+    assertThat(getSummary()).usingRecursiveComparison().isEqualTo(after);
+
+    contracts.forEach(
+        contract ->
+            given().pathParam("id", contract.getId()).delete("/{id}").then().statusCode(204));
+    assertThat(getSummary()).usingRecursiveComparison().isEqualTo(before);
+  }
+
+  private static ContractSummary getSummary() {
+    return given()
+        .queryParam("includeMonths", true)
+        .get("/summary")
+        .then()
+        .statusCode(200)
+        .extract()
+        .as(ContractSummary.class);
+  }
+
+  private static int getCount(List<StatusCount> statusCounts, String status, String month) {
+    return statusCounts.stream()
+        .filter(sc -> sc.getStatus().equals(status))
+        .filter(sc -> month == null || month.equals(sc.getMonth()))
+        .mapToInt(StatusCount::getCount)
+        .sum();
+  }
+
+  @Test
+  public void testExpiry(TestContext context) throws Exception {
+    List<Contract> contracts =
+        Stream.of("2000-01-01", "2000-01-02", "2999-12-31")
+            .map(endDate -> postContract(contract -> contract.put("endDate", endDate)))
+            .collect(Collectors.toList());
+
+    ContractExpiry.Run run =
+        new ContractExpiry(vertx, Clock.systemUTC(), 1, 100)
+            .run()
+            .toCompletionStage()
+            .toCompletableFuture()
+            .get(60, TimeUnit.SECONDS);
+    assertThat(run.getTenants()).isPositive();
+    assertThat(run.getRowsUpdated()).isGreaterThanOrEqualTo(2);
+    assertThat(ContractExpiry.getLastRun()).isSameAs(run);
+    assertThat(contracts)
+        .extracting(
+            contract ->
+                given()
+                    .pathParam("id", contract.getId())
+                    .get("/{id}")
+                    .then()
+                    .statusCode(200)
+                    .extract()
+                    .as(Contract.class))
+        .extracting(Contract::getStatus)
+        .containsExactly(Status.EXPIRED, Status.EXPIRED, Status.PENDING);
+  }
+
+  @Test
+  public void testReconciliation(TestContext context) throws Exception {
+    envs.set("CONTRACT_RECONCILIATION_ENABLED", "true");
+
+    List<Contract> contracts =
+        Stream.of("Known", "Unknown", "Flaky", "Invalid", "Manual", "Throttled")
+            .map(
+                lastName ->
+                    postContract(
+                        contract ->
+                            withLastName(lastName)
+                                .apply(contract)
+                                .put(
+                                    "status",
+                                    "Manual".equals(lastName)
+                                        ? Status.PENDING.value()
+                                        : Status.CREATED.value())))
+            .collect(Collectors.toList());
+
+    // the queue entry is written in the transaction of the contract
+    JsonObject duplicate = JsonObject.mapFrom(contracts.get(0));
+    duplicate.remove("id");
+    given().body(duplicate.encode()).post().then().statusCode(422);
+    String queue =
+        PostgresClient.convertToPsqlStandard(TENANT) + "." + TABLE_NAME_CONTRACT_RECONCILIATION;
+    assertThat(
+            PostgresClient.getInstance(vertx, TENANT)
+                .select("SELECT id FROM " + queue, Tuple.tuple())
+                .toCompletionStage()
+                .toCompletableFuture()
+                .get(10, TimeUnit.SECONDS))
+        .extracting(row -> row.getUUID("id").toString())
+        .containsExactlyInAnyOrder(
+            contracts.get(0).getId(),
+            contracts.get(1).getId(),
+            contracts.get(2).getId(),
+            contracts.get(3).getId(),
+            contracts.get(5).getId());
+
+    AtomicInteger flakyLookups = new AtomicInteger();
+    AtomicInteger throttledLookups = new AtomicInteger();
+    ContractReconciliation reconciliation =
+        new ContractReconciliation(
+            vertx,
+            (tenantId, personal) -> {
+              switch (personal.getLastName()) {
+                case "Known":
+                  return Future.succeededFuture(Response.ok("[{\"unilogin\":\"known\"}]").build());
+                case "Flaky":
+                  if (flakyLookups.incrementAndGet() == 1) {
+                    return Future.succeededFuture(Response.status(503).entity("down").build());
+                  }
+                  return Future.succeededFuture(Response.ok("[]").build());
+                case "Throttled":
+                  if (throttledLookups.incrementAndGet() == 1) {
+                    return Future.failedFuture(new IdmUnavailableException("throttled", 0));
+                  }
+                  return Future.succeededFuture(Response.ok("[]").build());
+                case "Invalid":
+                  return Future.succeededFuture(Response.status(400).entity("bad").build());
+                default:
+                  return Future.succeededFuture(Response.ok("[]").build());
+              }
+            },
+            Clock.systemUTC(),
+            100,
+            10,
+            2,
+            3,
+            300,
+            0);
+
+    ContractReconciliation.Run run =
+        reconciliation.run().toCompletionStage().toCompletableFuture().get(60, TimeUnit.SECONDS);
+    assertThat(ContractReconciliation.getLastRun()).isSameAs(run);
+    assertThat(run.getPending()).isEqualTo(1);
+    assertThat(run.getConflict()).isEqualTo(1);
+    assertThat(run.getRetried()).isEqualTo(1);
+    assertThat(run.getFailed()).isEqualTo(1);
+
+    // a lookup rejected by the rate limit is not an attempt
+    assertThat(
+            PostgresClient.getInstance(vertx, TENANT)
+                .select(
+                    "SELECT attempts FROM " + queue + " WHERE id = $1",
+                    Tuple.of(UUID.fromString(contracts.get(5).getId())))
+                .toCompletionStage()
+                .toCompletableFuture()
+                .get(10, TimeUnit.SECONDS))
+        .extracting(row -> row.getInteger("attempts"))
+        .containsExactly(0);
+
+    run = reconciliation.run().toCompletionStage().toCompletableFuture().get(60, TimeUnit.SECONDS);
+    assertThat(run.getPending()).isEqualTo(2);
+    assertThat(run.getRetried()).isZero();
+    assertThat(flakyLookups.get()).isEqualTo(2);
+    assertThat(throttledLookups.get()).isEqualTo(2);
+
+    assertThat(contracts)
+        .extracting(
+            contract ->
+                given()
+                    .pathParam("id", contract.getId())
+                    .get("/{id}")
+                    .then()
+                    .statusCode(200)
+                    .extract()
+                    .as(Contract.class))
+        .extracting(Contract::getStatus)
+        .containsExactly(
+            Status.CONFLICT,
+            Status.PENDING,
+            Status.PENDING,
+            Status.CREATED,
+            Status.PENDING,
+            Status.PENDING);
+
+    PostgresClient.getInstance(vertx, TENANT)
+        .select(
+            "SELECT id, run_at = 'infinity' AS dead, last_error FROM " + queue, Tuple.tuple())
+        .onComplete(
+            context.asyncAssertSuccess(
+                rowSet -> {
+                  assertThat(rowSet.size()).isEqualTo(1);
+                  Row row = rowSet.iterator().next();
+                  assertThat(row.getUUID("id").toString()).isEqualTo(contracts.get(3).getId());
+                  assertThat(row.getBoolean("dead")).isTrue();
+                  assertThat(row.getString("last_error")).isEqualTo("IDM status 400: bad");
+                  assertThat(Metrics.scrape())
+                      .contains("contract_reconciliation_queue{state=\"failed\",tenant=\"diku\",}");
+                }));
+  }
+
+  @Test
+  public void testIndexesAreUsed(TestContext context) {
+    PostgresClient postgresClient = PostgresClient.getInstance(vertx, TENANT);
+    String table = PostgresClient.convertToPsqlStandard(TENANT) + "." + TABLE_NAME_CONTRACTS;
+    List<String> queries =
+        List.of(
+            "personal.lastName==Last4711",
+            "personal.firstName==First4711",
+            "personal.dateOfBirth==1962-11-25",
+            "personal.email==user4711@example.org",
+            "libraryCard==card4711",
+            "uniLogin==login4711",
+            "personal.lastName==Last4711 and personal.firstName==First4711"
+                + " and personal.dateOfBirth==1962-11-25");
+
+    postgresClient
+        .execute(
+            "INSERT INTO "
+                + table
+                + " (id, jsonb) SELECT md5(n::text)::uuid, jsonb_build_object("
+                + "'id', md5(n::text)::uuid,"
+                + "'personal', jsonb_build_object("
+                + "'firstName', 'First' || n,"
+                + "'lastName', 'Last' || n,"
+                + "'dateOfBirth', to_char(date '1950-01-01' + n, 'YYYY-MM-DD'),"
+                + "'email', 'user' || n || '@example.org'),"
+                + "'libraryCard', 'card' || n,"
+                + "'uniLogin', 'login' || n,"
+                + "'status', 'created',"
+                + "'comment', 'generated')"
+                + " FROM generate_series(1, 50000) n")
+        .compose(x -> postgresClient.execute("ANALYZE " + table))
+        .compose(
+            x -> {
+              Future<List<String>> plans = Future.succeededFuture(new ArrayList<>());
+              for (String query : queries) {
+                plans = plans.compose(list -> explain(postgresClient, table, query, list));
+              }
+              return plans;
+            })
+        .onComplete(
+            context.asyncAssertSuccess(
+                plans -> {
+                  for (int i = 0; i < queries.size(); i++) {
+                    assertThat(plans.get(i))
+                        .as(queries.get(i))
+                        .contains("Index")
+                        .doesNotContain("Seq Scan");
+                  }
+                }));
+  }
+
+  private static Future<List<String>> explain(
+      PostgresClient postgresClient, String table, String query, List<String> plans) {
+    String where;
+    try {
+      where = new CQL2PgJSON(TABLE_NAME_CONTRACTS + ".jsonb").toSql(query).getWhere();
+    } catch (QueryValidationException e) {
+      return Future.failedFuture(e);
+    }
+    return postgresClient
+        .select("EXPLAIN SELECT jsonb FROM " + table + " WHERE " + where)
+        .map(
+            rowSet -> {
+              StringBuilder plan = new StringBuilder();
+              rowSet.forEach(row -> plan.append(row.getString(0)).append('\n'));
+              plans.add(plan.toString());
+              return plans;
+            });
+  }
+
+  private static JsonObject exampleContract() {
+    return new JsonObject(contractJson);
+  }
+
+  private static JsonObject withUniqueIdentifiers(JsonObject contract) {
+    String unique = UUID.randomUUID().toString();
+    return contract.put("libraryCard", unique).put("uniLogin", unique);
+  }
+
+  private static Contract postContract(UnaryOperator<JsonObject> change) {
+    return given()
+        .body(change.apply(withUniqueIdentifiers(exampleContract())).encode())
+        .post()
+        .then()
+        .statusCode(201)
+        .extract()
+        .as(Contract.class);
+  }
+
+  private static UnaryOperator<JsonObject> withLastName(String lastName) {
+    return contract -> {
+      contract.getJsonObject("personal").put("lastName", lastName);
+      return contract;
+    };
+  }
+
+  private static UnaryOperator<JsonObject> withPerson(
+      String firstName, String lastName, String dateOfBirth) {
+    return contract -> {
+      contract
+          .getJsonObject("personal")
+          .put("firstName", firstName)
+          .put("lastName", lastName)
+          .put("dateOfBirth", dateOfBirth);
+      return contract;
+    };
+  }
 }
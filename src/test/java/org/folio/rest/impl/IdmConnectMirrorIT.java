@@ -0,0 +1,281 @@
+package org.folio.rest.impl;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.absent;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.matching;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.folio.rest.impl.Constants.BASE_PATH_SEARCHIDM;
+import static org.folio.rest.impl.Constants.CACHE_STATUS_MIRROR;
+import static org.folio.rest.impl.Constants.HEADER_CACHE_STATUS;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.notNullValue;
+
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.restassured.RestAssured;
+import io.restassured.builder.RequestSpecBuilder;
+import io.restassured.parsing.Parser;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import java.time.Clock;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.Response;
+import org.folio.idm.IdmClient;
+import org.folio.idm.IdmClientConfig;
+import org.folio.idm.IdmEndpoints;
+import org.folio.idm.IdmMirrorSync;
+import org.folio.postgres.testing.PostgresTesterContainer;
+import org.folio.rest.RestVerticle;
+import org.folio.rest.jaxrs.model.TenantAttributes;
+import org.folio.rest.persist.PostgresClient;
+import org.folio.rest.tools.utils.ModuleName;
+import org.folio.rest.tools.utils.NetworkUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import uk.org.webcompere.systemstubs.rules.EnvironmentVariablesRule;
+
+@RunWith(VertxUnitRunner.class)
+public class IdmConnectMirrorIT {
+
+  @ClassRule
+  public static WireMockRule idmApiMock =
+      new WireMockRule(new WireMockConfiguration().dynamicPort());
+
+  @Rule public EnvironmentVariablesRule envs = new EnvironmentVariablesRule();
+
+  private static final String HOST = "http://localhost";
+  private static final String TENANT = "diku";
+  private static final Map<String, String> OKAPI_HEADERS = Map.of("x-okapi-tenant", TENANT);
+  private static final Vertx vertx = Vertx.vertx();
+  private static final String IDM_TOKEN = "someToken";
+  private static final String DIRECTORY_PATH = "/directory";
+  private static final String LIVE_RESPONSE_BODY = "[{\"unilogin\":\"live\"}]";
+  private static final JsonObject JOHN_DOE =
+      new JsonObject()
+          .put("unilogin", "jdoe")
+          .put("givenname", "John")
+          .put("surname", "Doe")
+          .put("date_of_birth", "19981224");
+  private static final JsonObject ANNA_DOE =
+      new JsonObject()
+          .put("unilogin", "adoe")
+          .put("givenname", "Anna")
+          .put("surname", "Doe")
+          .put("date_of_birth", "19750101");
+  private static final JsonObject MAX_MUSTER =
+      new JsonObject()
+          .put("unilogin", "mmuster")
+          .put("givenname", "Max")
+          .put("surname", "Muster")
+          .put("date_of_birth", "19800202");
+  private static IdmClient idmClient;
+
+  @BeforeClass
+  public static void beforeClass(TestContext context) {
+    int port = NetworkUtils.nextFreePort();
+    RestAssured.reset();
+    RestAssured.defaultParser = Parser.JSON;
+    RestAssured.requestSpecification =
+        new RequestSpecBuilder()
+            .setBaseUri(HOST)
+            .setPort(port)
+            .setBasePath(BASE_PATH_SEARCHIDM)
+            .addHeaders(OKAPI_HEADERS)
+            .build();
+
+    PostgresClient.setPostgresTester(new PostgresTesterContainer());
+
+    DeploymentOptions options =
+        new DeploymentOptions().setConfig(new JsonObject().put("http.port", port));
+    vertx.deployVerticle(RestVerticle.class.getName(), options, context.asyncAssertSuccess());
+
+    idmClient = new IdmClient(vertx, IdmClientConfig.fromEnv());
+    idmApiMock.stubFor(
+        get(urlPathEqualTo(BASE_PATH_SEARCHIDM))
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(LIVE_RESPONSE_BODY)));
+    stubDirectory(JOHN_DOE, ANNA_DOE, MAX_MUSTER);
+    idmApiMock.stubFor(
+        get(urlPathEqualTo(DIRECTORY_PATH))
+            .withQueryParam(IdmMirrorSync.PARAM_CHANGED_SINCE, matching(".+"))
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/x-ndjson")
+                    .withBody(JOHN_DOE.copy().put("surname", "Doe-Smith").encode() + "\n")));
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    RestAssured.reset();
+  }
+
+  private static void stubDirectory(JsonObject... records) {
+    JsonArray directory = new JsonArray();
+    for (JsonObject record : records) {
+      directory.add(record);
+    }
+    idmApiMock.stubFor(
+        get(urlPathEqualTo(DIRECTORY_PATH))
+            .withQueryParam(IdmMirrorSync.PARAM_CHANGED_SINCE, absent())
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(directory.encode())));
+  }
+
+  private static IdmMirrorSync.Run sync(long fullIntervalSeconds) throws Exception {
+    return new IdmMirrorSync(
+            vertx,
+            idmClient,
+            Clock.systemUTC(),
+            idmApiMock.baseUrl() + DIRECTORY_PATH,
+            IDM_TOKEN,
+            fullIntervalSeconds,
+            2)
+        .run()
+        .toCompletionStage()
+        .toCompletableFuture()
+        .get(30, TimeUnit.SECONDS);
+  }
+
+  private static JsonArray search(Map<String, String> queryParams, String cacheStatus) {
+    return new JsonArray(
+        given()
+            .queryParams(queryParams)
+            .get()
+            .then()
+            .statusCode(200)
+            .header(HEADER_CACHE_STATUS, containsString(cacheStatus))
+            .extract()
+            .asString());
+  }
+
+  @Test
+  public void testMirror(TestContext context) throws Exception {
+    Promise<AsyncResult<Response>> promise = Promise.promise();
+    new CustomTenantApi()
+        .postTenantSync(
+            new TenantAttributes().withModuleTo(ModuleName.getModuleVersion()),
+            OKAPI_HEADERS,
+            promise::complete,
+            vertx.getOrCreateContext());
+    promise.future().onComplete(context.asyncAssertSuccess());
+    envs.set("IDM_URL", idmApiMock.baseUrl() + BASE_PATH_SEARCHIDM);
+    envs.set("IDM_TOKEN", IDM_TOKEN);
+    envs.set("IDM_MIRROR_ENABLED", "true");
+    IdmEndpoints.getInstance().reload();
+
+    // not synced yet
+    assertThat(search(Map.of("lastName", "Muster"), "fwd="))
+        .isEqualTo(new JsonArray(LIVE_RESPONSE_BODY));
+
+    // full sync
+    IdmMirrorSync.Run run = sync(3600);
+    assertThat(IdmMirrorSync.getLastRun()).isSameAs(run);
+    assertThat(run.getFullSyncs()).isEqualTo(run.getTenants()).isPositive();
+    assertThat(run.getRecordsStored()).isEqualTo(3 * run.getTenants());
+    assertThat(run.getRecordsDeleted()).isZero();
+
+    idmApiMock.resetRequests();
+    JsonArray johnDoe =
+        search(
+            Map.of("firstName", "john", "lastName", "DOE", "dateOfBirth", "1998-12-24"),
+            CACHE_STATUS_MIRROR);
+    assertThat(johnDoe).hasSize(1);
+    assertThat(johnDoe.getJsonObject(0).copy().put("mirrorMetadata", null))
+        .isEqualTo(JOHN_DOE.copy().put("mirrorMetadata", null));
+    assertThat(johnDoe.getJsonObject(0).getJsonObject("mirrorMetadata"))
+        .satisfies(
+            metadata -> {
+              assertThat(metadata.getString("syncedAt")).isNotNull();
+              assertThat(metadata.getString("checkedAt")).isNotNull();
+            });
+    given()
+        .queryParam("lastName", "Doe")
+        .get()
+        .then()
+        .statusCode(200)
+        .header("Age", notNullValue())
+        .header(HEADER_CACHE_STATUS, CACHE_STATUS_MIRROR);
+    assertThat(search(Map.of("lastName", "Doe"), CACHE_STATUS_MIRROR))
+        .extracting(o -> ((JsonObject) o).getString("unilogin"))
+        .containsExactly("adoe", "jdoe");
+    idmApiMock.verify(0, getRequestedFor(urlPathEqualTo(BASE_PATH_SEARCHIDM)));
+
+    // miss
+    assertThat(search(Map.of("firstName", "Jane", "lastName", "Roe"), "fwd="))
+        .isEqualTo(new JsonArray(LIVE_RESPONSE_BODY));
+    idmApiMock.verify(1, getRequestedFor(urlPathEqualTo(BASE_PATH_SEARCHIDM)));
+
+    // incremental sync
+    run = sync(3600);
+    assertThat(run.getFullSyncs()).isZero();
+    assertThat(run.getRecordsStored()).isEqualTo(run.getTenants());
+    idmApiMock.verify(
+        getRequestedFor(urlPathEqualTo(DIRECTORY_PATH))
+            .withQueryParam(IdmMirrorSync.PARAM_CHANGED_SINCE, matching(".+")));
+    assertThat(search(Map.of("lastName", "Doe-Smith"), CACHE_STATUS_MIRROR))
+        .extracting(o -> ((JsonObject) o).getString("unilogin"))
+        .containsExactly("jdoe");
+
+    // full sync removes records the IDM no longer returns
+    stubDirectory(ANNA_DOE, MAX_MUSTER);
+    run = sync(0);
+    assertThat(run.getFullSyncs()).isEqualTo(run.getTenants());
+    assertThat(run.getRecordsDeleted()).isEqualTo(run.getTenants());
+    assertThat(search(Map.of("firstName", "John", "lastName", "Doe-Smith"), "fwd="))
+        .isEqualTo(new JsonArray(LIVE_RESPONSE_BODY));
+    assertThat(search(Map.of("firstName", "Max"), CACHE_STATUS_MIRROR)).hasSize(1);
+
+    // stale mirror
+    envs.set("IDM_MIRROR_MAX_AGE", "0");
+    assertThat(search(Map.of("firstName", "Anna"), "fwd="))
+        .isEqualTo(new JsonArray(LIVE_RESPONSE_BODY));
+
+    // disabled
+    envs.set("IDM_MIRROR_MAX_AGE", "3600");
+    envs.set("IDM_MIRROR_ENABLED", "false");
+    assertThat(search(Map.of("lastName", "Muster", "dateOfBirth", "1980-02-02"), "fwd="))
+        .isEqualTo(new JsonArray(LIVE_RESPONSE_BODY));
+  }
+
+  @Test
+  public void testSyncFailure(TestContext context) throws Exception {
+    idmApiMock.stubFor(
+        get(urlPathEqualTo("/failing")).willReturn(aResponse().withStatus(500).withBody("down")));
+    IdmMirrorSync.Run run =
+        new IdmMirrorSync(
+                vertx,
+                idmClient,
+                Clock.systemUTC(),
+                idmApiMock.baseUrl() + "/failing",
+                IDM_TOKEN,
+                3600,
+                2)
+            .run()
+            .toCompletionStage()
+            .toCompletableFuture()
+            .get(30, TimeUnit.SECONDS);
+    assertThat(run.getTenants()).isZero();
+  }
+}
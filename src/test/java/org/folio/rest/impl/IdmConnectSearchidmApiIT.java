@@ -4,26 +4,68 @@ import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
 import static com.github.tomakehurst.wiremock.client.WireMock.absent;
 import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.google.common.util.concurrent.Uninterruptibles.awaitUninterruptibly;
 import static io.restassured.RestAssured.given;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.folio.rest.impl.Constants.BASE_PATH_SEARCHIDM;
+import static org.folio.rest.impl.Constants.HEADER_CACHE_STATUS;
 import static org.folio.rest.impl.Constants.MSG_IDM_URL_NOT_SET;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.notNullValue;
 
 import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import io.restassured.RestAssured;
 import io.restassured.builder.RequestSpecBuilder;
 import io.restassured.parsing.Parser;
+import io.restassured.response.ExtractableResponse;
+import io.restassured.response.Response;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Context;
 import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.folio.idm.IdmBulkhead;
+import org.folio.idm.IdmCircuitBreaker;
+import org.folio.idm.IdmClient;
+import org.folio.idm.IdmEndpoints;
+import org.folio.idm.IdmHedging;
+import org.folio.idm.IdmRateLimiter;
+import org.folio.metrics.Metrics;
 import org.folio.rest.RestVerticle;
+import org.folio.rest.jaxrs.model.CircuitBreaker;
+import org.folio.rest.jaxrs.model.ClientPool;
+import org.folio.rest.jaxrs.model.Coalescing;
+import org.folio.rest.jaxrs.model.Endpoint;
+import org.folio.rest.jaxrs.model.IdmStats;
+import org.folio.rest.jaxrs.model.Lookup;
+import org.folio.rest.jaxrs.model.SearchidmBatch;
 import org.folio.rest.tools.utils.NetworkUtils;
 import org.junit.AfterClass;
+import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.ClassRule;
 import org.junit.Rule;
@@ -45,6 +87,9 @@ public class IdmConnectSearchidmApiIT {
   private static final Map<String, String> OKAPI_HEADERS = Map.of("x-okapi-tenant", TENANT);
   private static final Vertx vertx = Vertx.vertx();
   private static final String IDM_TOKEN = "someToken";
+  private static final String SLOW_RESPONSE_BODY = "[{\"unilogin\":\"jroe\"}]";
+  private static final Map<String, String> SLOW_QUERY_PARAMS =
+      Map.of("firstName", "Jane", "lastName", "Roe", "dateOfBirth", "1990-01-01");
   private static String IDM_MOCK_URL;
 
   @BeforeClass
@@ -85,6 +130,26 @@ public class IdmConnectSearchidmApiIT {
                     .withStatus(200)
                     .withHeader("Content-Type", "application/json")
                     .withBody("[]")));
+    idmApiMock.stubFor(
+        get(urlPathEqualTo(BASE_PATH_SEARCHIDM))
+            .withQueryParams(
+                Map.of(
+                    "givenname",
+                    equalTo("Jane"),
+                    "surname",
+                    equalTo("Roe"),
+                    "date_of_birth",
+                    equalTo("19900101")))
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withFixedDelay(1000)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(SLOW_RESPONSE_BODY)));
+    idmApiMock.stubFor(
+        get(urlPathEqualTo(BASE_PATH_SEARCHIDM))
+            .withQueryParam("givenname", equalTo("Failing"))
+            .willReturn(aResponse().withStatus(500)));
     idmApiMock.stubFor(
         get(urlPathEqualTo(BASE_PATH_SEARCHIDM))
             .withHeader("Authorization", absent())
@@ -96,6 +161,11 @@ public class IdmConnectSearchidmApiIT {
     RestAssured.reset();
   }
 
+  @Before
+  public void before() {
+    IdmEndpoints.getInstance().reload();
+  }
+
   @Test
   public void testMissingUrl() {
     assertThat(System.getenv("IDM_URL")).isNull();
@@ -106,6 +176,7 @@ public class IdmConnectSearchidmApiIT {
   @Test
   public void testInvalidUrl() {
     envs.set("IDM_URL", "");
+    IdmEndpoints.getInstance().reload();
     assertThat(System.getenv("IDM_URL")).isNotNull();
     given().get().then().statusCode(400);
   }
@@ -113,6 +184,7 @@ public class IdmConnectSearchidmApiIT {
   @Test
   public void testMissingToken() {
     envs.set("IDM_URL", IDM_MOCK_URL);
+    IdmEndpoints.getInstance().reload();
     assertThat(System.getenv("IDM_TOKEN")).isNull();
     given().get().then().statusCode(401);
   }
@@ -121,13 +193,58 @@ public class IdmConnectSearchidmApiIT {
   public void testMissingQueryParameters() {
     envs.set("IDM_URL", IDM_MOCK_URL);
     envs.set("IDM_TOKEN", IDM_TOKEN);
+    IdmEndpoints.getInstance().reload();
     given().get().then().statusCode(400);
   }
 
+  @Test
+  public void testConfigFileReload() throws Exception {
+    Path file = Files.createTempFile("idm", ".properties");
+    try {
+      Files.writeString(file, "IDM_URL=" + IDM_MOCK_URL + "\nIDM_TOKEN=" + IDM_TOKEN + "\n");
+      envs.set("IDM_URL", "http://localhost:1");
+      IdmEndpoints.getInstance().reload();
+      assertThat(Metrics.scrape()).contains("endpoint=\"http://localhost:1\"");
+      envs.set("IDM_CONFIG_FILE", file.toString());
+      assertThat(IdmEndpoints.getInstance().reloadIfChanged()).isTrue();
+      assertThat(IdmEndpoints.getInstance().getConfig().getUrl()).isEqualTo(IDM_MOCK_URL);
+      // the replica that is no longer configured is dropped with its gauges
+      assertThat(IdmEndpoints.getInstance().getStats())
+          .extracting(Endpoint::getUrl)
+          .containsExactly(IDM_MOCK_URL);
+      assertThat(Metrics.scrape())
+          .doesNotContain("idm_endpoint_healthy{endpoint=\"http://localhost:1\"");
+      assertThat(IdmEndpoints.getInstance().reloadIfChanged()).isFalse();
+      given()
+          .queryParams(Map.of("firstName", "John", "lastName", "Doe", "dateOfBirth", "1998-12-24"))
+          .get()
+          .then()
+          .statusCode(200);
+
+      // the token is removed from the file
+      Files.writeString(file, "IDM_URL=" + IDM_MOCK_URL + "\n");
+      assertThat(IdmEndpoints.getInstance().reloadIfChanged()).isTrue();
+      given()
+          .queryParams(Map.of("firstName", "Jane", "lastName", "Doe", "dateOfBirth", "1998-12-24"))
+          .get()
+          .then()
+          .statusCode(401);
+
+      // an unreadable file keeps the current config
+      Files.delete(file);
+      assertThatThrownBy(() -> IdmEndpoints.getInstance().reloadIfChanged())
+          .isInstanceOf(UncheckedIOException.class);
+      assertThat(IdmEndpoints.getInstance().getConfig().getUrl()).isEqualTo(IDM_MOCK_URL);
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
   @Test
   public void testRequestOk() {
     envs.set("IDM_URL", IDM_MOCK_URL);
     envs.set("IDM_TOKEN", IDM_TOKEN);
+    IdmEndpoints.getInstance().reload();
     assertThat(
             given()
                 .queryParams(
@@ -140,4 +257,509 @@ public class IdmConnectSearchidmApiIT {
                 .asString())
         .isEqualTo("[]");
   }
+
+  @Test
+  public void testClientIsReused() {
+    envs.set("IDM_URL", IDM_MOCK_URL);
+    envs.set("IDM_TOKEN", IDM_TOKEN);
+    IdmEndpoints.getInstance().reload();
+    ClientPool before = getClientPoolStats();
+    given().get().then().statusCode(400);
+    given().get().then().statusCode(400);
+    ClientPool after = getClientPoolStats();
+
+    assertThat(after.getRequestsSent() - before.getRequestsSent()).isEqualTo(2);
+    assertThat(after.getReusedConnections() - before.getReusedConnections()).isPositive();
+    assertThat(after.getActiveRequests()).isZero();
+    assertThat(after.getOpenConnections()).isPositive();
+  }
+
+  @Test
+  public void testCacheHitAndInvalidate() {
+    envs.set("IDM_URL", IDM_MOCK_URL);
+    envs.set("IDM_TOKEN", IDM_TOKEN);
+    IdmEndpoints.getInstance().reload();
+    Map<String, String> queryParams =
+        Map.of("firstName", "John", "lastName", "Doe", "dateOfBirth", "1998-12-24");
+    given().delete("/cache").then().statusCode(204);
+    idmApiMock.resetRequests();
+
+    given()
+        .queryParams(queryParams)
+        .get()
+        .then()
+        .statusCode(200)
+        .header(HEADER_CACHE_STATUS, containsString("fwd=uri-miss; stored"));
+    assertThat(
+            given()
+                .queryParams(queryParams)
+                .get()
+                .then()
+                .statusCode(200)
+                .contentType("application/json")
+                .header(HEADER_CACHE_STATUS, containsString("; hit"))
+                .extract()
+                .asString())
+        .isEqualTo("[]");
+    idmApiMock.verify(1, getRequestedFor(urlPathEqualTo(BASE_PATH_SEARCHIDM)));
+
+    given()
+        .queryParams(Map.of("firstName", "john ", "lastName", "DOE", "dateOfBirth", "1998-12-24"))
+        .delete("/cache")
+        .then()
+        .statusCode(204);
+    given()
+        .queryParams(queryParams)
+        .get()
+        .then()
+        .statusCode(200)
+        .header(HEADER_CACHE_STATUS, containsString("fwd=uri-miss"));
+    idmApiMock.verify(2, getRequestedFor(urlPathEqualTo(BASE_PATH_SEARCHIDM)));
+  }
+
+  @Test
+  public void testErrorsAreNotCached() {
+    envs.set("IDM_URL", IDM_MOCK_URL);
+    IdmEndpoints.getInstance().reload();
+    given().get().then().statusCode(401).header(HEADER_CACHE_STATUS, containsString("uri-miss"));
+    envs.set("IDM_TOKEN", IDM_TOKEN);
+    IdmEndpoints.getInstance().reload();
+    given().get().then().statusCode(400);
+  }
+
+  @Test
+  public void testConcurrentRequestsAreCoalesced() {
+    envs.set("IDM_URL", IDM_MOCK_URL);
+    envs.set("IDM_TOKEN", IDM_TOKEN);
+    IdmEndpoints.getInstance().reload();
+    given().delete("/cache").then().statusCode(204);
+    idmApiMock.resetRequests();
+    Coalescing before = getIdmStats().getCoalescing();
+
+    // a thread per request, released together, so that all requests overlap the slow IDM response
+    ExecutorService executor = Executors.newFixedThreadPool(5);
+    CountDownLatch start = new CountDownLatch(1);
+    List<ExtractableResponse<Response>> responses;
+    try {
+      List<CompletableFuture<ExtractableResponse<Response>>> futures =
+          IntStream.range(0, 5)
+              .mapToObj(
+                  i ->
+                      CompletableFuture.supplyAsync(
+                          () -> {
+                            awaitUninterruptibly(start);
+                            return given()
+                                .queryParams(SLOW_QUERY_PARAMS)
+                                .get()
+                                .then()
+                                .statusCode(200)
+                                .extract();
+                          },
+                          executor))
+              .collect(Collectors.toList());
+      start.countDown();
+      responses = futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(responses).allSatisfy(r -> assertThat(r.asString()).isEqualTo(SLOW_RESPONSE_BODY));
+    assertThat(responses)
+        .filteredOn(r -> r.header(HEADER_CACHE_STATUS).contains("collapsed"))
+        .hasSize(4);
+    idmApiMock.verify(1, getRequestedFor(urlPathEqualTo(BASE_PATH_SEARCHIDM)));
+    Coalescing after = getIdmStats().getCoalescing();
+    assertThat(after.getCoalescedRequests() - before.getCoalescedRequests()).isEqualTo(4);
+    assertThat(after.getUpstreamRequests() - before.getUpstreamRequests()).isEqualTo(1);
+    assertThat(after.getInFlight()).isZero();
+  }
+
+  @Test
+  public void testCircuitBreakerOpens() {
+    envs.set("IDM_URL", IDM_MOCK_URL);
+    envs.set("IDM_TOKEN", IDM_TOKEN);
+    IdmEndpoints.getInstance().reload();
+    IdmCircuitBreaker.getInstance().reset();
+    try {
+      for (int i = 0; i < 20; i++) {
+        given().queryParam("firstName", "Failing").get().then().statusCode(500);
+      }
+      idmApiMock.resetRequests();
+
+      given()
+          .queryParam("firstName", "Failing")
+          .get()
+          .then()
+          .statusCode(503)
+          .header("Retry-After", notNullValue());
+      given().get().then().statusCode(503);
+      idmApiMock.verify(0, getRequestedFor(urlPathEqualTo(BASE_PATH_SEARCHIDM)));
+
+      CircuitBreaker circuitBreaker = getIdmStats().getCircuitBreaker();
+      assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+      assertThat(circuitBreaker.getRejectedCalls()).isGreaterThanOrEqualTo(2);
+    } finally {
+      IdmCircuitBreaker.getInstance().reset();
+    }
+    given().get().then().statusCode(400);
+  }
+
+  @Test
+  public void testStreamingMode() {
+    envs.set("IDM_URL", IDM_MOCK_URL);
+    envs.set("IDM_TOKEN", IDM_TOKEN);
+    envs.set("IDM_STREAMING", "true");
+    IdmEndpoints.getInstance().reload();
+    assertThat(
+            given()
+                .queryParams(SLOW_QUERY_PARAMS)
+                .get()
+                .then()
+                .statusCode(200)
+                .contentType("application/json")
+                .header(HEADER_CACHE_STATUS, containsString("fwd=bypass"))
+                .extract()
+                .asString())
+        .isEqualTo(SLOW_RESPONSE_BODY);
+    given().get().then().statusCode(400);
+    assertThat(getClientPoolStats().getActiveRequests()).isZero();
+  }
+
+  @Test
+  public void testBatch() {
+    envs.set("IDM_URL", IDM_MOCK_URL);
+    envs.set("IDM_TOKEN", IDM_TOKEN);
+    IdmEndpoints.getInstance().reload();
+    SearchidmBatch batch =
+        new SearchidmBatch()
+            .withLookups(
+                List.of(
+                    new Lookup()
+                        .withFirstname("Jane")
+                        .withLastname("Roe")
+                        .withDateOfBirth("1990-01-01"),
+                    new Lookup()
+                        .withFirstname("John")
+                        .withLastname("Doe")
+                        .withDateOfBirth("1998-12-24"),
+                    new Lookup().withFirstname("Unknown")));
+
+    String body =
+        given()
+            .contentType("application/json")
+            .body(batch)
+            .queryParam("concurrency", 2)
+            .post("/batch")
+            .then()
+            .statusCode(200)
+            .contentType("application/x-ndjson")
+            .extract()
+            .asString();
+
+    List<JsonObject> lines = body.lines().map(JsonObject::new).collect(Collectors.toList());
+    assertThat(lines).hasSize(3);
+    assertThat(lines).extracting(jo -> jo.getInteger("index")).containsExactlyInAnyOrder(0, 1, 2);
+    assertThat(lines)
+        .filteredOn(jo -> jo.getInteger("index") == 0)
+        .singleElement()
+        .satisfies(
+            jo -> {
+              assertThat(jo.getInteger("statusCode")).isEqualTo(200);
+              assertThat(jo.getJsonArray("result").encode()).isEqualTo(SLOW_RESPONSE_BODY);
+            });
+    assertThat(lines)
+        .filteredOn(jo -> jo.getInteger("index") == 1)
+        .singleElement()
+        .satisfies(jo -> assertThat(jo.getJsonArray("result")).isEmpty());
+    assertThat(lines)
+        .filteredOn(jo -> jo.getInteger("index") == 2)
+        .singleElement()
+        .satisfies(
+            jo -> {
+              assertThat(jo.getInteger("statusCode")).isEqualTo(404);
+              assertThat(jo.containsKey("error")).isTrue();
+            });
+  }
+
+  @Test
+  public void testMetrics() {
+    envs.set("IDM_URL", IDM_MOCK_URL);
+    envs.set("IDM_TOKEN", IDM_TOKEN);
+    IdmEndpoints.getInstance().reload();
+    given().get().then().statusCode(400);
+    Metrics.idmThrottled("othertenant");
+
+    String metrics =
+        given()
+            .basePath("/idm-connect")
+            .get("/metrics")
+            .then()
+            .statusCode(200)
+            .contentType(containsString("text/plain"))
+            .extract()
+            .asString();
+    assertThat(metrics)
+        .contains(
+            "http_server_requests_seconds_count{method=\"GET\",status=\"400\",tenant=\"diku\","
+                + "uri=\"/idm-connect/searchidm\",}")
+        .contains("idm_calls_seconds_count{status=\"400\",tenant=\"diku\",}")
+        .contains("idm_calls_seconds_bucket")
+        .contains("idm_client_connections_open")
+        .contains("idm_bulkhead_calls_active{tenant=\"diku\",}")
+        .doesNotContain("tenant=\"othertenant\"");
+    assertThat(Metrics.scrape()).contains("tenant=\"othertenant\"");
+  }
+
+  @Test
+  public void testFailoverToOtherEndpoint() {
+    String downUrl = "http://localhost:" + NetworkUtils.nextFreePort() + BASE_PATH_SEARCHIDM;
+    envs.set("IDM_URL", downUrl + ", " + IDM_MOCK_URL);
+    envs.set("IDM_TOKEN", IDM_TOKEN);
+    envs.set("IDM_EJECT_CONSECUTIVE_FAILURES", "2");
+    IdmEndpoints.getInstance().reload();
+    IdmCircuitBreaker.getInstance().reset();
+
+    for (int i = 0; i < 10; i++) {
+      given().get().then().statusCode(400);
+    }
+
+    List<Endpoint> endpoints = getIdmStats().getEndpoints();
+    assertThat(endpoints).extracting(Endpoint::getUrl).containsExactly(downUrl, IDM_MOCK_URL);
+    assertThat(endpoints.get(0))
+        .satisfies(
+            endpoint -> {
+              assertThat(endpoint.getHealthy()).isFalse();
+              assertThat(endpoint.getFailures()).isEqualTo(endpoint.getRequests()).isPositive();
+              assertThat(endpoint.getTimesEjected()).isPositive();
+            });
+    assertThat(endpoints.get(1))
+        .satisfies(
+            endpoint -> {
+              assertThat(endpoint.getHealthy()).isTrue();
+              assertThat(endpoint.getRequests()).isGreaterThanOrEqualTo(10);
+              assertThat(endpoint.getFailures()).isZero();
+              assertThat(endpoint.getOutstandingRequests()).isZero();
+              assertThat(endpoint.getLatencyEwma()).isPositive();
+            });
+
+    String metrics = given().basePath("/idm-connect").get("/metrics").asString();
+    assertThat(metrics)
+        .contains("idm_endpoint_calls_seconds_count{endpoint=\"" + downUrl + "\",status=\"0\",}")
+        .contains("idm_endpoint_healthy{endpoint=\"" + IDM_MOCK_URL + "\",} 1.0")
+        .contains("idm_endpoint_latency_ewma{endpoint=\"" + IDM_MOCK_URL + "\",}");
+  }
+
+  @Test
+  public void testHedging() throws Exception {
+    Context context = vertx.getOrCreateContext();
+    List<String> cancelled = new CopyOnWriteArrayList<>();
+    IdmHedging hedging = new IdmHedging(true, 50, 1, 100, 100, 4);
+    for (int i = 0; i < 4; i++) {
+      assertThat(onContext(context, () -> hedging.execute(vertx, cancel -> delayed("fast", 5))))
+          .isEqualTo("fast");
+    }
+    assertThat(hedging.getDelayNanos()).isPositive();
+
+    // the hedge answers first, the slow request is cancelled
+    AtomicInteger attempts = new AtomicInteger();
+    String result =
+        onContext(
+            context,
+            () ->
+                hedging.execute(
+                    vertx,
+                    cancel -> {
+                      if (attempts.incrementAndGet() == 1) {
+                        cancel.onComplete(v -> cancelled.add("slow"));
+                        return delayed("slow", 2000);
+                      }
+                      return delayed("hedge", 5);
+                    }));
+    assertThat(result).isEqualTo("hedge");
+    assertThat(attempts.get()).isEqualTo(2);
+    assertThat(cancelled).containsExactly("slow");
+    assertThat(hedging.getStats())
+        .satisfies(
+            stats -> {
+              assertThat(stats.getRequests()).isEqualTo(5);
+              assertThat(stats.getHedges()).isEqualTo(1);
+              assertThat(stats.getHedgeWins()).isEqualTo(1);
+              assertThat(stats.getDelay()).isNotNull();
+            });
+
+    // without budget no hedge is sent
+    IdmHedging noBudget = new IdmHedging(true, 50, 1, 0, 100, 4);
+    for (int i = 0; i < 4; i++) {
+      onContext(context, () -> noBudget.execute(vertx, cancel -> delayed("fast", 5)));
+    }
+    attempts.set(0);
+    assertThat(
+            onContext(
+                context,
+                () ->
+                    noBudget.execute(
+                        vertx,
+                        cancel -> {
+                          attempts.incrementAndGet();
+                          return delayed("slow", 200);
+                        })))
+        .isEqualTo("slow");
+    assertThat(attempts.get()).isEqualTo(1);
+    assertThat(noBudget.getStats().getBudgetExhausted()).isEqualTo(1);
+  }
+
+  @Test
+  public void testRateLimitResponse() {
+    envs.set("IDM_URL", IDM_MOCK_URL);
+    envs.set("IDM_TOKEN", IDM_TOKEN);
+    envs.set("IDM_RATE_LIMIT_RATE", "0.01");
+    envs.set("IDM_RATE_LIMIT_BURST", "1");
+    envs.set("IDM_RATE_LIMIT_PER_USER", "true");
+    IdmEndpoints.getInstance().reload();
+    Map<String, String> queryParams =
+        Map.of("firstName", "John", "lastName", "Doe", "dateOfBirth", "1998-12-24");
+    String user = UUID.randomUUID().toString();
+
+    given().header("X-Okapi-User-Id", user).queryParams(queryParams).get().then().statusCode(200);
+    given()
+        .header("X-Okapi-User-Id", user)
+        .queryParams(queryParams)
+        .get()
+        .then()
+        .statusCode(429)
+        .header("Retry-After", notNullValue())
+        .body(containsString("rate limit"));
+    // another user has a bucket of its own
+    given()
+        .header("X-Okapi-User-Id", UUID.randomUUID().toString())
+        .queryParams(queryParams)
+        .get()
+        .then()
+        .statusCode(200);
+
+    // a batch without a token for its first lookup is rejected as a whole
+    Lookup lookup =
+        new Lookup().withFirstname("John").withLastname("Doe").withDateOfBirth("1998-12-24");
+    given()
+        .header("X-Okapi-User-Id", user)
+        .contentType("application/json")
+        .body(new SearchidmBatch().withLookups(List.of(lookup, lookup)))
+        .post("/batch")
+        .then()
+        .statusCode(429)
+        .header("Retry-After", notNullValue());
+
+    // a started batch waits for the tokens of its lookups
+    envs.set("IDM_RATE_LIMIT_RATE", "5");
+    IdmEndpoints.getInstance().reload();
+    long start = System.nanoTime();
+    String body =
+        given()
+            .header("X-Okapi-User-Id", UUID.randomUUID().toString())
+            .contentType("application/json")
+            .body(new SearchidmBatch().withLookups(List.of(lookup, lookup, lookup)))
+            .queryParam("concurrency", 3)
+            .post("/batch")
+            .then()
+            .statusCode(200)
+            .extract()
+            .asString();
+    assertThat(body.lines().map(JsonObject::new))
+        .extracting(jo -> jo.getInteger("statusCode"))
+        .containsExactly(200, 200, 200);
+    assertThat(System.nanoTime() - start)
+        .isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(300));
+    assertThat(getIdmStats().getRateLimit().getThrottledRequests()).isGreaterThanOrEqualTo(2);
+  }
+
+  @Test
+  public void testTenantsAreIsolated() {
+    Map<String, String> queryParams = Map.of("surname", "Doe");
+    assertThat(IdmConnectApi.createCoalescingKey(TENANT, IDM_MOCK_URL, IDM_TOKEN, queryParams))
+        .isNotEqualTo(
+            IdmConnectApi.createCoalescingKey("other", IDM_MOCK_URL, IDM_TOKEN, queryParams));
+
+    IdmBulkhead bulkhead = new IdmBulkhead(0);
+    assertThat(bulkhead.execute(TENANT, () -> Future.succeededFuture()).failed()).isTrue();
+    assertThat(bulkhead.getStats(TENANT).getRejectedCalls()).isEqualTo(1);
+    assertThat(bulkhead.getStats("other").getRejectedCalls()).isZero();
+  }
+
+  @Test
+  public void testClientIsClosedWithVerticle(TestContext context) {
+    Promise<IdmClient> client = Promise.promise();
+    vertx
+        .deployVerticle(
+            new AbstractVerticle() {
+              @Override
+              public void start() {
+                client.complete(IdmClient.get(Vertx.currentContext()));
+              }
+            })
+        .compose(
+            id -> {
+              assertThat(IdmClient.getInstances()).contains(client.future().result());
+              return vertx.undeploy(id);
+            })
+        .onComplete(
+            context.asyncAssertSuccess(
+                v ->
+                    assertThat(IdmClient.getInstances())
+                        .doesNotContain(client.future().result())));
+  }
+
+  @Test
+  public void testRateLimit() {
+    IdmRateLimiter limiter = new IdmRateLimiter(1, 2, false);
+    assertThat(limiter.tryAcquire(TENANT, "u1")).isZero();
+    assertThat(limiter.tryAcquire(TENANT, "u2")).isZero();
+    long wait = limiter.tryAcquire(TENANT, "u1");
+    assertThat(wait).isPositive().isLessThanOrEqualTo(TimeUnit.SECONDS.toNanos(1));
+    assertThat(IdmRateLimiter.toRetryAfterSeconds(wait)).isEqualTo(1);
+    // other tenants have buckets of their own
+    assertThat(limiter.tryAcquire("other", "u1")).isZero();
+    assertThat(limiter.getStats(TENANT))
+        .satisfies(
+            stats -> {
+              assertThat(stats.getEnabled()).isTrue();
+              assertThat(stats.getBurst()).isEqualTo(2);
+              assertThat(stats.getThrottledRequests()).isEqualTo(1);
+            });
+    assertThat(limiter.getThrottledRequests("other")).isZero();
+
+    IdmRateLimiter perUser = new IdmRateLimiter(1, 1, true);
+    assertThat(perUser.tryAcquire(TENANT, "u1")).isZero();
+    assertThat(perUser.tryAcquire(TENANT, "u1")).isPositive();
+    assertThat(perUser.tryAcquire(TENANT, "u2")).isZero();
+
+    IdmRateLimiter disabled = new IdmRateLimiter(0, 1, false);
+    for (int i = 0; i < 10; i++) {
+      assertThat(disabled.tryAcquire(TENANT, null)).isZero();
+    }
+    assertThat(getIdmStats().getRateLimit().getEnabled()).isFalse();
+  }
+
+  private static Future<String> delayed(String value, long millis) {
+    Promise<String> promise = Promise.promise();
+    vertx.setTimer(millis, id -> promise.complete(value));
+    return promise.future();
+  }
+
+  private static <T> T onContext(Context context, Supplier<Future<T>> call) throws Exception {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    context.runOnContext(
+        v ->
+            call.get()
+                .onSuccess(result::complete)
+                .onFailure(result::completeExceptionally));
+    return result.get(10, TimeUnit.SECONDS);
+  }
+
+  private IdmStats getIdmStats() {
+    return given().get("/stats").then().statusCode(200).extract().as(IdmStats.class);
+  }
+
+  private ClientPool getClientPoolStats() {
+    return getIdmStats().getClientPool();
+  }
 }
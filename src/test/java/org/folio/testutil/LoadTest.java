@@ -0,0 +1,481 @@
+package org.folio.testutil;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static org.folio.rest.impl.Constants.BASE_PATH_CONTRACTS;
+import static org.folio.rest.impl.Constants.BASE_PATH_SEARCHIDM;
+import static org.folio.rest.impl.Constants.TABLE_NAME_CONTRACTS;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.common.FileSource;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.github.tomakehurst.wiremock.extension.Parameters;
+import com.github.tomakehurst.wiremock.extension.ResponseDefinitionTransformer;
+import com.github.tomakehurst.wiremock.http.Request;
+import com.github.tomakehurst.wiremock.http.ResponseDefinition;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpRequest;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+import javax.ws.rs.core.Response;
+import org.folio.contract.SyntheticContracts;
+import org.folio.postgres.testing.PostgresTesterContainer;
+import org.folio.rest.RestVerticle;
+import org.folio.rest.impl.CustomTenantApi;
+import org.folio.rest.jaxrs.model.Contract;
+import org.folio.rest.jaxrs.model.Contract.Status;
+import org.folio.rest.jaxrs.model.TenantAttributes;
+import org.folio.rest.persist.PostgresClient;
+import org.folio.rest.tools.utils.ModuleName;
+import org.folio.rest.tools.utils.NetworkUtils;
+import uk.org.webcompere.systemstubs.environment.EnvironmentVariables;
+
+/**
+ * Load test of the module. Starts the module with an embedded Postgres and a WireMock stand-in for
+ * the IDM, loads generated contracts and runs a mixed workload at a fixed request rate. The rate is
+ * held independent of the response times (open model) and latencies are measured from the
+ * scheduled start of a request, so that a slow module doesn't hide its own latency.
+ *
+ * <p>Configured with system properties, see {@link #main(String[])}. Prints throughput and
+ * latency percentiles per operation and writes them as JSON to {@code loadtest.report}.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=org.folio.testutil.LoadTest -Dloadtest.rate=200
+ * </pre>
+ */
+public class LoadTest {
+
+  private static final String TENANT = "loadtest";
+  private static final Map<String, String> OKAPI_HEADERS = Map.of("x-okapi-tenant", TENANT);
+  private static final String IDM_RESPONSE_BODY =
+      "[{\"givenname\":\"Anna\",\"surname\":\"Weber\",\"unilogin\":\"awe12abc\"}]";
+
+  private final Config config;
+  private final Random random;
+  private final Vertx moduleVertx = Vertx.vertx();
+  private final Vertx clientVertx = Vertx.vertx();
+  private final Map<String, Double> weights;
+  private final Map<String, LatencyRecorder> recorders = new LinkedHashMap<>();
+  private final List<Contract> contracts = new ArrayList<>();
+  private WireMockServer idm;
+  private WebClient webClient;
+  private int port;
+  private int contractNumber;
+  private long issued;
+  private int inFlight;
+  private boolean recording;
+
+  public LoadTest(Config config) {
+    this.config = config;
+    this.random = new Random(config.seed);
+    this.weights = parseMix(config.mix);
+    weights.keySet().forEach(op -> recorders.put(op, new LatencyRecorder()));
+  }
+
+  /**
+   * System properties and their defaults: {@code loadtest.rate} (100 requests per second), {@code
+   * loadtest.duration} (60 s), {@code loadtest.warmup} (10 s), {@code loadtest.contracts} (10000
+   * contracts loaded before the test), {@code loadtest.connections} (50), {@code
+   * loadtest.idmLatency} (50 ms), {@code loadtest.idmErrorRate} (0.0), {@code loadtest.seed} (1),
+   * {@code loadtest.mix} (create=1,get=4,update=1,delete=1,search=3,searchidm=2) and {@code
+   * loadtest.report} (target/load-test-result.json).
+   */
+  public static void main(String[] args) throws Exception {
+    Config config = Config.fromSystemProperties();
+    LoadTest loadTest = new LoadTest(config);
+    int exitCode = 0;
+    try {
+      JsonObject report = loadTest.run();
+      System.out.println(report.encodePrettily());
+      Path path = Paths.get(config.report);
+      if (path.getParent() != null) {
+        Files.createDirectories(path.getParent());
+      }
+      Files.writeString(path, report.encodePrettily());
+    } catch (Exception e) {
+      e.printStackTrace();
+      exitCode = 1;
+    } finally {
+      loadTest.close();
+    }
+    System.exit(exitCode);
+  }
+
+  public JsonObject run() throws Exception {
+    startIdm();
+    new EnvironmentVariables()
+        .set("IDM_URL", idm.baseUrl() + BASE_PATH_SEARCHIDM)
+        .set("IDM_TOKEN", "loadtest")
+        .setup();
+    PostgresClient.setPostgresTester(new PostgresTesterContainer());
+    port = NetworkUtils.nextFreePort();
+    webClient =
+        WebClient.create(
+            clientVertx,
+            new WebClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(port)
+                .setMaxPoolSize(config.connections));
+
+    await(
+        moduleVertx
+            .deployVerticle(
+                RestVerticle.class.getName(),
+                new DeploymentOptions().setConfig(new JsonObject().put("http.port", port)))
+            .compose(id -> initTenant())
+            .compose(v -> loadContracts()));
+
+    Promise<Void> done = Promise.promise();
+    clientVertx.runOnContext(v -> startLoad(done));
+    await(done.future());
+    return report();
+  }
+
+  public void close() {
+    if (idm != null) {
+      idm.stop();
+    }
+    clientVertx.close();
+    moduleVertx.close();
+  }
+
+  private void startIdm() {
+    idm =
+        new WireMockServer(
+            new WireMockConfiguration()
+                .dynamicPort()
+                .extensions(new ErrorInjection(config.idmErrorRate, config.seed)));
+    idm.start();
+    idm.stubFor(
+        get(urlPathEqualTo(BASE_PATH_SEARCHIDM))
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(IDM_RESPONSE_BODY)
+                    .withFixedDelay(config.idmLatency)
+                    .withTransformers(ErrorInjection.NAME)));
+  }
+
+  private Future<Void> initTenant() {
+    Promise<AsyncResult<Response>> promise = Promise.promise();
+    new CustomTenantApi()
+        .postTenantSync(
+            new TenantAttributes().withModuleTo(ModuleName.getModuleVersion()),
+            OKAPI_HEADERS,
+            promise::complete,
+            moduleVertx.getOrCreateContext());
+    return promise
+        .future()
+        .compose(
+            ar -> {
+              if (ar.failed()) {
+                return Future.failedFuture(ar.cause());
+              }
+              if (ar.result().getStatus() >= 300) {
+                return Future.failedFuture("Tenant init failed: " + ar.result().getEntity());
+              }
+              return Future.succeededFuture();
+            });
+  }
+
+  private Future<Void> loadContracts() {
+    PostgresClient postgresClient = PostgresClient.getInstance(moduleVertx, TENANT);
+    Future<Void> future = Future.succeededFuture();
+    for (int offset = 0; offset < config.contracts; offset += 1000) {
+      int count = Math.min(1000, config.contracts - offset);
+      future =
+          future.compose(
+              v -> {
+                List<Contract> batch = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                  batch.add(newContract());
+                }
+                contracts.addAll(batch);
+                return postgresClient.saveBatch(TABLE_NAME_CONTRACTS, batch).mapEmpty();
+              });
+    }
+    return future;
+  }
+
+  private Contract newContract() {
+    return SyntheticContracts.createContract(random, ++contractNumber);
+  }
+
+  private void startLoad(Promise<Void> done) {
+    long start = System.nanoTime();
+    long warmupNanos = config.warmupSeconds * 1_000_000_000L;
+    long endNanos = warmupNanos + config.durationSeconds * 1_000_000_000L;
+    clientVertx.setPeriodic(
+        5,
+        timerId -> {
+          long elapsed = System.nanoTime() - start;
+          recording = elapsed >= warmupNanos;
+          if (elapsed >= endNanos) {
+            clientVertx.cancelTimer(timerId);
+            awaitInFlight(done, System.nanoTime());
+            return;
+          }
+          long due = elapsed * config.rate / 1_000_000_000L;
+          while (issued < due) {
+            long intendedStart = start + issued * 1_000_000_000L / config.rate;
+            issued++;
+            execute(nextOperation(), intendedStart);
+          }
+        });
+  }
+
+  private void awaitInFlight(Promise<Void> done, long since) {
+    if (inFlight == 0 || System.nanoTime() - since > 30_000_000_000L) {
+      done.complete();
+      return;
+    }
+    clientVertx.setTimer(10, id -> awaitInFlight(done, since));
+  }
+
+  private String nextOperation() {
+    double sum = weights.values().stream().mapToDouble(Double::doubleValue).sum();
+    double r = random.nextDouble() * sum;
+    for (Map.Entry<String, Double> entry : weights.entrySet()) {
+      r -= entry.getValue();
+      if (r < 0) {
+        return entry.getKey();
+      }
+    }
+    return weights.keySet().iterator().next();
+  }
+
+  private void execute(String operation, long intendedStart) {
+    Supplier<Future<HttpResponse<Buffer>>> request = createRequest(operation);
+    boolean record = recording;
+    inFlight++;
+    request
+        .get()
+        .onComplete(
+            ar -> {
+              inFlight--;
+              if (!record) {
+                return;
+              }
+              boolean error = ar.failed() || ar.result().statusCode() >= 400;
+              recorders.get(operation).record(System.nanoTime() - intendedStart, error);
+            });
+  }
+
+  private Supplier<Future<HttpResponse<Buffer>>> createRequest(String operation) {
+    Contract contract =
+        contracts.isEmpty() ? null : contracts.get(random.nextInt(contracts.size()));
+    switch (operation) {
+      case "create":
+        Contract newContract = newContract();
+        contracts.add(newContract);
+        return () -> request(webClient.post(BASE_PATH_CONTRACTS), newContract);
+      case "get":
+        if (contract == null) {
+          return createRequest("create");
+        }
+        return () -> request(webClient.get(BASE_PATH_CONTRACTS + "/" + contract.getId()), null);
+      case "update":
+        if (contract == null) {
+          return createRequest("create");
+        }
+        contract.setStatus(Status.values()[random.nextInt(Status.values().length)]);
+        String body = Json.encode(contract);
+        return () -> request(webClient.put(BASE_PATH_CONTRACTS + "/" + contract.getId()), body);
+      case "delete":
+        if (contract == null || contracts.size() <= config.contracts / 2) {
+          return createRequest("get");
+        }
+        contracts.remove(contract);
+        return () -> request(webClient.delete(BASE_PATH_CONTRACTS + "/" + contract.getId()), null);
+      case "search":
+        String lastName = contract == null ? "Weber" : contract.getPersonal().getLastName();
+        return () ->
+            request(
+                webClient
+                    .get(BASE_PATH_CONTRACTS)
+                    .addQueryParam("query", "personal.lastName==\"" + lastName + "\"")
+                    .addQueryParam("limit", "10"),
+                null);
+      case "searchidm":
+        if (contract == null) {
+          return createRequest("create");
+        }
+        return () ->
+            request(
+                webClient
+                    .get(BASE_PATH_SEARCHIDM)
+                    .addQueryParam("firstname", contract.getPersonal().getFirstName())
+                    .addQueryParam("lastname", contract.getPersonal().getLastName())
+                    .addQueryParam("dateOfBirth", contract.getPersonal().getDateOfBirth()),
+                null);
+      default:
+        throw new IllegalArgumentException("Unknown operation " + operation);
+    }
+  }
+
+  private Future<HttpResponse<Buffer>> request(HttpRequest<Buffer> request, Object body) {
+    request.putHeader("x-okapi-tenant", TENANT).putHeader("Accept", "application/json, text/plain");
+    if (body == null) {
+      return request.send();
+    }
+    return request
+        .putHeader("Content-Type", "application/json")
+        .sendBuffer(Buffer.buffer(body instanceof String ? (String) body : Json.encode(body)));
+  }
+
+  private JsonObject report() {
+    JsonObject operations = new JsonObject();
+    recorders.forEach(
+        (operation, recorder) ->
+            operations.put(operation, recorder.toJson(config.durationSeconds)));
+    return new JsonObject().put("config", JsonObject.mapFrom(config)).put("operations", operations);
+  }
+
+  private static Map<String, Double> parseMix(String mix) {
+    Map<String, Double> weights = new LinkedHashMap<>();
+    Arrays.stream(mix.split(","))
+        .map(String::trim)
+        .filter(s -> !s.isEmpty())
+        .forEach(
+            s -> {
+              String[] parts = s.split("=");
+              weights.put(parts[0].trim(), Double.parseDouble(parts[1].trim()));
+            });
+    return weights;
+  }
+
+  private static <T> T await(Future<T> future) throws Exception {
+    return future.toCompletionStage().toCompletableFuture().get();
+  }
+
+  public static class Config {
+
+    public int rate;
+    public int durationSeconds;
+    public int warmupSeconds;
+    public int contracts;
+    public int connections;
+    public int idmLatency;
+    public double idmErrorRate;
+    public long seed;
+    public String mix;
+    public String report;
+
+    public static Config fromSystemProperties() {
+      Config config = new Config();
+      config.rate = Integer.getInteger("loadtest.rate", 100);
+      config.durationSeconds = Integer.getInteger("loadtest.duration", 60);
+      config.warmupSeconds = Integer.getInteger("loadtest.warmup", 10);
+      config.contracts = Integer.getInteger("loadtest.contracts", 10000);
+      config.connections = Integer.getInteger("loadtest.connections", 50);
+      config.idmLatency = Integer.getInteger("loadtest.idmLatency", 50);
+      config.idmErrorRate = Double.parseDouble(System.getProperty("loadtest.idmErrorRate", "0"));
+      config.seed = Long.getLong("loadtest.seed", 1);
+      config.mix =
+          System.getProperty(
+              "loadtest.mix", "create=1,get=4,update=1,delete=1,search=3,searchidm=2");
+      config.report = System.getProperty("loadtest.report", "target/load-test-result.json");
+      return config;
+    }
+  }
+
+  /** Latencies of one operation, kept in full so that exact percentiles can be reported. */
+  static class LatencyRecorder {
+
+    private long[] latencies = new long[1024];
+    private int count;
+    private int errors;
+
+    void record(long latencyNanos, boolean error) {
+      if (count == latencies.length) {
+        latencies = Arrays.copyOf(latencies, count * 2);
+      }
+      latencies[count++] = latencyNanos;
+      if (error) {
+        errors++;
+      }
+    }
+
+    JsonObject toJson(int durationSeconds) {
+      long[] sorted = Arrays.copyOf(latencies, count);
+      Arrays.sort(sorted);
+      return new JsonObject()
+          .put("count", count)
+          .put("errors", errors)
+          .put("throughput", (double) count / durationSeconds)
+          .put("p50", percentileMillis(sorted, 0.50))
+          .put("p95", percentileMillis(sorted, 0.95))
+          .put("p99", percentileMillis(sorted, 0.99))
+          .put("max", percentileMillis(sorted, 1.0));
+    }
+
+    private static double percentileMillis(long[] sorted, double percentile) {
+      if (sorted.length == 0) {
+        return 0;
+      }
+      int index = (int) Math.ceil(percentile * sorted.length) - 1;
+      return sorted[Math.max(index, 0)] / 1_000_000.0;
+    }
+  }
+
+  /** Lets a share of the IDM requests fail with status 500. */
+  static class ErrorInjection extends ResponseDefinitionTransformer {
+
+    static final String NAME = "error-injection";
+
+    private final double errorRate;
+    private final Random random;
+
+    ErrorInjection(double errorRate, long seed) {
+      this.errorRate = errorRate;
+      this.random = new Random(seed);
+    }
+
+    @Override
+    public ResponseDefinition transform(
+        Request request,
+        ResponseDefinition responseDefinition,
+        FileSource files,
+        Parameters parameters) {
+      boolean fail;
+      synchronized (random) {
+        fail = random.nextDouble() < errorRate;
+      }
+      if (fail) {
+        return new ResponseDefinition(500, "injected error");
+      }
+      return responseDefinition;
+    }
+
+    @Override
+    public boolean applyGlobally() {
+      return false;
+    }
+
+    @Override
+    public String getName() {
+      return NAME;
+    }
+  }
+}